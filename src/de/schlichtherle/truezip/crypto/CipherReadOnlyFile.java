@@ -7,6 +7,7 @@ package de.schlichtherle.truezip.crypto;
 import de.schlichtherle.truezip.io.Streams;
 import de.schlichtherle.truezip.rof.DecoratingReadOnlyFile;
 import de.schlichtherle.truezip.rof.ReadOnlyFile;
+import java.io.EOFException;
 import java.io.IOException;
 import static java.lang.Math.min;
 import libtruezip.lcrypto.crypto.Mac;
@@ -44,6 +45,10 @@ import libtruezip.lcrypto.crypto.Mac;
 // have to provide another buffer to copy the data into before we could
 // actually decrypt it, which is redundant.
 //
+// Optionally, a MAC can get computed on the fly while the encrypted data is
+// read into the window buffer in sequential order, so that the encrypted data
+// does not need to get read twice for authentication.
+//
 public abstract class CipherReadOnlyFile extends DecoratingReadOnlyFile {
 
     private static final long INVALID = Long.MIN_VALUE;
@@ -82,6 +87,18 @@ public abstract class CipherReadOnlyFile extends DecoratingReadOnlyFile {
     /** The buffer for the decrypted file data. */
     private byte[] block;
 
+    /**
+     * The MAC which gets updated with the encrypted data while reading it or
+     * {@code null} if no MAC has been started.
+     */
+    private Mac mac;
+
+    /**
+     * The offset in the encrypted data up to which the {@link #mac} has been
+     * updated.
+     */
+    private long macPos;
+
     /**
      * Creates a read only file for transparent random read access to an
      * encrypted file.
@@ -178,6 +195,101 @@ public abstract class CipherReadOnlyFile extends DecoratingReadOnlyFile {
         }
     }
 
+    /**
+     * Reads all encrypted data into the window buffer if its length does not
+     * exceed the given maximum buffer size.
+     * Subsequent calls to {@link #computeMac} or the read methods are then
+     * served from memory, so that the encrypted data needs to get read only
+     * once in order to authenticate and decrypt it.
+     *
+     * @param  maxBufferSize the maximum number of bytes to buffer.
+     * @return {@code true} if and only if all encrypted data is buffered.
+     * @throws IOException on any I/O error.
+     */
+    protected final boolean buffer(final int maxBufferSize) throws IOException {
+        checkOpen();
+        final long length = this.length;
+        if (0 == bufferStart && length <= buffer.length)
+            return true;
+        if (length > maxBufferSize)
+            return false;
+        final int blockSize = block.length;
+        final long bufferSize = Math.max(blockSize,
+                (length + blockSize - 1) / blockSize * blockSize); // round up to multiple of block size
+        if (Integer.MAX_VALUE < bufferSize)
+            return false;
+        final long safedFp = pos;
+        final byte[] safedBuffer = this.buffer;
+        this.buffer = new byte[(int) bufferSize];
+        this.bufferStart = INVALID;
+        try {
+            pos = 0;
+            positionBuffer();
+        } catch (final IOException ex) {
+            this.buffer = safedBuffer;
+            throw ex;
+        } finally {
+            pos = safedFp;
+        }
+        assert 0 == bufferStart;
+        return true;
+    }
+
+    /**
+     * Starts to compute the authentication code of the encrypted data in
+     * this cipher read-only file using the given Message Authentication Code
+     * (MAC) object while the encrypted data gets read.
+     * Use {@link #finishMac} in order to get the authentication code.
+     * This saves reading the encrypted data twice if it gets read in
+     * sequential order.
+     *
+     * @param mac a properly initialized MAC object.
+     */
+    protected final void startMac(final Mac mac) {
+        if (null == mac)
+            throw new NullPointerException();
+        this.mac = mac;
+        this.macPos = 0;
+        // Force the window buffer to get refilled so that its data is
+        // presented to the MAC.
+        this.bufferStart = INVALID;
+    }
+
+    /**
+     * Returns the authentication code of the encrypted data in this cipher
+     * read-only file which has been computed since the last call to
+     * {@link #startMac}.
+     * Any encrypted data which has not yet been read gets read now.
+     *
+     * @return A byte array with the authentication code.
+     * @throws IllegalStateException if no MAC has been started.
+     * @throws IOException on any I/O error.
+     */
+    protected final byte[] finishMac() throws IOException {
+        final Mac mac = this.mac;
+        if (null == mac)
+            throw new IllegalStateException();
+        final long safedFp = getFilePointer();
+        try {
+            final long length = this.length;
+            while (macPos < length) {
+                final long macPos = this.macPos;
+                bufferStart = INVALID;
+                pos = macPos;
+                positionBuffer();
+                if (macPos == this.macPos)
+                    throw new EOFException();
+            }
+        } finally {
+            pos = safedFp;
+        }
+        this.mac = null;
+        final byte[] buf = new byte[mac.getMacSize()];
+        final int bufLength = mac.doFinal(buf, 0);
+        assert bufLength == buf.length;
+        return buf;
+    }
+
     @Override
     public int read() throws IOException {
         // Check state.
@@ -230,16 +342,22 @@ public abstract class CipherReadOnlyFile extends DecoratingReadOnlyFile {
             // Full read of block data in the middle.
             final SeekableBlockCipher cipher = this.cipher;
             final byte[] buffer = this.buffer;
-            long blockCounter = pos / blockSize;
             while (total + blockSize <= remaining && pos + blockSize <= length) {
                 assert pos % blockSize == 0;
                 positionBuffer();
-                cipher.setBlockCounter(blockCounter++);
+                cipher.setBlockCounter(pos / blockSize);
                 final int bufferPos = (int) (pos - bufferStart);
-                final int blockLimit = cipher.processBlock(
+                // Decrypt as many blocks from the window as possible at once.
+                final int blocks = (int) min(min(remaining - total,
+                                                 length - pos),
+                                             buffer.length - bufferPos)
+                        / blockSize;
+                final int blockLimit = processBlocks(
+                        cipher,
                         buffer, bufferPos,
-                        dst, offset + total);
-                assert blockLimit == blockSize;
+                        dst, offset + total,
+                        blocks);
+                assert blockLimit == blocks * blockSize;
                 total += blockLimit;
                 pos += blockLimit;
             }
@@ -261,6 +379,28 @@ public abstract class CipherReadOnlyFile extends DecoratingReadOnlyFile {
         return total;
     }
 
+    /**
+     * Processes the given number of consecutive blocks with the given cipher.
+     * If the cipher is a {@link SICSeekableBlockCipher}, then its bulk
+     * processing method gets used.
+     */
+    private static int processBlocks(
+            final SeekableBlockCipher cipher,
+            final byte[] in,
+            final int inOff,
+            final byte[] out,
+            final int outOff,
+            final int blocks) {
+        if (cipher instanceof SICSeekableBlockCipher)
+            return ((SICSeekableBlockCipher) cipher).processBlocks(
+                    in, inOff, out, outOff, blocks);
+        final int blockSize = cipher.getBlockSize();
+        final int length = blocks * blockSize;
+        for (int off = 0; off < length; off += blockSize)
+            cipher.processBlock(in, inOff + off, out, outOff + off);
+        return length;
+    }
+
     @Override
     public long getFilePointer() throws IOException {
         checkOpen();
@@ -372,6 +512,17 @@ public abstract class CipherReadOnlyFile extends DecoratingReadOnlyFile {
                     break;
                 total += read;
             } while (total < bufferSize);
+
+            // Update the MAC if the window buffer continues the encrypted
+            // data which has been presented to it so far.
+            final Mac mac = this.mac;
+            if (null != mac && bufferStart == macPos) {
+                final int macLimit = (int) min(total, length - bufferStart);
+                if (0 < macLimit) {
+                    mac.update(buffer, 0, macLimit);
+                    macPos += macLimit;
+                }
+            }
         } catch (final IOException ex) {
             this.bufferStart = INVALID;
             throw ex;
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.crypto;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import libtruezip.lcrypto.crypto.BlockCipher;
+import libtruezip.lcrypto.crypto.Mac;
+import libtruezip.lcrypto.crypto.digests.SHA1Digest;
+import libtruezip.lcrypto.crypto.digests.SHA256Digest;
+import libtruezip.lcrypto.crypto.engines.AESFastEngine;
+import libtruezip.lcrypto.crypto.macs.HMac;
+import libtruezip.lcrypto.crypto.params.KeyParameter;
+
+/**
+ * Provides the block ciphers and message authentication codes for the
+ * RAES and WinZip AES encryption.
+ * <p>
+ * The {@linkplain #get() default provider} is {@link #JCE} if it is
+ * {@linkplain #isAvailable() available} and {@link #LCRYPTO} otherwise.
+ * It may get selected by setting the system property
+ * {@code de.schlichtherle.truezip.crypto.CryptoProvider} to the name of
+ * the respective enum constant.
+ *
+ * @author Christian Schlichtherle
+ */
+public enum CryptoProvider {
+
+    /**
+     * Provides the pure Java implementations of the bundled Lightweight
+     * Crypto API.
+     */
+    LCRYPTO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public BlockCipher newAESEngine() {
+            return new AESFastEngine();
+        }
+
+        @Override
+        public Mac newHMacSHA1() {
+            return new HMac(new SHA1Digest());
+        }
+
+        @Override
+        public Mac newHMacSHA256() {
+            return new HMac(new SHA256Digest());
+        }
+    },
+
+    /**
+     * Provides the implementations of the Java Cryptography Extension, which
+     * are typically much faster because the JVM may use the AES-NI and SHA
+     * instruction sets of the CPU.
+     * The AES engine processes many blocks in one call when used by a
+     * {@link SICSeekableBlockCipher}.
+     * This provider is available if and only if the JCE supports AES with
+     * 256 bit keys, HmacSHA1 and HmacSHA256.
+     */
+    JCE {
+        @Override
+        public boolean isAvailable() {
+            return JceCheck.available;
+        }
+
+        @Override
+        public BlockCipher newAESEngine() {
+            return new JceBlockCipher("AES", 16);
+        }
+
+        @Override
+        public Mac newHMacSHA1() {
+            return new JceMac("HmacSHA1");
+        }
+
+        @Override
+        public Mac newHMacSHA256() {
+            return new JceMac("HmacSHA256");
+        }
+    };
+
+    /**
+     * Returns the default crypto provider.
+     *
+     * @return The default crypto provider.
+     */
+    public static CryptoProvider get() {
+        return Boot.provider;
+    }
+
+    /**
+     * Returns {@code true} if and only if this provider is available in the
+     * current JVM.
+     *
+     * @return {@code true} if and only if this provider is available in the
+     *         current JVM.
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * Returns a new AES engine.
+     *
+     * @return A new AES engine.
+     */
+    public abstract BlockCipher newAESEngine();
+
+    /**
+     * Returns a new HMAC with SHA-1.
+     *
+     * @return A new HMAC with SHA-1.
+     */
+    public abstract Mac newHMacSHA1();
+
+    /**
+     * Returns a new HMAC with SHA-256.
+     *
+     * @return A new HMAC with SHA-256.
+     */
+    public abstract Mac newHMacSHA256();
+
+    /** A static data utility class used for lazy initialization. */
+    private static final class Boot {
+        static final CryptoProvider provider;
+        static {
+            final String name = System.getProperty(
+                    CryptoProvider.class.getName());
+            provider = null != name
+                    ? valueOf(name)
+                    : JCE.isAvailable() ? JCE : LCRYPTO;
+        }
+    } // Boot
+
+    /** Checks the availability of the JCE. */
+    private static final class JceCheck {
+        static final boolean available;
+        static {
+            boolean ok;
+            try {
+                ok = 256 <= Cipher.getMaxAllowedKeyLength("AES");
+                if (ok) {
+                    final byte[] key = new byte[32];
+                    final BlockCipher engine = JCE.newAESEngine();
+                    engine.init(true, new KeyParameter(key));
+                    JCE.newHMacSHA1().init(new KeyParameter(key));
+                    JCE.newHMacSHA256().init(new KeyParameter(key));
+                }
+            } catch (final GeneralSecurityException ex) {
+                ok = false;
+            } catch (final RuntimeException ex) {
+                ok = false;
+            }
+            available = ok;
+        }
+    } // JceCheck
+}
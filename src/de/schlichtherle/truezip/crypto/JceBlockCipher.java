@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.crypto;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import static javax.crypto.Cipher.DECRYPT_MODE;
+import static javax.crypto.Cipher.ENCRYPT_MODE;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import libtruezip.lcrypto.crypto.BlockCipher;
+import libtruezip.lcrypto.crypto.CipherParameters;
+import libtruezip.lcrypto.crypto.DataLengthException;
+import libtruezip.lcrypto.crypto.OutputLengthException;
+import libtruezip.lcrypto.crypto.params.KeyParameter;
+
+/**
+ * Adapts a block cipher from the Java Cryptography Extension in ECB mode to
+ * the {@link BlockCipher} interface.
+ * In addition to processing a single block, this class can process many
+ * blocks in one call, which enables the JCE provider to use its bulk
+ * processing, e.g. with the AES-NI instruction set.
+ *
+ * @see    CryptoProvider#JCE
+ * @author Christian Schlichtherle
+ */
+final class JceBlockCipher implements BlockCipher {
+
+    private final String algorithm;
+    private final int blockSize;
+    private Cipher cipher;
+
+    JceBlockCipher(final String algorithm, final int blockSize) {
+        this.algorithm = algorithm;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public void init(
+            final boolean forEncryption,
+            final CipherParameters params)
+    throws IllegalArgumentException {
+        if (!(params instanceof KeyParameter))
+            throw new IllegalArgumentException("Invalid parameters passed to " + algorithm + " init - " + params.getClass().getName());
+        try {
+            final Cipher cipher = Cipher.getInstance(algorithm + "/ECB/NoPadding");
+            cipher.init(forEncryption ? ENCRYPT_MODE : DECRYPT_MODE,
+                    new SecretKeySpec(((KeyParameter) params).getKey(), algorithm));
+            this.cipher = cipher;
+        } catch (final GeneralSecurityException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return algorithm;
+    }
+
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public int processBlock(byte[] in, int inOff, byte[] out, int outOff)
+    throws DataLengthException, IllegalStateException {
+        return processBlocks(in, inOff, out, outOff, 1);
+    }
+
+    /**
+     * Processes the given number of consecutive blocks in one call.
+     *
+     * @param  in the array containing the input data.
+     * @param  inOff the offset into the input array where the data starts.
+     * @param  out the array the output data will be copied into.
+     * @param  outOff the offset into the output array where the data starts.
+     * @param  blocks the number of blocks to process.
+     * @return The number of bytes processed.
+     */
+    int processBlocks(
+            final byte[] in,
+            final int inOff,
+            final byte[] out,
+            final int outOff,
+            final int blocks)
+    throws DataLengthException, IllegalStateException {
+        final Cipher cipher = this.cipher;
+        if (null == cipher)
+            throw new IllegalStateException(algorithm + " engine not initialised");
+        try {
+            return cipher.update(in, inOff, blocks * blockSize, out, outOff);
+        } catch (final ShortBufferException ex) {
+            throw new OutputLengthException("output buffer too short");
+        }
+    }
+
+    @Override
+    public void reset() {
+        // ECB mode is stateless.
+    }
+}
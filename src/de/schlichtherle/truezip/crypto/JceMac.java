@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.crypto;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import libtruezip.lcrypto.crypto.CipherParameters;
+import libtruezip.lcrypto.crypto.DataLengthException;
+import libtruezip.lcrypto.crypto.Mac;
+import libtruezip.lcrypto.crypto.OutputLengthException;
+import libtruezip.lcrypto.crypto.params.KeyParameter;
+
+/**
+ * Adapts a message authentication code from the Java Cryptography Extension
+ * to the {@link Mac} interface.
+ *
+ * @see    CryptoProvider#JCE
+ * @author Christian Schlichtherle
+ */
+final class JceMac implements Mac {
+
+    private final javax.crypto.Mac mac;
+
+    JceMac(final String algorithm) {
+        try {
+            this.mac = javax.crypto.Mac.getInstance(algorithm);
+        } catch (final GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void init(final CipherParameters params)
+    throws IllegalArgumentException {
+        if (!(params instanceof KeyParameter))
+            throw new IllegalArgumentException("Invalid parameters passed to " + mac.getAlgorithm() + " init - " + params.getClass().getName());
+        try {
+            mac.init(new SecretKeySpec(
+                    ((KeyParameter) params).getKey(), mac.getAlgorithm()));
+        } catch (final GeneralSecurityException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return mac.getAlgorithm();
+    }
+
+    @Override
+    public int getMacSize() {
+        return mac.getMacLength();
+    }
+
+    @Override
+    public void update(byte in) {
+        mac.update(in);
+    }
+
+    @Override
+    public void update(byte[] in, int inOff, int len) {
+        mac.update(in, inOff, len);
+    }
+
+    @Override
+    public int doFinal(final byte[] out, final int outOff)
+    throws DataLengthException, IllegalStateException {
+        try {
+            mac.doFinal(out, outOff);
+        } catch (final ShortBufferException ex) {
+            throw new OutputLengthException("output buffer too short");
+        }
+        return mac.getMacLength();
+    }
+
+    @Override
+    public void reset() {
+        mac.reset();
+    }
+}
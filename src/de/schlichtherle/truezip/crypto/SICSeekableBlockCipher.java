@@ -29,6 +29,7 @@ public class SICSeekableBlockCipher implements SeekableBlockCipher {
     protected final byte[] IV;
     protected final byte[] cipherIn;
     protected final byte[] cipherOut;
+    private byte[] counters = new byte[0], keyStream = counters;
 
     /**
      * Constructs a new big endian SIC seekable block cipher mode.
@@ -83,7 +84,7 @@ public class SICSeekableBlockCipher implements SeekableBlockCipher {
             final byte[] out,
             int outOff)
     throws DataLengthException, IllegalStateException {
-        incCounter();
+        counterBlock(this.blockCounter++, this.cipherIn, 0);
         this.cipher.processBlock(this.cipherIn, 0, this.cipherOut, 0);
 
         // XOR the cipherOut with the plaintext producing the cipher text.
@@ -99,12 +100,68 @@ public class SICSeekableBlockCipher implements SeekableBlockCipher {
         return blockSize;
     }
 
-    private void incCounter() {
+    /**
+     * Processes the given number of consecutive blocks, starting with the
+     * block with the current {@link #getBlockCounter() block counter}.
+     * This is equivalent to calling
+     * {@link #processBlock(byte[], int, byte[], int)} for each block.
+     * If the underlying block cipher is provided by
+     * {@link CryptoProvider#JCE}, then the counter blocks get encrypted in
+     * one call in order to benefit from its bulk processing.
+     *
+     * @param  in the array containing the input data.
+     * @param  inOff the offset into the input array where the data starts.
+     * @param  out the array the output data will be copied into.
+     * @param  outOff the offset into the output array where the data starts.
+     * @param  blocks the number of blocks to process.
+     * @return The number of bytes processed.
+     */
+    public int processBlocks(
+            final byte[] in,
+            final int inOff,
+            final byte[] out,
+            final int outOff,
+            final int blocks)
+    throws DataLengthException, IllegalStateException {
         final int blockSize = this.blockSize;
-        long blockCounter = this.blockCounter++; // post-increment the block counter!
-        for (int i = blockSize; --i >= 0; ) { // big endian order!
+        final int length = blocks * blockSize;
+        if (!(this.cipher instanceof JceBlockCipher)) {
+            for (int off = 0; off < length; off += blockSize)
+                processBlock(in, inOff + off, out, outOff + off);
+            return length;
+        }
+        byte[] counters = this.counters;
+        if (counters.length < length) {
+            this.counters = counters = new byte[length];
+            this.keyStream = new byte[length];
+        }
+        final byte[] keyStream = this.keyStream;
+        for (int off = 0; off < length; off += blockSize)
+            counterBlock(this.blockCounter++, counters, off);
+        ((JceBlockCipher) this.cipher).processBlocks(
+                counters, 0, keyStream, 0, blocks);
+        for (int i = 0; i < length; i++)
+            out[outOff + i] = (byte) (in[inOff + i] ^ keyStream[i]);
+        return length;
+    }
+
+    /**
+     * Writes the cipher input for the given block counter to the given
+     * array.
+     * This implementation adds the block counter to the initialization
+     * vector in big endian order.
+     *
+     * @param blockCounter the block counter.
+     * @param out the array to write the counter block to.
+     * @param outOff the offset into the array.
+     */
+    protected void counterBlock(
+            long blockCounter,
+            final byte[] out,
+            final int outOff) {
+        for (int i = this.blockSize; --i >= 0; ) { // big endian order!
             blockCounter += IV[i] & 0xff;
-            this.cipherIn[i] = (byte) blockCounter;
+            out[outOff + i] = (byte) blockCounter;
             blockCounter >>>= 8;
         }
     }
@@ -29,4 +29,5 @@ public interface SeekableBlockCipher extends BlockCipher {
      * next when {@link #processBlock(byte[], int, byte[], int)} is called.
      */
     long getBlockCounter();
+
 }
\ No newline at end of file
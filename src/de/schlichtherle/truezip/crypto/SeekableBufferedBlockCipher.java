@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.crypto;
+
+import libtruezip.lcrypto.crypto.BufferedBlockCipher;
+import libtruezip.lcrypto.crypto.DataLengthException;
+import libtruezip.lcrypto.crypto.OutputLengthException;
+
+/**
+ * A buffered block cipher which processes all complete blocks of the input
+ * data with one call to
+ * {@link SICSeekableBlockCipher#processBlocks(byte[], int, byte[], int, int)}
+ * rather than calling
+ * {@link SeekableBlockCipher#processBlock(byte[], int, byte[], int)} for
+ * each block if the underlying cipher is a {@link SICSeekableBlockCipher}.
+ *
+ * @author Christian Schlichtherle
+ */
+public class SeekableBufferedBlockCipher extends BufferedBlockCipher {
+
+    /**
+     * Constructs a new seekable buffered block cipher.
+     *
+     * @param cipher the underlying seekable block cipher.
+     */
+    public SeekableBufferedBlockCipher(SeekableBlockCipher cipher) {
+        super(cipher);
+    }
+
+    @Override
+    public int processBytes(
+            final byte[] in,
+            int inOff,
+            int len,
+            final byte[] out,
+            final int outOff)
+    throws DataLengthException, IllegalStateException {
+        if (0 > len)
+            throw new IllegalArgumentException("Can't have a negative input length!");
+        final int length = getUpdateOutputSize(len);
+        if (0 < length && outOff + length > out.length)
+            throw new OutputLengthException("output buffer too short");
+        final byte[] buf = this.buf;
+        final int blockSize = buf.length;
+        int resultLen = 0;
+        if (0 < bufOff) {
+            // Complete the buffered block first.
+            final int gapLen = Math.min(len, blockSize - bufOff);
+            System.arraycopy(in, inOff, buf, bufOff, gapLen);
+            bufOff += gapLen;
+            inOff += gapLen;
+            len -= gapLen;
+            if (bufOff < blockSize)
+                return 0;
+            resultLen += cipher.processBlock(buf, 0, out, outOff);
+            bufOff = 0;
+        }
+        final int blocks = len / blockSize;
+        if (0 < blocks) {
+            final int processed;
+            if (cipher instanceof SICSeekableBlockCipher) {
+                processed = ((SICSeekableBlockCipher) cipher).processBlocks(
+                        in, inOff, out, outOff + resultLen, blocks);
+            } else {
+                processed = blocks * blockSize;
+                for (int off = 0; off < processed; off += blockSize)
+                    cipher.processBlock(in, inOff + off,
+                                        out, outOff + resultLen + off);
+            }
+            resultLen += processed;
+            inOff += processed;
+            len -= processed;
+        }
+        System.arraycopy(in, inOff, buf, 0, len);
+        bufOff = len;
+        return resultLen;
+    }
+}
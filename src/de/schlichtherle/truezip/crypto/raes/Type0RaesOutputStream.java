@@ -4,8 +4,10 @@
  */
 package de.schlichtherle.truezip.crypto.raes;
 
+import de.schlichtherle.truezip.crypto.CryptoProvider;
 import de.schlichtherle.truezip.crypto.FilterMacOutputStream;
 import de.schlichtherle.truezip.crypto.SICSeekableBlockCipher;
+import de.schlichtherle.truezip.crypto.SeekableBufferedBlockCipher;
 import static de.schlichtherle.truezip.crypto.raes.Constants.*;
 import de.schlichtherle.truezip.crypto.raes.Type0RaesParameters.KeyStrength;
 import de.schlichtherle.truezip.io.LEDataOutputStream;
@@ -14,15 +16,12 @@ import java.io.OutputStream;
 import java.security.SecureRandom;
 import java.util.Random;
 
-import libtruezip.lcrypto.crypto.BufferedBlockCipher;
 import libtruezip.lcrypto.crypto.CipherParameters;
 import libtruezip.lcrypto.crypto.Digest;
 import libtruezip.lcrypto.crypto.Mac;
 import libtruezip.lcrypto.crypto.PBEParametersGenerator;
 import libtruezip.lcrypto.crypto.digests.SHA256Digest;
-import libtruezip.lcrypto.crypto.engines.AESFastEngine;
 import libtruezip.lcrypto.crypto.generators.PKCS12ParametersGenerator;
-import libtruezip.lcrypto.crypto.macs.HMac;
 import libtruezip.lcrypto.crypto.params.KeyParameter;
 import libtruezip.lcrypto.crypto.params.ParametersWithIV;
 
@@ -62,9 +61,9 @@ final class Type0RaesOutputStream extends RaesOutputStream {
             final OutputStream out,
             final Type0RaesParameters param)
     throws IOException{
-        super(out, new BufferedBlockCipher(
+        super(out, new SeekableBufferedBlockCipher(
                 new SICSeekableBlockCipher( // or new SICBlockCipher(
-                    new AESFastEngine())));
+                    CryptoProvider.get().newAESEngine())));
 
         assert null != out;
         assert null != param;
@@ -103,11 +102,11 @@ final class Type0RaesOutputStream extends RaesOutputStream {
         this.cipher.init(true, aesCtrParam);
 
         // Init MAC.
-        final Mac mac = this.mac = new HMac(digest);
+        final Mac mac = this.mac = CryptoProvider.get().newHMacSHA256();
         mac.init(sha256HMmacParam);
 
         // Init KLAC.
-        final Mac klac = this.klac = new HMac(new SHA256Digest()); // cannot reuse digest!
+        final Mac klac = this.klac = CryptoProvider.get().newHMacSHA256();
         klac.init(sha256HMmacParam); // resets the digest
 
         // Update the KLAC with the cipher key.
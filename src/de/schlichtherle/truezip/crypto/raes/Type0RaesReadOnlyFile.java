@@ -4,6 +4,7 @@
  */
 package de.schlichtherle.truezip.crypto.raes;
 
+import de.schlichtherle.truezip.crypto.CryptoProvider;
 import de.schlichtherle.truezip.crypto.SICSeekableBlockCipher;
 import de.schlichtherle.truezip.crypto.SeekableBlockCipher;
 import de.schlichtherle.truezip.crypto.SuspensionPenalty;
@@ -18,9 +19,7 @@ import libtruezip.lcrypto.crypto.Mac;
 import libtruezip.lcrypto.crypto.PBEParametersGenerator;
 import static libtruezip.lcrypto.crypto.PBEParametersGenerator.PKCS12PasswordToBytes;
 import libtruezip.lcrypto.crypto.digests.SHA256Digest;
-import libtruezip.lcrypto.crypto.engines.AESFastEngine;
 import libtruezip.lcrypto.crypto.generators.PKCS12ParametersGenerator;
-import libtruezip.lcrypto.crypto.macs.HMac;
 import libtruezip.lcrypto.crypto.params.KeyParameter;
 import libtruezip.lcrypto.crypto.params.ParametersWithIV;
 
@@ -91,7 +90,7 @@ final class Type0RaesReadOnlyFile extends RaesReadOnlyFile {
         rof.readFully(salt);
 
         // Init KLAC and footer.
-        final Mac klac = new HMac(new SHA256Digest());
+        final Mac klac = CryptoProvider.get().newHMacSHA256();
         this.footer = new byte[klac.getMacSize()];
 
         // Init start, end and length of encrypted data.
@@ -158,7 +157,8 @@ final class Type0RaesReadOnlyFile extends RaesReadOnlyFile {
 
         // Init cipher.
         final SeekableBlockCipher
-                cipher = new SICSeekableBlockCipher(new AESFastEngine());
+                cipher = new SICSeekableBlockCipher(
+                    CryptoProvider.get().newAESEngine());
         cipher.init(false, aesCtrParam);
         init(cipher, start, length);
 
@@ -179,7 +179,7 @@ final class Type0RaesReadOnlyFile extends RaesReadOnlyFile {
 
     @Override
     public void authenticate() throws IOException {
-        final Mac mac = new HMac(new SHA256Digest());
+        final Mac mac = CryptoProvider.get().newHMacSHA256();
         mac.init(sha256MacParam);
         final byte[] buf = computeMac(mac);
         assert buf.length == mac.getMacSize();
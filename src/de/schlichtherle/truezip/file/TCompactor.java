@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.file;
+
+import static de.schlichtherle.truezip.fs.FsOutputOption.GROW;
+import de.schlichtherle.truezip.util.ThreadGroups;
+import java.io.File;
+import static java.io.File.createTempFile;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Compacts archive files in the background.
+ * This is the incremental and asynchronous counterpart of
+ * {@link TFile#compact()}:
+ * The entries of an archive file get copied one by one to a temporary
+ * archive file by a pooled daemon thread with minimum priority.
+ * As with {@link TFile#compact()}, the entries get copied by the TrueZIP
+ * Kernel, so the archive driver may copy the raw entry data, e.g. without
+ * inflating and deflating it again.
+ * Once all entries have been copied, the temporary archive file gets
+ * renamed to the archive file.
+ * <p>
+ * The copying can get throttled to a maximum number of bytes per second in
+ * order to leave I/O bandwidth to the application.
+ * A compaction can get {@linkplain #suspend suspended} at any time.
+ * The compaction then stops after copying the current entry, but retains
+ * its progress, so that it can get resumed by
+ * {@linkplain #submit submitting} the same archive file again.
+ * <p>
+ * When swapping the files, the archive file gets unmounted first.
+ * If the archive file has been changed since the compaction started, e.g.
+ * because the application has updated it in the mean time, then the
+ * compaction fails with an {@link IOException} and needs to get submitted
+ * again.
+ * If the temporary archive file cannot replace the archive file directly,
+ * then the archive file gets moved to a backup file first and gets restored
+ * if the swap fails.
+ * Note that the archive file should not get accessed while it gets swapped.
+ * Nested archive files get copied like regular entries, so they do not get
+ * compacted.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see    TFile#compact()
+ * @author Christian Schlichtherle
+ */
+public final class TCompactor {
+
+    private final long rate;
+
+    private final ConcurrentMap<File, Compaction> compactions
+            = new ConcurrentHashMap<File, Compaction>();
+
+    /**
+     * Constructs a new compactor which copies the archive entries as fast as
+     * possible.
+     */
+    public TCompactor() {
+        this(0);
+    }
+
+    /**
+     * Constructs a new compactor which copies the archive entries with the
+     * given maximum rate.
+     *
+     * @param  rate the maximum number of bytes to copy per second or zero
+     *         if the copying should not get throttled.
+     * @throws IllegalArgumentException if {@code rate} is negative.
+     */
+    public TCompactor(final long rate) {
+        if (0 > rate)
+            throw new IllegalArgumentException("Negative rate!");
+        this.rate = rate;
+    }
+
+    /**
+     * Returns the maximum number of bytes to copy per second or zero if the
+     * copying does not get throttled.
+     */
+    public long getRate() {
+        return rate;
+    }
+
+    /**
+     * Starts or resumes compacting the given archive file in the background.
+     * If the given file is not a
+     * {@linkplain TFile#isTopLevelArchive() top level archive file},
+     * then the returned future does nothing.
+     *
+     * @param  archive the archive file to compact.
+     * @return A future for the compaction.
+     *         Its value is {@code true} if the archive file has been
+     *         compacted or {@code false} if the compaction has been
+     *         {@linkplain #suspend suspended}.
+     */
+    public Future<Boolean> submit(TFile archive) {
+        archive = archive.getNormalizedFile();
+        final File key = archive.toNonArchiveFile();
+        Compaction compaction = compactions.get(key);
+        if (null == compaction) {
+            final Compaction c = new Compaction(archive, key);
+            compaction = compactions.putIfAbsent(key, c);
+            if (null == compaction)
+                compaction = c;
+        }
+        compaction.suspended = false;
+        return CompactorThreads.executor.submit(compaction);
+    }
+
+    /**
+     * Suspends compacting the given archive file.
+     * The compaction stops after copying the current entry and can get
+     * resumed by {@linkplain #submit submitting} the archive file again.
+     *
+     * @param  archive the archive file.
+     * @return {@code true} if and only if a compaction of the given archive
+     *         file is in progress.
+     */
+    public boolean suspend(final TFile archive) {
+        final Compaction compaction = compactions.get(
+                archive.getNormalizedFile().toNonArchiveFile());
+        if (null == compaction)
+            return false;
+        compaction.suspended = true;
+        return true;
+    }
+
+    /**
+     * Suspends compacting the given archive file and discards its progress,
+     * including the temporary archive file.
+     * If the compaction is still running, then its progress gets discarded
+     * once it has stopped.
+     *
+     * @param  archive the archive file.
+     * @return {@code true} if and only if a compaction of the given archive
+     *         file was in progress.
+     */
+    public boolean abort(final TFile archive) {
+        final Compaction compaction = compactions.remove(
+                archive.getNormalizedFile().toNonArchiveFile());
+        if (null == compaction)
+            return false;
+        compaction.abort();
+        return true;
+    }
+
+    /** The state of the compaction of an archive file. */
+    private final class Compaction implements Callable<Boolean> {
+        final TFile archive;
+
+        /** The key of this compaction in the map of compactions. */
+        final File key;
+
+        /** The entries to copy, in depth first order. */
+        final Deque<Step> steps = new ArrayDeque<Step>();
+
+        /** The temporary archive file or {@code null} if not started. */
+        TFile compact;
+
+        /** The length and last modification time of the archive file. */
+        long length, time;
+
+        volatile boolean suspended, aborted;
+
+        /** Whether or not the archive file has been swapped. */
+        boolean done;
+
+        /**
+         * Whether or not the temporary archive file must be kept because the
+         * archive file could not get restored after a failed swap.
+         */
+        boolean keep;
+
+        Compaction(final TFile archive, final File key) {
+            this.archive = archive;
+            this.key = key;
+        }
+
+        @Override
+        public synchronized Boolean call() throws IOException {
+            // Another call may have been submitted before this compaction
+            // has completed, so never start over.
+            if (done || !archive.isTopLevelArchive())
+                return true;
+            if (aborted)
+                return false;
+            final TConfig config = TConfig.push();
+            try {
+                // Switch off FsOutputOption.GROW.
+                config.setOutputPreferences(
+                        config.getOutputPreferences().clear(GROW));
+                try {
+                    if (null == compact)
+                        start();
+                    if (!copy())
+                        return false;
+                    swap();
+                    return true;
+                } catch (final IOException ex) {
+                    discard();
+                    throw ex;
+                } catch (final RuntimeException ex) {
+                    discard();
+                    throw ex;
+                } finally {
+                    if (aborted)
+                        discard();
+                }
+            } finally {
+                config.close();
+            }
+        }
+
+        private void start() throws IOException {
+            // Commit any pending changes so that the snapshot is current.
+            TVFS.umount(archive);
+            final File file = new File(archive.getPath());
+            length = file.length();
+            time = file.lastModified();
+            final File parent = file.getParentFile();
+            final String suffix = "." + archive.getScheme();
+            compact = new TFile(
+                    createTempFile("tzp", suffix,
+                        null != parent ? parent : new File(".")),
+                    archive.getArchiveDetector());
+            compact.rm();
+            steps.push(new Step(archive, compact));
+        }
+
+        /**
+         * Copies the remaining entries.
+         *
+         * @return {@code true} if all entries have been copied or
+         *         {@code false} if the compaction has been suspended.
+         */
+        private boolean copy() throws IOException {
+            final long start = System.nanoTime();
+            long copied = 0;
+            for (Step step; null != (step = steps.peek()); ) {
+                if (suspended)
+                    return false;
+                final TFile src = step.src, dst = step.dst;
+                if (step.visited) {
+                    // Restore the last modification time after copying the
+                    // members of the directory.
+                    steps.pop();
+                    if (dst != compact)
+                        dst.setLastModified(src.lastModified());
+                } else if (src.isDirectory()) {
+                    step.visited = true;
+                    dst.mkdir(false);
+                    final String[] members = src.list();
+                    if (null == members)
+                        throw new IOException(src + " (cannot list directory)");
+                    for (int i = members.length; 0 <= --i; ) {
+                        final String member = members[i];
+                        // Never detect nested archive files so that they get
+                        // copied like regular entries.
+                        steps.push(new Step(
+                                new TFile(src, member, TArchiveDetector.NULL),
+                                new TFile(dst, member, TArchiveDetector.NULL)));
+                    }
+                } else {
+                    steps.pop();
+                    TFile.cp_p(src, dst);
+                    copied += src.length();
+                    if (!throttle(start, copied))
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Sleeps as long as required to keep the given number of copied
+         * bytes below the rate.
+         *
+         * @return {@code false} if the current thread has been interrupted.
+         */
+        private boolean throttle(final long start, final long copied) {
+            if (0 == rate)
+                return true;
+            final long due = copied * 1000 / rate
+                    - (System.nanoTime() - start) / 1000000;
+            if (0 < due) {
+                try {
+                    Thread.sleep(due);
+                } catch (InterruptedException ex) {
+                    suspended = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void swap() throws IOException {
+            TVFS.umount(compact);
+            // Commit any pending changes so that they get detected.
+            TVFS.umount(archive);
+            final File file = new File(archive.getPath());
+            if (file.length() != length || file.lastModified() != time)
+                throw new IOException(archive + " (has been changed while compacting)");
+            // Remove this compaction before the swap can get observed, so
+            // that submitting the archive file again starts a new
+            // compaction instead of resuming this one.
+            compactions.remove(key, this);
+            final File tmp = new File(compact.getPath());
+            // On POSIX systems, this replaces the file atomically.
+            if (!tmp.renameTo(file)) {
+                // Otherwise, move the archive file out of the way first and
+                // move it back if the swap fails, so that it never gets lost.
+                final File backup = createTempFile("tzp", ".bak",
+                        file.getAbsoluteFile().getParentFile());
+                if (!backup.delete() || !file.renameTo(backup))
+                    throw new IOException(archive
+                            + " (cannot move to " + backup + ")");
+                if (!tmp.renameTo(file)) {
+                    if (!backup.renameTo(file)) {
+                        keep = true;
+                        throw new IOException(archive
+                                + " (cannot restore from " + backup
+                                + " - retaining compacted archive file "
+                                + compact + ")");
+                    }
+                    throw new IOException(compact + " (cannot move to " + archive + ")");
+                }
+                if (!backup.delete())
+                    backup.deleteOnExit();
+            }
+            done = true;
+            steps.clear();
+            compact = null;
+        }
+
+        private void discard() {
+            steps.clear();
+            final TFile compact = this.compact;
+            if (null != compact) {
+                this.compact = null;
+                try {
+                    TVFS.umount(compact);
+                } catch (IOException ex) {
+                    // Ignore.
+                }
+                if (!keep)
+                    new File(compact.getPath()).delete();
+            }
+            compactions.remove(key, this);
+        }
+
+        /**
+         * Suspends this compaction and discards its progress.
+         * If this compaction is running, then its progress gets discarded
+         * once it has stopped.
+         * Otherwise, it gets discarded by a compactor thread because the
+         * progress must not get discarded while a call is in progress.
+         */
+        void abort() {
+            suspended = true;
+            aborted = true;
+            CompactorThreads.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Compaction.this) {
+                        discard();
+                    }
+                }
+            });
+        }
+    } // Compaction
+
+    /** A source and destination file to copy. */
+    private static final class Step {
+        final TFile src, dst;
+        boolean visited;
+
+        Step(final TFile src, final TFile dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+    } // Step
+
+    /** Holds the executor service for compacting archive files. */
+    private static final class CompactorThreads {
+        static final ExecutorService executor
+                = Executors.newCachedThreadPool(new CompactorThreadFactory());
+    } // CompactorThreads
+
+    /** A factory for compactor threads. */
+    private static final class CompactorThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new CompactorThread(r);
+        }
+    } // CompactorThreadFactory
+
+    /**
+     * A pooled and cached daemon thread with minimum priority which compacts
+     * archive files.
+     */
+    private static final class CompactorThread extends Thread {
+        CompactorThread(Runnable r) {
+            super(ThreadGroups.getServerThreadGroup(), r,
+                    CompactorThread.class.getName());
+            setDaemon(true);
+            setPriority(MIN_PRIORITY);
+        }
+    } // CompactorThread
+}
@@ -1781,7 +1781,7 @@ public final class TFile extends File {
         }
     }
 
-    private FsScheme getScheme() {
+    FsScheme getScheme() {
         if (this != innerArchive) return null;
         final FsController<?> controller = this.controller;
         if (null != controller)
@@ -3430,6 +3430,7 @@ public final class TFile extends File {
      * @return this
      * @throws IOException On any I/O error.
      * @see    FsOutputOption#GROW
+     * @see    TCompactor
      * @since  TrueZIP 7.3
      */
     public TFile compact() throws IOException {
@@ -124,6 +124,45 @@ extends FsDriver {
         return false;
     }
 
+    /**
+     * Returns {@code true} if and only if the given input archive, which has
+     * been created by this driver, contains so much redundant data that it
+     * should get compacted rather than appended to when it gets updated with
+     * the output option {@link FsOutputOption#GROW}.
+     * If the return value is {@code true}, then the archive file gets
+     * completely rewritten by the next update, thereby removing any redundant
+     * archive entry contents and meta data.
+     *
+     * @param  input the input archive.
+     * @return The implementation in the class {@link FsArchiveDriver} returns
+     *         {@code false}.
+     * @throws IOException On any I/O error.
+     */
+    public boolean needsCompaction(InputShop<E> input) throws IOException {
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if and only if updates to the given input archive,
+     * which has been created by this driver, may get appended to the archive
+     * file even if the output option {@link FsOutputOption#GROW} is not set.
+     * The file system controller only does this if no entries of the input
+     * archive have been deleted and the input archive does not
+     * {@link #needsCompaction need compaction}.
+     * Otherwise, the archive file gets compacted by a full update.
+     * The result is then the same as if {@link FsOutputOption#GROW} had been
+     * set, i.e. only new or changed archive entries and new meta data get
+     * appended to the archive file.
+     *
+     * @param  input the input archive.
+     * @return The implementation in the class {@link FsArchiveDriver} returns
+     *         {@code false}.
+     * @throws IOException On any I/O error.
+     */
+    public boolean isAppendable(InputShop<E> input) throws IOException {
+        return false;
+    }
+
     /**
      * Called to prepare reading an archive file artifact of this driver from
      * {@code name} in {@code controller} using {@code options}.
@@ -176,6 +215,25 @@ extends FsDriver {
                     InputSocket<?> input)
     throws IOException;
 
+    /**
+     * Returns {@code true} if and only if the entries of the given input
+     * shop can get read concurrently by multiple threads.
+     * If this method returns {@code true}, then the input entries may get
+     * read ahead by background threads when copying them to a new archive
+     * file, otherwise they get copied one after another.
+     * <p>
+     * The implementation in the class {@link FsArchiveDriver} returns
+     * {@code false}.
+     *
+     * @param  input the input shop.
+     *         This is guaranteed to be the product of this driver's
+     *         {@link #newInputShop} factory method.
+     * @return {@code false}
+     */
+    public boolean isConcurrentlyReadable(InputShop<E> input) {
+        return false;
+    }
+
     /**
      * Called to prepare writing an archive file artifact of this driver to
      * the entry {@code name} in {@code controller} using {@code options} and
@@ -229,6 +287,36 @@ extends FsDriver {
                     InputShop<E> source)
     throws IOException;
 
+    /**
+     * Creates a new output shop for writing archive entries for the
+     * given {@code model} to the given {@code output} socket's target.
+     * This method gets called by the file system controller instead of
+     * {@link #newOutputShop(FsModel, OutputSocket, InputShop)} in order to
+     * tell if the archive file gets compacted because the given
+     * {@code source} {@link #needsCompaction needs compaction}.
+     * <p>
+     * The implementation in the class {@link FsArchiveDriver} ignores
+     * {@code compact} and forwards the call to
+     * {@link #newOutputShop(FsModel, OutputSocket, InputShop)}.
+     *
+     * @param  model the file system model.
+     * @param  output the output socket for writing the contents of the
+     *         archive file to its target.
+     * @param  source the {@link InputShop} if {@code archive} is going to get
+     *         updated.
+     * @param  compact whether or not the archive file gets compacted.
+     * @return A new output shop.
+     * @throws IOException on any I/O error.
+     */
+    public OutputShop<E>
+    newOutputShop(  FsModel model,
+                    OutputSocket<?> output,
+                    InputShop<E> source,
+                    boolean compact)
+    throws IOException {
+        return newOutputShop(model, output, source);
+    }
+
     /**
      * Equivalent to {@link #newEntry(java.lang.String, de.schlichtherle.truezip.entry.Entry.Type, de.schlichtherle.truezip.entry.Entry, de.schlichtherle.truezip.util.BitField)
      * newEntry(name, type, template, FsOutputOptions.NONE)}.
@@ -162,8 +162,9 @@ implements Iterable<FsCovariantEntry<E>> {
      * If a parent directory does not exist, it is created using an
      * unkown time as the last modification time - this is defined to be a
      * <i>ghost directory<i>.
-     * If a parent directory does exist, the respective base is added
-     * (possibly yet again) and the process is continued.
+     * If a parent directory does exist, the respective base is added and the
+     * process is continued unless the base was already present, in which
+     * case all further parent directories have already been fixed.
      *
      * @param name the archive file system entry name.
      */
@@ -181,8 +182,8 @@ implements Iterable<FsCovariantEntry<E>> {
         if (null == parent || !parent.isType(DIRECTORY))
             parent = master.add(parentPath, newCheckedEntry(
                     parentPath, DIRECTORY, FsOutputOptions.NONE, null));
-        parent.add(memberName);
-        fix(parentPath);
+        if (parent.add(memberName))
+            fix(parentPath);
     }
 
     /**
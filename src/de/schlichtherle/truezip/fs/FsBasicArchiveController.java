@@ -329,6 +329,7 @@ extends FsLockModelController {
     throws IOException {
         checkSync(name, null);
         final FsArchiveFileSystem<E> fs = autoMount();
+        checkUnlink(name);
         fs.unlink(name);
         if (name.isRoot()) {
             // Check for any archive entries with absolute entry names.
@@ -355,4 +356,18 @@ extends FsLockModelController {
      */
     abstract void checkSync(FsEntryName name, Access intention)
     throws FsNeedsSyncException;
+
+    /**
+     * Called before the named archive entry gets deleted from the mounted
+     * virtual file system.
+     * <p>
+     * The implementation in the class {@link FsBasicArchiveController} does
+     * nothing.
+     *
+     * @param  name the file system entry name.
+     * @throws FsNeedsSyncException If a sync operation is required before the
+     *         archive entry could get deleted.
+     */
+    void checkUnlink(FsEntryName name) throws FsNeedsSyncException {
+    }
 }
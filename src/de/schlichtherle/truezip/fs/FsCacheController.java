@@ -97,12 +97,17 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
         class Input extends DelegatingInputSocket<Entry> {
             @Override
             protected InputSocket<?> getDelegate() {
-                assert isWriteLockedByCurrentThread();
+                // The cache map is only ever modified while the write lock is
+                // held, so it's safe to look it up while the read lock is
+                // held.
                 EntryCache cache = caches.get(name);
                 if (null == cache) {
                     if (!options.get(FsInputOption.CACHE))
                         return delegate.getInputSocket(name, options);
+                    checkWriteLockedByCurrentThread();
                     cache = new EntryCache(name);
+                } else {
+                    checkWriteLockedByCurrentThread();
                 }
                 return cache.getInputSocket(options);
             }
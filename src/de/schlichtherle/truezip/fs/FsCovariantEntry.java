@@ -14,6 +14,13 @@ import java.util.*;
  * {@link #setKey(Entry.Type) key} property to determine the archive entry
  * in the map to which it forwards calls to {@link #getEntry()},
  * {@link #getSize(Size)}, {@link #getTime(Access)} etc.
+ * <p>
+ * In order to save memory when mounting archives with a large number of
+ * entries, the map is implemented as an array indexed by the ordinal of the
+ * entry type rather than an {@link EnumMap} and the members of a directory
+ * are kept in a compact set rather than a {@link LinkedHashSet}.
+ * Apart from that, this class behaves like before: In particular, an entry
+ * type may still get mapped to {@code null}.
  *
  * @param  <E> the type of the mapped archive entries.
  * @author Christian Schlichtherle
@@ -22,10 +29,18 @@ public final class FsCovariantEntry<E extends FsArchiveEntry>
 extends FsEntry
 implements Cloneable {
 
+    private static final Type[] TYPES = Type.values();
+
+    /** Marks an entry type which is mapped to {@code null}. */
+    private static final Object NULL = new Object();
+
     private final String name;
-    private EnumMap<Type, E> map = new EnumMap<Type, E>(Type.class);
+    private Object[] entries = new Object[TYPES.length];
+    private int size;
     private Type key;
-    private LinkedHashSet<String> members;
+    private FsMemberSet members;
+    private Collection<E> entriesView;
+    private Set<Type> typesView;
 
     /**
      * Constructs a new covariant file system entry with the given path.
@@ -51,21 +66,28 @@ implements Cloneable {
         } catch (CloneNotSupportedException ex) {
             throw new AssertionError(ex);
         }
-        final Map<Type, E> cloneMap = clone.map = new EnumMap<Type, E>(Type.class);
+        final Object[] entries = this.entries;
+        final Object[] cloneEntries = clone.entries = new Object[entries.length];
         try {
-            for (final Map.Entry<Type, E> entry : this.map.entrySet()) {
-                final FsArchiveEntry delegate = entry.getValue();
-                cloneMap.put(entry.getKey(),
-                            driver.newEntry(delegate.getName(),
-                                            delegate.getType(),
-                                            delegate));
+            for (int i = 0; i < entries.length; i++) {
+                final Object entry = entries[i];
+                if (null == entry || NULL == entry) {
+                    cloneEntries[i] = entry;
+                    continue;
+                }
+                final FsArchiveEntry delegate = (FsArchiveEntry) entry;
+                cloneEntries[i] = driver.newEntry(  delegate.getName(),
+                                                    delegate.getType(),
+                                                    delegate);
             }
         } catch (CharConversionException ex) {
             throw new AssertionError(ex);
         }
-        final LinkedHashSet<String> members = this.members;
+        final FsMemberSet members = this.members;
         if (null != members)
-            clone.members = (LinkedHashSet<String>) members.clone();
+            clone.members = members.clone();
+        clone.entriesView = null;
+        clone.typesView = null;
         return clone;
     }
 
@@ -128,8 +150,13 @@ implements Cloneable {
      * @param entry the entry to map.
      * @return The previously mapped entry.
      */
-    public E put(Type type, E entry) {
-        return map.put(key = type, entry);
+    public E put(final Type type, final E entry) {
+        final E old = get(key = type);
+        final int ordinal = type.ordinal();
+        if (null == entries[ordinal])
+            size++;
+        entries[ordinal] = null != entry ? entry : NULL;
+        return old;
     }
 
     /**
@@ -138,8 +165,17 @@ implements Cloneable {
      * @param type the type to remove.
      * @return The previously mapped entry.
      */
-    public E remove(Type type) {
-        return map.remove(type);
+    public E remove(final Type type) {
+        final E old = get(type);
+        removeAt(type.ordinal());
+        return old;
+    }
+
+    private void removeAt(final int ordinal) {
+        if (null != entries[ordinal]) {
+            entries[ordinal] = null;
+            size--;
+        }
     }
 
     /**
@@ -148,8 +184,12 @@ implements Cloneable {
      * @param type the type of the entry to lookup.
      * @return The entry for the given type.
      */
+    @SuppressWarnings("unchecked")
     public E get(Type type) {
-        return map.get(type);
+        if (null == type)
+            return null;
+        final Object entry = entries[type.ordinal()];
+        return NULL == entry ? null : (E) entry;
     }
 
     /**
@@ -158,7 +198,7 @@ implements Cloneable {
      * @return the archive entry mapped for the {@link #getKey() key} property.
      */
     public E getEntry() {
-        return map.get(this.key);
+        return get(this.key);
     }
 
     /**
@@ -169,9 +209,27 @@ implements Cloneable {
      * @return a collection of the mapped entries
      */
     public Collection<E> getEntries() {
-        return map.values();
+        final Collection<E> v = entriesView;
+        return null != v ? v : (entriesView = new Entries());
     }
 
+    private final class Entries extends AbstractCollection<E> {
+        @Override
+        public Iterator<E> iterator() {
+            return new TypeIterator<E>() {
+                @Override
+                E element(int ordinal) {
+                    return get(TYPES[ordinal]);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    } // Entries
+
     /**
      * A set of the mapped types.
      * This is a bidirectional view: Any change is reflected in the map and
@@ -181,9 +239,40 @@ implements Cloneable {
      */
     @Override
     public Set<Type> getTypes() {
-        return map.keySet();
+        final Set<Type> v = typesView;
+        return null != v ? v : (typesView = new Types());
     }
 
+    private final class Types extends AbstractSet<Type> {
+        @Override
+        public Iterator<Type> iterator() {
+            return new TypeIterator<Type>() {
+                @Override
+                Type element(int ordinal) {
+                    return TYPES[ordinal];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Type && isType((Type) o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o))
+                return false;
+            FsCovariantEntry.this.remove((Type) o);
+            return true;
+        }
+    } // Types
+
     /**
      * Returns {@code true} if there is an entry mapped for the given type.
      *
@@ -192,7 +281,7 @@ implements Cloneable {
      */
     @Override
     public boolean isType(Type type) {
-        return map.containsKey(type);
+        return null != type && null != entries[type.ordinal()];
     }
 
     /**
@@ -204,7 +293,7 @@ implements Cloneable {
     @Override
     public long getSize(Size type) {
         if (DIRECTORY == key) return UNKNOWN; // TODO: Evaluate 0
-        return map.get(key).getSize(type);
+        return getEntry().getSize(type);
     }
 
     /**
@@ -215,7 +304,7 @@ implements Cloneable {
      */
     @Override
     public long getTime(Access type) {
-        return map.get(key).getTime(type);
+        return getEntry().getTime(type);
     }
 
     /**
@@ -230,8 +319,8 @@ implements Cloneable {
     @Override
     public Set<String> getMembers() {
         if (!isType(DIRECTORY)) return members = null;
-        final Set<String> m = members;
-        return null != m ? m : (members = new LinkedHashSet<String>());
+        final FsMemberSet m = members;
+        return null != m ? m : (members = new FsMemberSet());
     }
 
     /**
@@ -262,4 +351,45 @@ implements Cloneable {
     public boolean remove(String member) {
         return getMembers().remove(member);
     }
+
+    /**
+     * Iterates over the mapped types in the order of their ordinals.
+     * This is a bidirectional view: Removing an element removes the entry
+     * for the current type from the map.
+     */
+    private abstract class TypeIterator<T> implements Iterator<T> {
+        int next = -1, current = -1;
+
+        TypeIterator() { advance(); }
+
+        private void advance() {
+            final Object[] entries = FsCovariantEntry.this.entries;
+            while (++next < entries.length && null == entries[next]) {
+            }
+        }
+
+        abstract T element(int ordinal);
+
+        @Override
+        public boolean hasNext() {
+            return next < entries.length;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            final T element = element(current = next);
+            advance();
+            return element;
+        }
+
+        @Override
+        public void remove() {
+            if (0 > current)
+                throw new IllegalStateException();
+            removeAt(current);
+            current = -1;
+        }
+    } // TypeIterator
 }
@@ -44,6 +44,16 @@ extends FsManager {
         return delegate.iterator();
     }
 
+    @Override
+    public int getParallelism() {
+        return delegate.getParallelism();
+    }
+
+    @Override
+    public void setParallelism(int parallelism) {
+        delegate.setParallelism(parallelism);
+    }
+
     /**
      * Returns a string representation of this object for debugging and logging
      * purposes.
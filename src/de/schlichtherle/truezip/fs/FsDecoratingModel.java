@@ -35,6 +35,16 @@ public abstract class FsDecoratingModel<M extends FsModel> extends FsModel {
         delegate.setMounted(touched);
     }
 
+    @Override
+    void accessed() {
+        delegate.accessed();
+    }
+
+    @Override
+    void setFileSystem(FsArchiveFileSystem<?> fileSystem) {
+        delegate.setFileSystem(fileSystem);
+    }
+
     /**
      * Returns a string representation of this object for debugging and logging
      * purposes.
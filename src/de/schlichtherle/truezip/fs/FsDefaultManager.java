@@ -4,47 +4,313 @@
  */
 package de.schlichtherle.truezip.fs;
 
+import static de.schlichtherle.truezip.fs.FsSyncOption.CLEAR_CACHE;
 import de.schlichtherle.truezip.util.BitField;
 import de.schlichtherle.truezip.util.Link;
 import de.schlichtherle.truezip.util.Link.Type;
 import static de.schlichtherle.truezip.util.Link.Type.STRONG;
 import static de.schlichtherle.truezip.util.Link.Type.WEAK;
+import de.schlichtherle.truezip.util.Links;
 import static de.schlichtherle.truezip.util.Links.getTarget;
+import de.schlichtherle.truezip.util.ThreadGroups;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The default implementation of a file system manager.
+ * <p>
+ * The controllers are held in a concurrent map, keyed by the mount point of
+ * their respective file system model.
+ * Looking up a controller does not acquire any lock and controllers for
+ * different mount points can get created concurrently.
+ * If two threads concurrently create a controller for the same mount point,
+ * then only one of them gets registered and returned to both threads.
+ * <p>
+ * Optionally, this manager evicts mounted archive file systems in the
+ * background:
+ * If the number of mounted archive file systems exceeds the
+ * {@linkplain #getMaxMounted() maximum mounted}, if the total number of
+ * their entries exceeds the {@linkplain #getMaxEntries() maximum entries} or
+ * if an archive file system has not been accessed for the
+ * {@linkplain #getMaxIdleTime() maximum idle time}, then the least recently
+ * used archive file systems get synchronized and unmounted by a daemon thread
+ * until all limits are met again.
+ * Archive file systems with open entry streams do not get evicted, because
+ * the streams do not get closed forcibly.
+ * The initial limits may get configured by the system properties
+ * {@code de.schlichtherle.truezip.fs.FsDefaultManager.maxMounted},
+ * {@code de.schlichtherle.truezip.fs.FsDefaultManager.maxEntries} and
+ * {@code de.schlichtherle.truezip.fs.FsDefaultManager.maxIdleTime}.
+ * The default value zero means that the respective limit does not apply.
  *
  * @author Christian Schlichtherle
  */
 public final class FsDefaultManager extends FsManager {
 
+    /** The delay in milliseconds between periodic evictions. */
+    private static final long EVICTION_PERIOD = Long.getLong(
+            FsDefaultManager.class.getName() + ".evictionPeriod", 1000);
+
+    /**
+     * The options for evicting an archive file system.
+     * Note that no streams get closed forcibly.
+     */
+    private static final BitField<FsSyncOption> EVICTION_OPTIONS
+            = BitField.of(CLEAR_CACHE);
+
     /**
      * The map of all schedulers for composite file system controllers,
      * keyed by the mount point of their respective file system model.
      */
-    private final Map<FsMountPoint, Link<FsController<?>>> controllers
-            = new WeakHashMap<FsMountPoint, Link<FsController<?>>>();
+    private final ConcurrentMap<FsMountPoint, Link<FsController<?>>> controllers
+            = new ConcurrentHashMap<FsMountPoint, Link<FsController<?>>>();
+
+    /** The queue for expunging cleared links from {@link #controllers}. */
+    private final ReferenceQueue<FsController<?>> queue
+            = new ReferenceQueue<FsController<?>>();
+
+    /** The set of all models with a mounted archive file system. */
+    private final Set<ManagedModel> mounted = Collections.newSetFromMap(
+            new ConcurrentHashMap<ManagedModel, Boolean>());
 
     private final Type optionalScheduleType;
 
-    private final ReadLock readLock;
-    private final WriteLock writeLock;
+    private volatile int maxMounted;
+    private volatile long maxEntries, maxIdleTime;
+
+    private final AtomicLong
+            evictions = new AtomicLong(),
+            evictionFailures = new AtomicLong();
+
+    /** Whether or not an eviction has been requested by a mount. */
+    private final AtomicBoolean evictionPending = new AtomicBoolean();
+
+    /** The future for the periodic eviction or {@code null} if none. */
+    private Future<?> eviction;
 
     public FsDefaultManager() {
         this(WEAK);
+        setMaxMounted(Integer.getInteger(
+                FsDefaultManager.class.getName() + ".maxMounted", 0));
+        setMaxEntries(Long.getLong(
+                FsDefaultManager.class.getName() + ".maxEntries", 0));
+        setMaxIdleTime(Long.getLong(
+                FsDefaultManager.class.getName() + ".maxIdleTime", 0));
     }
 
     /** Solely provided for unit testing. */
     FsDefaultManager(final Type optionalScheduleType) {
         assert null != optionalScheduleType;
         this.optionalScheduleType = optionalScheduleType;
-        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-        this.readLock = lock.readLock();
-        this.writeLock = lock.writeLock();
+    }
+
+    /**
+     * Returns the maximum number of mounted archive file systems or zero if
+     * there is no limit.
+     *
+     * @return The maximum number of mounted archive file systems.
+     * @see    #setMaxMounted
+     */
+    public int getMaxMounted() {
+        return maxMounted;
+    }
+
+    /**
+     * Sets the maximum number of mounted archive file systems.
+     * If this limit gets exceeded, then the least recently used archive file
+     * systems get evicted in the background.
+     *
+     * @param  maxMounted the maximum number of mounted archive file systems
+     *         or zero if there should be no limit.
+     * @throws IllegalArgumentException if {@code maxMounted} is negative.
+     * @see    #getMaxMounted
+     */
+    public void setMaxMounted(final int maxMounted) {
+        if (0 > maxMounted)
+            throw new IllegalArgumentException("Negative maximum mounted!");
+        this.maxMounted = maxMounted;
+        scheduleEviction();
+    }
+
+    /**
+     * Returns the maximum total number of entries in all mounted archive file
+     * systems or zero if there is no limit.
+     *
+     * @return The maximum total number of entries in all mounted archive file
+     *         systems.
+     * @see    #setMaxEntries
+     */
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum total number of entries in all mounted archive file
+     * systems.
+     * If this limit gets exceeded, then the least recently used archive file
+     * systems get evicted in the background.
+     *
+     * @param  maxEntries the maximum total number of entries in all mounted
+     *         archive file systems or zero if there should be no limit.
+     * @throws IllegalArgumentException if {@code maxEntries} is negative.
+     * @see    #getMaxEntries
+     */
+    public void setMaxEntries(final long maxEntries) {
+        if (0 > maxEntries)
+            throw new IllegalArgumentException("Negative maximum entries!");
+        this.maxEntries = maxEntries;
+        scheduleEviction();
+    }
+
+    /**
+     * Returns the maximum time in milliseconds which a mounted archive file
+     * system may not get accessed before it gets evicted or zero if there is
+     * no limit.
+     *
+     * @return The maximum idle time in milliseconds.
+     * @see    #setMaxIdleTime
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds which a mounted archive file
+     * system may not get accessed before it gets evicted in the background.
+     *
+     * @param  maxIdleTime the maximum idle time in milliseconds or zero if
+     *         there should be no limit.
+     * @throws IllegalArgumentException if {@code maxIdleTime} is negative.
+     * @see    #getMaxIdleTime
+     */
+    public void setMaxIdleTime(final long maxIdleTime) {
+        if (0 > maxIdleTime)
+            throw new IllegalArgumentException("Negative maximum idle time!");
+        this.maxIdleTime = maxIdleTime;
+        scheduleEviction();
+    }
+
+    /**
+     * Returns the number of archive file systems which have been evicted.
+     *
+     * @return The number of archive file systems which have been evicted.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of failed attempts to evict an archive file system,
+     * e.g. because some of its entry streams have not been closed.
+     *
+     * @return The number of failed attempts to evict an archive file system.
+     */
+    public long getEvictionFailures() {
+        return evictionFailures.get();
+    }
+
+    /**
+     * Starts or cancels the periodic eviction depending on the current
+     * limits.
+     */
+    private synchronized void scheduleEviction() {
+        final boolean limited = 0 != maxMounted
+                || 0 != maxEntries
+                || 0 != maxIdleTime;
+        if (limited) {
+            if (null == eviction)
+                eviction = EvictorThreads.executor.scheduleWithFixedDelay(
+                        new Evictor(), EVICTION_PERIOD, EVICTION_PERIOD,
+                        MILLISECONDS);
+            evictLater();
+        } else if (null != eviction) {
+            eviction.cancel(false);
+            eviction = null;
+        }
+    }
+
+    /** Requests an eviction in the background unless one is pending. */
+    private void evictLater() {
+        if (evictionPending.compareAndSet(false, true))
+            EvictorThreads.executor.execute(new Evictor());
+    }
+
+    /**
+     * Returns {@code true} if and only if the number of mounted archive file
+     * systems or their total number of entries exceeds its limit.
+     */
+    private boolean overLimit() {
+        final int maxMounted = this.maxMounted;
+        if (0 != maxMounted && maxMounted < mounted.size())
+            return true;
+        final long maxEntries = this.maxEntries;
+        return 0 != maxEntries && maxEntries < entries();
+    }
+
+    /**
+     * Returns the total number of entries in all mounted archive file
+     * systems.
+     */
+    private long entries() {
+        long entries = 0;
+        for (final ManagedModel model : mounted)
+            entries += model.size();
+        return entries;
+    }
+
+    /**
+     * Synchronizes and unmounts the least recently used archive file systems
+     * until all limits are met again.
+     * Archive file systems which cannot get synchronized without closing
+     * their entry streams forcibly get skipped.
+     */
+    private void evict() {
+        evictionPending.set(false);
+        final long maxIdleTime = this.maxIdleTime;
+        final List<ManagedModel> models = new ArrayList<ManagedModel>(mounted);
+        final long[] accessed = new long[models.size()];
+        for (int i = accessed.length; 0 <= --i; )
+            accessed[i] = models.get(i).accessTime;
+        final Integer[] lru = new Integer[accessed.length];
+        for (int i = lru.length; 0 <= --i; )
+            lru[i] = i;
+        // Sort a snapshot of the access times in order to get a stable order.
+        Arrays.sort(lru, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                final long a1 = accessed[o1], a2 = accessed[o2];
+                return a1 < a2 ? -1 : a1 == a2 ? 0 : 1;
+            }
+        });
+        final long now = System.currentTimeMillis();
+        for (final int i : lru) {
+            final ManagedModel model = models.get(i);
+            if (!model.isMounted())
+                continue; // evicted as a member of another file system
+            if (!overLimit()
+                    && (0 == maxIdleTime || now - accessed[i] < maxIdleTime))
+                break;
+            try {
+                new FsFilteringManager(this, model.getMountPoint())
+                        .sync(EVICTION_OPTIONS);
+                evictions.incrementAndGet();
+            } catch (final FsSyncWarningException ex) {
+                evictions.incrementAndGet();
+            } catch (final FsSyncException ex) {
+                evictionFailures.incrementAndGet();
+            }
+        }
     }
 
     @Override
@@ -63,36 +329,30 @@ public final class FsDefaultManager extends FsManager {
     public FsController<?> getController(
             final FsMountPoint mp,
             final FsCompositeDriver d) {
-        try {
-            readLock.lock();
-            try {
-                return getController0(mp, d);
-            } finally {
-                readLock.unlock();
-            }
-        } catch (final FsNeedsWriteLockException ex) {
-            writeLock.lock();
-            try {
-                return getController0(mp, d);
-            } finally {
-                writeLock.unlock();
-            }
-        }
-    }
-
-    private FsController<?> getController0(
-            final FsMountPoint mp,
-            final FsCompositeDriver d) {
+        expunge();
         FsController<?> c = getTarget(controllers.get(mp));
         if (null != c) return c;
-        if (!writeLock.isHeldByCurrentThread())
-            throw FsNeedsWriteLockException.get();
         final FsMountPoint pmp = mp.getParent();
-        final FsController<?> p = null == pmp ? null : getController0(pmp, d);
+        final FsController<?> p = null == pmp ? null : getController(pmp, d);
         final ManagedModel m = new ManagedModel(mp, null == p ? null : p.getModel());
         c = d.newController(this, m, p);
-        m.init(c);
-        return c;
+        final Link<FsController<?>> l = m.init(c);
+        while (true) {
+            final Link<FsController<?>> ol = controllers.putIfAbsent(mp, l);
+            if (null == ol) return c;
+            // Another thread has won the race or the link has been cleared.
+            final FsController<?> oc = ol.getTarget();
+            if (null != oc) return oc;
+            if (controllers.replace(mp, ol, l)) return c;
+        }
+    }
+
+    /** Removes all cleared links from the map of controllers. */
+    private void expunge() {
+        for (Reference<? extends FsController<?>> ref; null != (ref = queue.poll()); ) {
+            final ControllerLink link = (ControllerLink) ref;
+            controllers.remove(link.mountPoint, link);
+        }
     }
 
     /**
@@ -105,17 +365,25 @@ public final class FsDefaultManager extends FsManager {
      */
     private final class ManagedModel extends FsModel {
         FsController<?> controller;
+        Link<FsController<?>> link;
         volatile boolean mounted;
+        volatile long accessTime = System.currentTimeMillis();
+        volatile FsArchiveFileSystem<?> fileSystem;
 
         ManagedModel(FsMountPoint mountPoint, FsModel parent) {
             super(mountPoint, parent);
         }
 
-        void init(final FsController<? extends FsModel> controller) {
+        /**
+         * Initializes this model with its controller and returns the link to
+         * register it with.
+         */
+        synchronized Link<FsController<?>> init(
+                final FsController<? extends FsModel> controller) {
             assert null != controller;
             assert !mounted;
             this.controller = controller;
-            schedule(false);
+            return link = newLink(false);
         }
 
         @Override
@@ -128,37 +396,99 @@ public final class FsDefaultManager extends FsManager {
          * to the given mount status.
          */
         @Override
-        public void setMounted(final boolean mounted) {
-            writeLock.lock();
-            try {
-                if (this.mounted != mounted) {
-                    if (mounted)
-                        FsSyncShutdownHook.register(FsDefaultManager.this);
-                    schedule(mounted);
-                    this.mounted = mounted;
+        public synchronized void setMounted(final boolean mounted) {
+            if (this.mounted != mounted) {
+                if (mounted)
+                    FsSyncShutdownHook.register(FsDefaultManager.this);
+                schedule(mounted);
+                this.mounted = mounted;
+                if (mounted) {
+                    FsDefaultManager.this.mounted.add(this);
+                    if (overLimit())
+                        evictLater();
+                } else {
+                    FsDefaultManager.this.mounted.remove(this);
                 }
-            } finally {
-                writeLock.unlock();
             }
         }
 
-        @SuppressWarnings("unchecked")
-        void schedule(boolean mandatory) {
-            assert(writeLock.isHeldByCurrentThread());
+        /**
+         * Records the access time of this model and of all its parent
+         * models, so that a parent file system never appears to be less
+         * recently used than its members.
+         */
+        @Override
+        void accessed() {
+            accessTime = System.currentTimeMillis();
+            final FsModel parent = getParent();
+            if (null != parent)
+                parent.accessed();
+        }
+
+        @Override
+        void setFileSystem(FsArchiveFileSystem<?> fileSystem) {
+            this.fileSystem = fileSystem;
+        }
+
+        /** Returns the number of entries in the mounted file system. */
+        int size() {
+            final FsArchiveFileSystem<?> fileSystem = this.fileSystem;
+            return null == fileSystem ? 0 : fileSystem.getSize();
+        }
+
+        void schedule(final boolean mandatory) {
+            assert Thread.holdsLock(this);
+            final Link<FsController<?>> ol = link, nl = newLink(mandatory);
+            // The controller is in use, so its link cannot have been cleared
+            // and no other controller can have been registered instead.
+            if (!controllers.replace(getMountPoint(), ol, nl)) {
+                assert false : "Unregistered controller!";
+                controllers.put(getMountPoint(), nl);
+            }
+            link = nl;
+        }
+
+        /**
+         * Returns a new link to the controller.
+         * Any optional schedule type other than {@link Type#STRONG} results
+         * in a weak link.
+         */
+        Link<FsController<?>> newLink(final boolean mandatory) {
             final Type type = mandatory ? STRONG : optionalScheduleType;
-            final Object link = type.newLink(controller);
-            controllers.put(getMountPoint(), (Link<FsController<?>>) link);
+            return STRONG == type
+                    ? Links.<FsController<?>>newLink(controller)
+                    : new ControllerLink(getMountPoint(), controller, queue);
         }
     } // ManagedModel
 
+    /**
+     * A weak link to a controller which remembers the mount point of its
+     * model so that it can get expunged from the map of controllers once it
+     * has been cleared.
+     */
+    private static final class ControllerLink
+    extends WeakReference<FsController<?>>
+    implements Link<FsController<?>> {
+        final FsMountPoint mountPoint;
+
+        ControllerLink(
+                final FsMountPoint mountPoint,
+                final FsController<?> controller,
+                final ReferenceQueue<? super FsController<?>> queue) {
+            super(controller, queue);
+            this.mountPoint = mountPoint;
+        }
+
+        @Override
+        public FsController<?> getTarget() {
+            return get();
+        }
+    } // ControllerLink
+
     @Override
     public int getSize() {
-        readLock.lock();
-        try {
-            return controllers.size();
-        } finally {
-            readLock.unlock();
-        }
+        expunge();
+        return controllers.size();
     }
 
     @Override
@@ -167,19 +497,15 @@ public final class FsDefaultManager extends FsManager {
     }
 
     private Set<FsController<?>> sortedControllers() {
-        readLock.lock();
-        try {
-            final Set<FsController<?>> snapshot
-                    = new TreeSet<FsController<?>>(ReverseControllerComparator.INSTANCE);
-            for (final Link<FsController<? extends FsModel>> link : controllers.values()) {
-                final FsController<?> controller = getTarget(link);
-                if (null != controller)
-                    snapshot.add(controller);
-            }
-            return snapshot;
-        } finally {
-            readLock.unlock();
+        expunge();
+        final Set<FsController<?>> snapshot
+                = new TreeSet<FsController<?>>(ReverseControllerComparator.INSTANCE);
+        for (final Link<FsController<? extends FsModel>> link : controllers.values()) {
+            final FsController<?> controller = getTarget(link);
+            if (null != controller)
+                snapshot.add(controller);
         }
+        return snapshot;
     }
 
     @Override
@@ -188,6 +514,37 @@ public final class FsDefaultManager extends FsManager {
         super.sync(options);
     }
 
+    /** Evicts the least recently used archive file systems. */
+    private final class Evictor implements Runnable {
+        @Override
+        public void run() {
+            evict();
+        }
+    } // Evictor
+
+    /** Holds the executor service for evicting archive file systems. */
+    private static final class EvictorThreads {
+        static final ScheduledExecutorService executor
+                = new ScheduledThreadPoolExecutor(1, new EvictorThreadFactory());
+    } // EvictorThreads
+
+    /** A factory for evictor threads. */
+    private static final class EvictorThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new EvictorThread(r);
+        }
+    } // EvictorThreadFactory
+
+    /** A daemon thread which evicts archive file systems. */
+    private static final class EvictorThread extends Thread {
+        EvictorThread(Runnable r) {
+            super(ThreadGroups.getServerThreadGroup(), r,
+                    EvictorThread.class.getName());
+            setDaemon(true);
+        }
+    } // EvictorThread
+
     /**
      * Orders file system controllers so that all file systems appear before
      * any of their parent file systems.
@@ -39,6 +39,7 @@ extends FsBasicArchiveController<E> {
 
     final void setFileSystem(FsArchiveFileSystem<E> fileSystem) {
         mountState.setFileSystem(fileSystem);
+        getModel().setFileSystem(fileSystem);
     }
 
     /**
@@ -29,6 +29,13 @@ import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
 /**
  * Provides read/write locking for multi-threaded access by its clients.
+ * <p>
+ * Input sockets first try to open their entry while holding the read lock
+ * so that many threads can concurrently read the entries of a mounted and
+ * clean archive file.
+ * If any decorated controller needs to mount or sync the file system, it
+ * throws an {@link FsNeedsWriteLockException} and the operation gets retried
+ * while holding the write lock.
  *
  * @see    FsLockModel
  * @see    FsNeedsWriteLockException
@@ -247,8 +254,14 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
     }
 
     <T> T writeLocked(Operation<T> operation) throws IOException {
-        assert !getModel().isReadLockedByCurrentThread()
-                : "Trying to upgrade a read lock to a write lock would only result in a dead lock - see Javadoc for ReentrantReadWriteLock!";
+        // Trying to upgrade a read lock to a write lock would only result in a
+        // dead lock - see Javadoc for ReentrantReadWriteLock!
+        // This may legally happen if an input socket has been opened under
+        // the read lock, so unwind the stack to the enclosing
+        // readOrWriteLocked(*) call, which will then retry with the write
+        // lock.
+        if (getModel().isReadLockedByCurrentThread())
+            throw FsNeedsWriteLockException.get();
         return locked(operation, writeLock());
     }
 
@@ -303,6 +316,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
                 lock.unlock();
             }
         } else {
+            getModel().accessed();
             try {
                 while (true) {
                     try {
@@ -375,7 +389,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
                     return getBoundSocket().getLocalTarget();
                 }
             } // GetLocalTarget
-            return writeLocked(new GetLocalTarget());
+            return readOrWriteLocked(new GetLocalTarget());
         }
 
         @Override
@@ -387,7 +401,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
                             getBoundSocket().newReadOnlyFile());
                 }
             } // NewReadOnlyFile
-            return writeLocked(new NewReadOnlyFile());
+            return readOrWriteLocked(new NewReadOnlyFile());
         }
 
         @Override
@@ -399,7 +413,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
                             getBoundSocket().newInputStream());
                 }
             } // NewInputStream
-            return writeLocked(new NewInputStream());
+            return readOrWriteLocked(new NewInputStream());
         }
     } // Input
 
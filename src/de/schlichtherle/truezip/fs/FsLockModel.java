@@ -25,8 +25,9 @@ final class FsLockModel extends FsDecoratingModel<FsModel> {
     /**
      * Returns {@code true} if and only if the read lock is held by the
      * current thread.
-     * This method should only get used for assert statements, not for lock
-     * control!
+     * Apart from assert statements, this method should only get used in
+     * order to prevent a dead lock when trying to upgrade a read lock to a
+     * write lock.
      *
      * @return {@code true} if and only if the read lock is held by the
      *         current thread.
@@ -6,7 +6,20 @@ package de.schlichtherle.truezip.fs;
 
 import static de.schlichtherle.truezip.fs.FsSyncOption.ABORT_CHANGES;
 import de.schlichtherle.truezip.util.BitField;
+import de.schlichtherle.truezip.util.ThreadGroups;
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A container which creates {@linkplain FsController} file system controllers
@@ -20,6 +33,9 @@ import java.util.Iterator;
  */
 public abstract class FsManager implements Iterable<FsController<?>> {
 
+    /** The maximum number of file systems to synchronize concurrently. */
+    private volatile int parallelism = 1;
+
     /**
      * <em>Optional:</em>
      * Returns a new thread-safe archive file system controller.
@@ -74,6 +90,40 @@ public abstract class FsManager implements Iterable<FsController<?>> {
     @Override
     public abstract Iterator<FsController<?>> iterator();
 
+    /**
+     * Returns the maximum number of file systems to
+     * {@link #sync synchronize} concurrently.
+     * The initial value is one.
+     *
+     * @return The maximum number of file systems to synchronize
+     *         concurrently.
+     * @see    #setParallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of file systems to {@link #sync synchronize}
+     * concurrently.
+     * If this is greater than one, then the managed file systems which do
+     * not depend on each other get synchronized concurrently by background
+     * threads.
+     * A file system still gets synchronized only after all of its member
+     * file systems.
+     *
+     * @param  parallelism the maximum number of file systems to synchronize
+     *         concurrently.
+     * @throws IllegalArgumentException if {@code parallelism} is less than
+     *         one.
+     * @see    #getParallelism
+     */
+    public void setParallelism(final int parallelism) {
+        if (1 > parallelism)
+            throw new IllegalArgumentException("Invalid parallelism!");
+        this.parallelism = parallelism;
+    }
+
     /**
      * Calls {@link FsController#sync(BitField)} on all managed file system
      * controllers.
@@ -82,6 +132,11 @@ public abstract class FsManager implements Iterable<FsController<?>> {
      * continues with sync()ing the remaining file system controllers.
      * After the loop, the exception(s) get processed for (re)throwing based
      * on their type and order of appearance.
+     * <p>
+     * If the {@link #getParallelism() parallelism} is greater than one, then
+     * the file system controllers get sync()ed concurrently in the order of
+     * the dependency forest of their mount points, so that all file systems
+     * still get sync()ed before any of their parent file systems.
      *
      * @param  options the options for synchronizing the file system.
      * @throws FsSyncWarningException if <em>only</em> warning conditions
@@ -98,15 +153,160 @@ public abstract class FsManager implements Iterable<FsController<?>> {
     throws FsSyncWarningException, FsSyncException {
         if (options.get(ABORT_CHANGES)) throw new IllegalArgumentException();
         final FsSyncExceptionBuilder builder = new FsSyncExceptionBuilder();
-        for (final FsController<?> controller : this) {
+        final int parallelism = getParallelism();
+        if (1 < parallelism) {
+            sync(options, builder, parallelism);
+        } else {
+            for (final FsController<?> controller : this) {
+                try {
+                    controller.sync(options);
+                } catch (final FsSyncException ex) {
+                    builder.warn(ex);
+                }
+            }
+        }
+        builder.check();
+    }
+
+    private void sync(
+            final BitField<FsSyncOption> options,
+            final FsSyncExceptionBuilder builder,
+            final int parallelism) {
+        // Build the dependency forest of the mount points.
+        final Map<FsMountPoint, SyncTask> tasks
+                = new LinkedHashMap<FsMountPoint, SyncTask>();
+        for (final FsController<?> controller : this)
+            tasks.put(controller.getModel().getMountPoint(),
+                    new SyncTask(controller, options));
+        final Queue<SyncTask> ready = new ArrayDeque<SyncTask>();
+        for (final SyncTask task : tasks.values()) {
+            for (   FsModel model = task.controller.getModel().getParent();
+                    null != model;
+                    model = model.getParent()) {
+                final SyncTask parent = tasks.get(model.getMountPoint());
+                if (null != parent) {
+                    task.parent = parent;
+                    parent.pending++;
+                    break;
+                }
+            }
+        }
+        for (final SyncTask task : tasks.values())
+            if (0 == task.pending)
+                ready.add(task);
+
+        // Submit the tasks bottom-up and process their results in the
+        // current thread.
+        final CompletionService<SyncTask> service
+                = new ExecutorCompletionService<SyncTask>(SyncThreads.executor);
+        RuntimeException rex = null;
+        Error err = null;
+        boolean interrupted = false;
+        for (int running = 0; ; ) {
+            while (null == rex && null == err && running < parallelism
+                    && !ready.isEmpty()) {
+                service.submit(ready.remove());
+                running++;
+            }
+            if (0 == running)
+                break;
+            final Future<SyncTask> result;
+            try {
+                result = service.take();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+                continue;
+            }
+            running--;
+            final SyncTask task;
+            try {
+                task = result.get();
+            } catch (InterruptedException ex) {
+                throw new AssertionError(ex); // result is done
+            } catch (ExecutionException ex) {
+                final Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException)
+                    rex = (RuntimeException) cause;
+                else if (cause instanceof Error)
+                    err = (Error) cause;
+                else
+                    err = new AssertionError(cause);
+                continue;
+            }
+            if (null != task.exception)
+                builder.warn(task.exception);
+            final SyncTask parent = task.parent;
+            if (null != parent && 0 == --parent.pending)
+                ready.add(parent);
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt(); // restore
+        if (null != rex)
+            throw rex;
+        if (null != err)
+            throw err;
+    }
+
+    /**
+     * Sync()s a file system controller on behalf of the thread which created
+     * this task, so that resources which have been opened by this thread are
+     * still accounted for as its own.
+     */
+    private static final class SyncTask implements Callable<SyncTask> {
+        final FsController<?> controller;
+        final BitField<FsSyncOption> options;
+        final Thread owner = Thread.currentThread();
+
+        /** The task for the parent file system or {@code null}. */
+        SyncTask parent;
+
+        /** The number of pending tasks for member file systems. */
+        int pending;
+
+        FsSyncException exception;
+
+        SyncTask(   final FsController<?> controller,
+                    final BitField<FsSyncOption> options) {
+            this.controller = controller;
+            this.options = options;
+        }
+
+        @Override
+        public SyncTask call() {
+            final Thread previous = FsResourceAccountant.setOwner(owner);
             try {
                 controller.sync(options);
             } catch (final FsSyncException ex) {
-                builder.warn(ex);
+                exception = ex;
+            } finally {
+                FsResourceAccountant.setOwner(previous);
             }
+            return this;
         }
-        builder.check();
-    }
+    } // SyncTask
+
+    /** Provides the shared executor service for sync threads. */
+    private static final class SyncThreads {
+        static final ExecutorService executor
+                = Executors.newCachedThreadPool(new SyncThreadFactory());
+    } // SyncThreads
+
+    /** A factory for sync threads. */
+    private static final class SyncThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new SyncThread(r);
+        }
+    } // SyncThreadFactory
+
+    /** A pooled and cached daemon thread which sync()s file systems. */
+    private static final class SyncThread extends Thread {
+        SyncThread(Runnable r) {
+            super(ThreadGroups.getServerThreadGroup(), r,
+                    SyncThread.class.getName());
+            setDaemon(true);
+        }
+    } // SyncThread
 
     /**
      * Two file system managers are considered equal if and only if they are
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.fs;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact set of the base names of the members of a directory entry which
+ * preserves the insertion order like a {@link java.util.LinkedHashSet}.
+ * <p>
+ * The members get stored in an array in insertion order.
+ * Small sets get searched linearly.
+ * Larger sets get indexed by an open addressing hash table of array indices.
+ * Compared to a {@link java.util.LinkedHashSet}, this saves the map entry
+ * object per member, which matters when mounting archives with a large
+ * number of entries.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Christian Schlichtherle
+ */
+final class FsMemberSet extends AbstractSet<String> implements Cloneable {
+
+    /** The maximum number of members which get searched linearly. */
+    private static final int LINEAR_SEARCH_LIMIT = 8;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** Marks a hash table slot of a removed member. */
+    private static final int REMOVED = -1;
+
+    /**
+     * The members in insertion order.
+     * Removed members leave {@code null} holes until the array gets
+     * reallocated.
+     */
+    private String[] members = new String[INITIAL_CAPACITY];
+
+    /** The number of used elements in {@link #members}, including holes. */
+    private int used;
+
+    private int size;
+
+    /**
+     * The hash table with one plus the index of a member in
+     * {@link #members} or zero for a free slot or {@link #REMOVED}.
+     * The length is a power of two and at least twice the length of
+     * {@link #members}, so there is always a free slot.
+     * This is {@code null} while the capacity does not exceed
+     * {@link #LINEAR_SEARCH_LIMIT}.
+     */
+    private int[] table;
+
+    private int modCount;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return 0 <= indexOf(o);
+    }
+
+    @Override
+    public boolean add(final String member) {
+        if (null == member)
+            throw new NullPointerException();
+        if (0 <= indexOf(member))
+            return false;
+        if (used == members.length)
+            reallocate();
+        final int index = used++;
+        members[index] = member;
+        if (null != table)
+            table[slot(member, 0)] = index + 1;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        final int index = indexOf(o);
+        if (0 > index)
+            return false;
+        removeAt(index);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(members, 0, used, null);
+        if (null != table)
+            Arrays.fill(table, 0);
+        used = size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new MemberIterator();
+    }
+
+    @Override
+    public FsMemberSet clone() {
+        final FsMemberSet clone;
+        try {
+            clone = (FsMemberSet) super.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new AssertionError(ex);
+        }
+        clone.members = members.clone();
+        if (null != table)
+            clone.table = table.clone();
+        clone.modCount = 0;
+        return clone;
+    }
+
+    private int indexOf(final Object o) {
+        if (!(o instanceof String))
+            return -1;
+        final String[] members = this.members;
+        final int[] table = this.table;
+        if (null == table) {
+            for (int i = 0; i < used; i++)
+                if (o.equals(members[i]))
+                    return i;
+            return -1;
+        }
+        final int mask = table.length - 1;
+        for (int slot = hash(o) & mask; ; slot = (slot + 1) & mask) {
+            final int entry = table[slot];
+            if (0 == entry)
+                return -1;
+            if (0 < entry && o.equals(members[entry - 1]))
+                return entry - 1;
+        }
+    }
+
+    /**
+     * Returns the hash table slot for the given member which contains the
+     * given entry.
+     * An entry of zero searches for a free slot.
+     */
+    private int slot(final String member, final int entry) {
+        final int[] table = this.table;
+        final int mask = table.length - 1;
+        for (int slot = hash(member) & mask; ; slot = (slot + 1) & mask)
+            if (entry == table[slot])
+                return slot;
+    }
+
+    private void removeAt(final int index) {
+        if (null != table)
+            table[slot(members[index], index + 1)] = REMOVED;
+        members[index] = null;
+        modCount++;
+        if (0 == --size) {
+            if (null != table)
+                Arrays.fill(table, 0);
+            used = 0;
+        }
+    }
+
+    /**
+     * Compacts the members array and grows it if it's more than half full.
+     * Then rebuilds the hash table, if any.
+     */
+    private void reallocate() {
+        final String[] oldMembers = members;
+        final int length = size < oldMembers.length / 2
+                ? oldMembers.length
+                : oldMembers.length + (oldMembers.length >> 1);
+        final String[] newMembers = new String[length];
+        int j = 0;
+        for (int i = 0; i < used; i++) {
+            final String member = oldMembers[i];
+            if (null != member)
+                newMembers[j++] = member;
+        }
+        assert size == j;
+        members = newMembers;
+        used = j;
+        if (LINEAR_SEARCH_LIMIT >= length) {
+            table = null;
+            return;
+        }
+        table = new int[Integer.highestOneBit(length - 1) << 2];
+        for (int i = 0; i < j; i++)
+            table[slot(newMembers[i], 0)] = i + 1;
+    }
+
+    private static int hash(final Object o) {
+        final int h = o.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private final class MemberIterator implements Iterator<String> {
+        int next = -1, current = -1;
+        int expectedModCount = modCount;
+
+        MemberIterator() { advance(); }
+
+        private void advance() {
+            while (++next < used && null == members[next]) {
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < used;
+        }
+
+        @Override
+        public String next() {
+            if (expectedModCount != modCount)
+                throw new ConcurrentModificationException();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            final String member = members[current = next];
+            advance();
+            return member;
+        }
+
+        @Override
+        public void remove() {
+            if (0 > current)
+                throw new IllegalStateException();
+            if (expectedModCount != modCount)
+                throw new ConcurrentModificationException();
+            removeAt(current);
+            current = -1;
+            expectedModCount = modCount;
+            if (0 == size)
+                next = 0;
+        }
+    } // MemberIterator
+}
@@ -84,6 +84,29 @@ public abstract class FsModel {
      */
     public abstract void setMounted(boolean mounted);
 
+    /**
+     * Notifies this model that an operation is about to access the file
+     * system.
+     * The file system controllers call this method so that a file system
+     * manager can track the least recently used file systems.
+     * The implementation in the class {@link FsModel} does nothing.
+     */
+    void accessed() {
+    }
+
+    /**
+     * Notifies this model that the given archive file system has been mounted
+     * or that the archive file system has been unmounted if the parameter is
+     * {@code null}.
+     * The file system controllers call this method so that a file system
+     * manager can track the number of entries in the mounted file systems.
+     * The implementation in the class {@link FsModel} does nothing.
+     *
+     * @param fileSystem the nullable archive file system.
+     */
+    void setFileSystem(FsArchiveFileSystem<?> fileSystem) {
+    }
+
     /**
      * Two file system models are considered equal if and only if they are
      * identical.
@@ -10,7 +10,9 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -30,6 +32,10 @@ import java.util.concurrent.locks.ReentrantLock;
  * call {@link #startAccountingFor(Closeable)}.
  * In order to stop accounting for a closeable resource,
  * call {@link #stopAccountingFor(Closeable)}.
+ * <p>
+ * Each accountant keeps its own map of accounted closeable resources and
+ * counts them per thread, so that the cost of querying or closing its
+ * resources does not depend on the resources of any other accountant.
  *
  * @see    FsResourceController
  * @since  TrueZIP 7.3
@@ -38,18 +44,35 @@ import java.util.concurrent.locks.ReentrantLock;
 final class FsResourceAccountant {
 
     /**
-     * The map of all accounted closeable resources.
-     * The initial capacity for the hash map accounts for the number of
-     * available processors, a 90% blocking factor for typical I/O and a 2/3
-     * map resize threshold.
+     * The number of threads which are expected to concurrently account for
+     * resources, which accounts for the number of available processors and a
+     * 90% blocking factor for typical I/O.
      */
-    private static final ConcurrentMap<Closeable, Account> accounts;
-    static {
-        final int threads = Runtime.getRuntime().availableProcessors() * 10;
-        final int initialCapacity = HashMaps.initialCapacity(threads);
-        accounts = new ConcurrentHashMap<Closeable, Account>(
-                initialCapacity, 0.75f, threads);
-    }
+    private static final int THREADS
+            = Runtime.getRuntime().availableProcessors() * 10;
+
+    /** The map of the closeable resources accounted for by this accountant. */
+    private final ConcurrentMap<Closeable, Account> accounts
+            = new ConcurrentHashMap<Closeable, Account>(
+                HashMaps.initialCapacity(THREADS), 0.75f, THREADS);
+
+    /**
+     * The map of the number of accounted closeable resources per owner thread.
+     * Guarded by itself.
+     */
+    private final Map<Thread, Count> counts = new HashMap<Thread, Count>();
+
+    /**
+     * The total number of accounted closeable resources.
+     * Guarded by {@link #counts}.
+     */
+    private int total;
+
+    /**
+     * The thread on behalf of which the current thread accounts for
+     * closeable resources or {@code null} if it accounts for itself.
+     */
+    private static final ThreadLocal<Thread> owners = new ThreadLocal<Thread>();
 
     private final Lock lock;
     private final Condition condition;
@@ -70,13 +93,44 @@ final class FsResourceAccountant {
         this.condition = (this.lock = lock).newCondition();
     }
 
+    /**
+     * Sets the thread on behalf of which the current thread accounts for
+     * closeable resources.
+     * Resources which get started accounting for by the current thread get
+     * owned by the given thread and resources which are owned by the given
+     * thread count as <i>local</i> resources of the current thread.
+     *
+     * @param  owner the owner thread or {@code null} if the current thread
+     *         shall account for itself again.
+     * @return The previous owner thread or {@code null}.
+     */
+    static Thread setOwner(final Thread owner) {
+        final Thread previous = owners.get();
+        if (null == owner)
+            owners.remove();
+        else
+            owners.set(owner);
+        return previous;
+    }
+
+    /** Returns the thread which owns the resources of the current thread. */
+    private static Thread owner() {
+        final Thread owner = owners.get();
+        return null != owner ? owner : Thread.currentThread();
+    }
+
     /**
      * Starts accounting for the given closeable resource.
      *
      * @param resource the closeable resource to start accounting for.
      */
     void startAccountingFor(final Closeable resource) {
-        accounts.put(resource, new Account());
+        final Account account = new Account();
+        final Account old = accounts.put(resource, account);
+        synchronized (counts) {
+            if (null != old) decrement(old.owner);
+            increment(account.owner);
+        }
     }
 
     /**
@@ -87,7 +141,11 @@ final class FsResourceAccountant {
      * @param resource the closeable resource to stop accounting for.
      */
     void stopAccountingFor(final Closeable resource) {
-        if (null != accounts.remove(resource)) {
+        final Account account = accounts.remove(resource);
+        if (null != account) {
+            synchronized (counts) {
+                decrement(account.owner);
+            }
             lock.lock();
             try {
                 condition.signalAll();
@@ -157,15 +215,31 @@ final class FsResourceAccountant {
      * @return The number of closeable resources which have been accounted for.
      */
     Resources resources() {
-        final Thread currentThread = Thread.currentThread();
-        int local = 0, total = 0;
-        for (final Account account : accounts.values()) {
-            if (account.getAccountant() == this) {
-                if (account.owner == currentThread) local++;
-                total++;
-            }
+        synchronized (counts) {
+            final Count count = counts.get(owner());
+            return new Resources(null == count ? 0 : count.value, total);
         }
-        return new Resources(local, total);
+    }
+
+    /** Must be called while synchronized on {@link #counts}. */
+    private void increment(final Thread owner) {
+        assert Thread.holdsLock(counts);
+        Count count = counts.get(owner);
+        if (null == count)
+            counts.put(owner, count = new Count());
+        count.value++;
+        total++;
+    }
+
+    /** Must be called while synchronized on {@link #counts}. */
+    private void decrement(final Thread owner) {
+        assert Thread.holdsLock(counts);
+        final Count count = counts.get(owner);
+        assert null != count;
+        if (0 == --count.value)
+            counts.remove(owner);
+        total--;
+        assert 0 <= total;
     }
 
     /**
@@ -186,10 +260,14 @@ final class FsResourceAccountant {
                         i = accounts.entrySet().iterator();
                     i.hasNext(); ) {
                 final Entry<Closeable, Account> entry = i.next();
-                final Account account = entry.getValue();
-                if (account.getAccountant() != this) continue;
-                i.remove();
                 final Closeable closeable = entry.getKey();
+                // Only decrement the counts if this thread succeeds in
+                // removing the entry - the closeable may get concurrently
+                // stopped accounting for by another thread.
+                if (!accounts.remove(closeable, entry.getValue())) continue;
+                synchronized (counts) {
+                    decrement(entry.getValue().owner);
+                }
                 try {
                     // This should trigger an attempt to remove the closeable
                     // from the map, but it can cause no
@@ -210,14 +288,14 @@ final class FsResourceAccountant {
         }
     }
 
-    private final class Account {
-        final Thread owner = Thread.currentThread();
-
-        FsResourceAccountant getAccountant() {
-            return FsResourceAccountant.this;
-        }
+    private static final class Account {
+        final Thread owner = owner();
     } // Account
 
+    private static final class Count {
+        int value;
+    } // Count
+
     static final class Resources {
         final int local, total;
 
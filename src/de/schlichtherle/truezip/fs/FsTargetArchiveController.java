@@ -29,11 +29,17 @@ import de.schlichtherle.truezip.rof.ReadOnlyFile;
 import de.schlichtherle.truezip.socket.*;
 import de.schlichtherle.truezip.util.BitField;
 import de.schlichtherle.truezip.util.ControlFlowException;
+import de.schlichtherle.truezip.util.ThreadGroups;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Manages I/O to the entry which represents the target archive file in its
@@ -50,6 +56,28 @@ implements FsArchiveFileSystem.TouchListener {
     private static final BitField<FsInputOption>
             MOUNT_INPUT_OPTIONS = BitField.of(FsInputOption.CACHE);
 
+    /**
+     * The maximum number of input entries to read ahead when copying them to
+     * the output archive during {@link #sync}.
+     * This is the number of available processors unless the system property
+     * {@code de.schlichtherle.truezip.fs.FsTargetArchiveController.lookAhead}
+     * is set.
+     * Zero disables reading ahead.
+     */
+    private static final int LOOK_AHEAD = Math.max(0, Integer.getInteger(
+            FsTargetArchiveController.class.getName() + ".lookAhead",
+            Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The maximum size of an input entry to read ahead.
+     * This is one MiB unless the system property
+     * {@code de.schlichtherle.truezip.fs.FsTargetArchiveController.prefetchSize}
+     * is set.
+     */
+    private static final int PREFETCH_SIZE = Math.max(0, Integer.getInteger(
+            FsTargetArchiveController.class.getName() + ".prefetchSize",
+            1024 * 1024));
+
     private final FsArchiveDriver<E> driver;
    
     /** The parent file system controller. */
@@ -70,6 +98,19 @@ implements FsArchiveFileSystem.TouchListener {
      */
     private OutputArchive<E> outputArchive;
 
+    /**
+     * Whether or not any entry of the input archive has been deleted from
+     * the virtual file system since it has been mounted.
+     */
+    private boolean deleted;
+
+    /**
+     * Whether or not the output archive appends to the archive file because
+     * the driver reported it as {@link FsArchiveDriver#isAppendable
+     * appendable} although {@link FsOutputOption#GROW} is not set.
+     */
+    private boolean appending;
+
     /**
      * Constructs a new default archive file system controller.
      *
@@ -237,16 +278,34 @@ implements FsArchiveFileSystem.TouchListener {
             assert isMounted();
             return oa;
         }
-        final BitField<FsOutputOption> options = getContext()
+        BitField<FsOutputOption> options = getContext()
                 .getOutputOptions()
                 .and(OUTPUT_PREFERENCES_MASK)
                 .set(CACHE);
+        final InputArchive<E> ia = getInputArchive();
+        final InputShop<E> is = null == ia ? null : ia.getArchive();
+        boolean compact = false, append = false;
+        if (null != is) {
+            // Append to the archive file if GROWing or if the driver allows it.
+            // However, if the archive file already contains too much
+            // redundant data or if input archive entries have been deleted
+            // without GROWing, then compact it instead by a full update.
+            final boolean grow = options.get(GROW);
+            if (grow || driver.isAppendable(is)) {
+                if (!grow && deleted || driver.needsCompaction(is)) {
+                    options = options.clear(GROW);
+                    compact = true;
+                } else if (!grow) {
+                    options = options.set(GROW);
+                    append = true;
+                }
+            }
+        }
         final OutputSocket<?> os = driver.getOutputSocket(
                 parent, name, options, null);
-        final InputArchive<E> ia = getInputArchive();
         try {
             oa = new OutputArchive<E>(driver.newOutputShop(
-                    getModel(), os, null == ia ? null : ia.getArchive()));
+                    getModel(), os, is, compact));
         } catch (final FsFalsePositiveArchiveException ex) {
             throw new AssertionError(ex);
         } catch (final ControlFlowException ex) {
@@ -254,6 +313,7 @@ implements FsArchiveFileSystem.TouchListener {
             throw ex;
         }
         setOutputArchive(oa);
+        appending = append;
         assert isMounted();
         return oa;
     }
@@ -353,9 +413,9 @@ implements FsArchiveFileSystem.TouchListener {
         final FsArchiveFileSystem<E> fs = getFileSystem();
         if (null == fs) return;
 
-        // If GROWing and the driver supports the respective access method,
-        // then pass the test.
-        if (getContext().get(GROW)) {
+        // If GROWing or appending and the driver supports the respective
+        // access method, then pass the test.
+        if (getContext().get(GROW) || appending) {
             if (null == intention) {
                 if (driver.getRedundantMetaDataSupport()) return;
             } else if (WRITE == intention) {
@@ -405,6 +465,25 @@ implements FsArchiveFileSystem.TouchListener {
         if (null == iae) throw FsNeedsSyncException.get();
     }
 
+    @Override
+    void checkUnlink(final FsEntryName name) throws FsNeedsSyncException {
+        final FsArchiveFileSystem<E> fs = getFileSystem();
+        if (null == fs) return;
+        final FsCovariantEntry<E> fse = fs.getEntry(name);
+        if (null == fse || name.isRoot()) return;
+        final String aen = fse.getEntry().getName();
+        if (appending) {
+            // Appending cannot delete an entry which has already been
+            // written to the archive file, so do a full update instead.
+            if (null != getOutputArchive().getEntry(aen))
+                throw FsNeedsSyncException.get();
+        } else {
+            final InputArchive<E> ia = getInputArchive();
+            if (null != ia && null != ia.getEntry(aen))
+                deleted = true;
+        }
+    }
+
     @Override
     public void sync(final BitField<FsSyncOption> options)
     throws FsSyncException {
@@ -423,6 +502,17 @@ implements FsArchiveFileSystem.TouchListener {
     /**
      * Synchronizes all entries in the (virtual) archive file system with the
      * (temporary) output archive file.
+     * <p>
+     * If the archive driver reports that the input archive can get read
+     * concurrently, then up to {@link #LOOK_AHEAD} input entries get read
+     * ahead by pooled background threads while the current thread writes the
+     * output entries in the order of the file system, so that the resulting
+     * archive file is the same as if the entries were copied one after
+     * another.
+     * Only input entries with a known size of up to {@link #PREFETCH_SIZE}
+     * bytes get read ahead, larger entries get copied when it's their turn.
+     * The input sockets get connected to their output sockets before reading
+     * ahead, so that the archive driver may still copy the raw entry data.
      *
      * @param handler the strategy for assembling sync exceptions.
      */
@@ -445,28 +535,40 @@ implements FsArchiveFileSystem.TouchListener {
         }
 
         final InputService<E> is;
+        final boolean prefetch;
         {
             final InputArchive<E> ia = inputArchive;
             if (null != ia && ia.isClosed())
                 return;
             assert null == ia || !ia.isClosed();
             is = null != ia  ? ia.getClutch() : new DummyInputService<E>();
+            // Reading ahead bypasses the LockInputShop, so only do this if
+            // the input archive can get read concurrently.
+            prefetch = 0 < LOOK_AHEAD && null != ia
+                    && driver.isConcurrentlyReadable(ia.getArchive());
         }
 
-        IOException warning = null;
-        for (final FsCovariantEntry<E> fse : getFileSystem()) {
-            for (final E ae : fse.getEntries()) {
-                final String aen = ae.getName();
-                if (null != os.getEntry(aen))
-                    continue; // entry has already been output
-                try {
+        final Queue<Copy> copies = new ArrayDeque<Copy>();
+        try {
+            IOException warning = null;
+            for (final FsCovariantEntry<E> fse : getFileSystem()) {
+                for (final E ae : fse.getEntries()) {
+                    final String aen = ae.getName();
+                    if (null != os.getEntry(aen))
+                        continue; // entry has already been output
+                    final Copy copy;
+                    final E iae;
                     if (DIRECTORY == ae.getType()) {
-                        if (!fse.isRoot()) // never output the root directory!
-                            if (UNKNOWN != ae.getTime(Access.WRITE)) // never write a ghost directory!
-                                os.getOutputSocket(ae).newOutputStream().close();
-                    } else if (null != is.getEntry(aen)) {
-                        IOSocket.copy(  is.getInputSocket(aen),
+                        if (fse.isRoot()) // never output the root directory!
+                            continue;
+                        if (UNKNOWN == ae.getTime(Access.WRITE)) // never write a ghost directory!
+                            continue;
+                        copy = new Copy(null, os.getOutputSocket(ae));
+                    } else if (null != (iae = is.getEntry(aen))) {
+                        copy = new Copy(is.getInputSocket(aen),
                                         os.getOutputSocket(ae));
+                        if (prefetch)
+                            copy.prefetch(iae);
                     } else {
                         // The file system entry is a newly created
                         // non-directory entry which hasn't received any
@@ -475,15 +577,42 @@ implements FsArchiveFileSystem.TouchListener {
                         for (final Size size : ALL_SIZE_SET)
                             ae.setSize(size, UNKNOWN);
                         ae.setSize(DATA, 0);
-                        os.getOutputSocket(ae).newOutputStream().close();
+                        copy = new Copy(null, os.getOutputSocket(ae));
                     }
-                } catch (final IOException ex) {
-                    if (null != warning || !(ex instanceof InputException))
-                        throw handler.fail(new FsSyncException(getModel(), ex));
-                    warning = ex;
-                    handler.warn(new FsSyncWarningException(getModel(), ex));
+                    copies.add(copy);
+                    while (LOOK_AHEAD < copies.size())
+                        warning = run(copies.remove(), warning, handler);
                 }
             }
+            while (!copies.isEmpty())
+                warning = run(copies.remove(), warning, handler);
+        } finally {
+            // Never return while a prefetch thread may still be reading from
+            // the input archive because it's going to get closed next.
+            for (Copy copy; null != (copy = copies.poll()); )
+                copy.cancel();
+        }
+    }
+
+    /**
+     * Runs the given copy operation and returns the warning to use for
+     * subsequent copy operations.
+     * The first {@link InputException} gets reported as a warning, any other
+     * {@link IOException} fails the synchronization.
+     */
+    private IOException run(
+            final Copy copy,
+            final IOException warning,
+            final FsSyncExceptionBuilder handler)
+    throws FsSyncException {
+        try {
+            copy.run();
+            return warning;
+        } catch (final IOException ex) {
+            if (null != warning || !(ex instanceof InputException))
+                throw handler.fail(new FsSyncException(getModel(), ex));
+            handler.warn(new FsSyncWarningException(getModel(), ex));
+            return ex;
         }
     }
 
@@ -529,9 +658,80 @@ implements FsArchiveFileSystem.TouchListener {
             setOutputArchive(null);
         }
         setFileSystem(null);
+        deleted = false;
+        appending = false;
         if (options.get(ABORT_CHANGES)) setMounted(false);
     }
 
+    /**
+     * Writes an entry to the output archive when it's its turn.
+     * If the input entry gets copied, then its data may get read ahead by a
+     * pooled background thread.
+     */
+    private static final class Copy {
+        final OutputSocket<?> output;
+        final PrefetchingCopy copy;
+
+        /**
+         * @param input the input socket or {@code null} if an empty entry
+         *        should get written.
+         * @param output the output socket.
+         */
+        Copy(final InputSocket<?> input, final OutputSocket<?> output) {
+            this.output = output;
+            this.copy = null == input ? null : new PrefetchingCopy(input, output);
+        }
+
+        /**
+         * Starts reading the data of the given input entry ahead if its size
+         * is known and small enough.
+         */
+        void prefetch(final Entry entry) {
+            final long storage = entry.getSize(Size.STORAGE);
+            final long data = entry.getSize(DATA);
+            if (0 >= storage || PREFETCH_SIZE < storage
+                    || 0 >= data || PREFETCH_SIZE < data)
+                return;
+            copy.prefetch(PrefetchThreads.executor,
+                    (int) Math.max(storage, data));
+        }
+
+        void run() throws IOException {
+            if (null == copy)
+                output.newOutputStream().close();
+            else
+                copy.run();
+        }
+
+        void cancel() {
+            if (null != copy)
+                copy.cancel();
+        }
+    } // Copy
+
+    /** Holds the executor service for prefetching input entries. */
+    private static final class PrefetchThreads {
+        static final ExecutorService executor
+                = Executors.newCachedThreadPool(new PrefetchThreadFactory());
+    } // PrefetchThreads
+
+    /** A factory for prefetch threads. */
+    private static final class PrefetchThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new PrefetchThread(r);
+        }
+    } // PrefetchThreadFactory
+
+    /** A pooled and cached daemon thread which reads input entries ahead. */
+    private static final class PrefetchThread extends Thread {
+        PrefetchThread(Runnable r) {
+            super(ThreadGroups.getServerThreadGroup(), r,
+                    PrefetchThread.class.getName());
+            setDaemon(true);
+        }
+    } // PrefetchThread
+
     /**
      * A dummy input archive to substitute for {@code null} when copying.
      *
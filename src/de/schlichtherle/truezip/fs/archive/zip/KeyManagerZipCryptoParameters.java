@@ -22,6 +22,17 @@ import static libtruezip.lcrypto.crypto.PBEParametersGenerator.PKCS5PasswordToBy
  * {@link KeyManagerProvider}.
  * <p>
  * The current implementation supports only {@link WinZipAesParameters}.
+ * <p>
+ * The keys derived from the passwords for WinZip AES entries get cached by a
+ * {@link WinZipAesKeyCache} which is shared by all instances of this class,
+ * so that reading an entry again does not repeat the key derivation.
+ * The maximum number of cached keys is given by the system property
+ * {@code de.schlichtherle.truezip.fs.archive.zip.KeyManagerZipCryptoParameters.keyCacheSize},
+ * which defaults to 256.
+ * If the system property
+ * {@code de.schlichtherle.truezip.fs.archive.zip.KeyManagerZipCryptoParameters.prefetchKeys}
+ * is {@code true}, then the key for the next entry to write gets derived in
+ * the background.
  *
  * @since  TrueZIP 7.3
  * @author Christian Schlichtherle
@@ -110,6 +121,20 @@ implements ZipParametersProvider, ZipCryptoParameters {
         return PKCS5PasswordToBytes(characters);
     }
 
+    /**
+     * Returns the cache for the keys derived from the passwords for WinZip
+     * AES entries or {@code null} if the keys should not get cached.
+     * <p>
+     * The implementation in the class {@code KeyManagerZipCryptoParameters}
+     * returns a cache which is shared by all instances of this class.
+     *
+     * @return The cache for the keys derived from the passwords for WinZip
+     *         AES entries or {@code null}.
+     */
+    protected WinZipAesKeyCache keyCache() {
+        return KeyCache.INSTANCE;
+    }
+
     private <K> KeyManager<K> keyManager(Class<K> type) {
         return driver.getKeyManagerProvider().get(type);
     }
@@ -122,10 +147,18 @@ implements ZipParametersProvider, ZipCryptoParameters {
      * Adapts a {@code KeyProvider} for {@link  AesPbeParameters} obtained
      * from the {@link #keyManager} to {@code WinZipAesParameters}.
      */
-    private class WinZipAes implements WinZipAesParameters {
+    private class WinZipAes
+    implements WinZipAesParameters, ZipParametersProvider {
         final KeyManager<AesPbeParameters>
                 manager = keyManager(AesPbeParameters.class);
 
+        @Override
+        public <P extends ZipParameters> P get(Class<P> type) {
+            if (type.isAssignableFrom(WinZipAesKeyCache.class))
+                return type.cast(keyCache());
+            return null;
+        }
+
         @Override
         public byte[] getWritePassword(final String name)
         throws ZipKeyException {
@@ -178,4 +211,13 @@ implements ZipParametersProvider, ZipCryptoParameters {
             provider.setKey(param);
         }
     } // WinZipAes
+
+    /** Holds the shared cache for derived keys. */
+    private static final class KeyCache {
+        static final WinZipAesKeyCache INSTANCE = new WinZipAesKeyCache(
+                Integer.getInteger(KeyManagerZipCryptoParameters.class.getName()
+                    + ".keyCacheSize", 256),
+                Boolean.getBoolean(KeyManagerZipCryptoParameters.class.getName()
+                    + ".prefetchKeys"));
+    } // KeyCache
 }
@@ -22,6 +22,7 @@ import de.schlichtherle.truezip.util.HashMaps;
 import de.schlichtherle.truezip.zip.*;
 import static de.schlichtherle.truezip.zip.ZipEntry.*;
 import java.io.CharConversionException;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
@@ -64,6 +65,15 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
      * The character set for entry names and comments in &quot;traditional&quot;
      * ZIP files, which is {@code "IBM437"}.
      */
+    /**
+     * Whether or not updates get appended to ZIP files even if
+     * {@link FsOutputOption#GROW} is not set.
+     *
+     * @see #isAppendable
+     */
+    private static final boolean APPEND_UPDATES = Boolean.getBoolean(
+            ZipDriver.class.getName() + ".append");
+
     private static final Charset ZIP_CHARSET = ZipCharsetProvider.SINGLETON.charsetForName("IBM437");
 
     private final IOPool<?> ioPool;
@@ -220,6 +230,54 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
         return true;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @return The implementation in the class {@link ZipDriver} returns
+     *         {@code true} if and only if the estimated number of
+     *         {@link ZipInputShop#getRedundantLength() redundant bytes} in
+     *         the given input archive exceeds the
+     *         {@link #getCompactionThreshold() compaction threshold} times its
+     *         length.
+     */
+    @Override
+    public boolean needsCompaction(final InputShop<ZipDriverEntry> input)
+    throws IOException {
+        final ZipInputShop zis = (ZipInputShop) input;
+        final long length = zis.length();
+        return 0 < length
+                && getCompactionThreshold() * length < zis.getRedundantLength();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return The implementation in the class {@link ZipDriver} returns
+     *         {@code true} if and only if the system property
+     *         {@code de.schlichtherle.truezip.fs.archive.zip.ZipDriver.append}
+     *         is set to {@code true}.
+     */
+    @Override
+    public boolean isAppendable(InputShop<ZipDriverEntry> input)
+    throws IOException {
+        return APPEND_UPDATES;
+    }
+
+    /**
+     * Returns the ratio of redundant bytes to the length of a ZIP file which
+     * must get exceeded before the ZIP file gets compacted rather than
+     * appended to when it gets updated with {@link FsOutputOption#GROW}.
+     * A ratio of one or greater disables compaction.
+     * <p>
+     * The implementation in the class {@link ZipDriver} returns {@code 0.5}.
+     *
+     * @return The compaction threshold.
+     * @see    #needsCompaction
+     */
+    public double getCompactionThreshold() {
+        return .5;
+    }
+
     /**
      * Whether or not the content of the given entry shall get
      * checked/authenticated when reading it.
@@ -307,6 +365,19 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The implementation in the class {@link ZipDriver}
+     * returns {@code false}.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean getLazyMount() {
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -481,12 +552,64 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The implementation in the class {@link ZipDriver} returns
+     * {@code true} if and only if the given input shop is a
+     * {@link ZipInputShop} which reads from a read only file which supports
+     * positional reads.
+     * This is usually not the case for archive files which are nested in
+     * other archive files.
+     *
+     * @see ZipInputShop#isConcurrentlyReadable()
+     */
+    @Override
+    public boolean isConcurrentlyReadable(InputShop<ZipDriverEntry> input) {
+        return input instanceof ZipInputShop
+                && ((ZipInputShop) input).isConcurrentlyReadable();
+    }
+
+    /**
+     * Returns the nullable cache for the indexes of the central directories
+     * of top level archive files.
+     * If this is not {@code null}, then the central directory of a top level
+     * archive file gets mounted lazily from a valid index in the cache or
+     * gets mounted lazily and stored in the cache.
+     * This requires the entry names to be preserved, see
+     * {@link ZipFileParameters#getLazyMount()}.
+     * Archive files which are nested in other archive files do not get
+     * cached.
+     * <p>
+     * The implementation in the class {@link ZipDriver} returns
+     * {@code null}.
+     *
+     * @return {@code null}
+     */
+    public ZipIndexCache getIndexCache() {
+        return null;
+    }
+
+    /**
+     * Returns a new input shop for reading the given read only file.
+     * If the {@linkplain #getIndexCache() index cache} is not {@code null}
+     * and the given model is for a top level archive file, then the
+     * implementation in the class {@link ZipDriver} uses it for mounting the
+     * central directory.
+     *
+     * @param  model the file system model.
+     * @param  rof the read only file for the archive file.
+     * @return A new input shop for reading the given read only file.
+     * @throws IOException on any I/O error.
+     */
     protected InputShop<ZipDriverEntry> newInputShop(
             FsModel model,
             ReadOnlyFile rof)
     throws IOException {
         assert null != model;
-        final ZipInputShop input = new ZipInputShop(this, model, rof);
+        final ZipIndexCache cache = getIndexCache();
+        final File file = null != cache ? topLevelFile(model) : null;
+        final ZipInputShop input = new ZipInputShop(this, model, rof, file, cache);
         try {
             input.recoverLostEntries();
         } catch (final IOException ex) {
@@ -500,6 +623,18 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
         return input;
     }
 
+    /**
+     * Returns the file for the given model if it's a top level archive file
+     * in the platform file system or {@code null} otherwise.
+     */
+    private static File topLevelFile(final FsModel model) {
+        final FsPath path = model.getMountPoint().getPath();
+        if (null == path)
+            return null;
+        final URI uri = path.toUri();
+        return "file".equals(uri.getScheme()) ? new File(uri) : null;
+    }
+
     /**
      * This implementation modifies {@code options} in the following way before
      * it forwards the call to {@code controller}:
@@ -532,11 +667,39 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
                 options);
     }
 
+    /**
+     * Equivalent to
+     * {@link #newOutputShop(FsModel, OutputSocket, InputShop, boolean)
+     * newOutputShop(model, output, source, false)}.
+     */
+    @Override
+    public final OutputShop<ZipDriverEntry> newOutputShop(
+            final FsModel model,
+            final OutputSocket<?> output,
+            final InputShop<ZipDriverEntry> source)
+    throws IOException {
+        return newOutputShop(model, output, source, false);
+    }
+
     /**
      * This implementation first checks if {@link FsOutputOption#GROW} is set
      * for the given {@code output} socket.
      * If this is the case and the given {@code source} is not {@code null},
      * then it's marked for appending to it.
+     * Otherwise, if {@code compact} is {@code true}, then the source is
+     * marked as a {@link ZipInputShop#isCompactee() compactee}, so that its
+     * preamble gets dropped if it's
+     * {@link ZipInputShop#isPreambleRedundant() redundant}, i.e. if it starts
+     * with a Local File Header.
+     * Such a preamble is expected to consist of entries which have been
+     * superseded by appending to the archive file.
+     * Note that this also drops any other ZIP file which has been
+     * concatenated in front of the archive file.
+     * A preamble which does not start with a Local File Header, e.g. a self
+     * extracting executable, always gets retained.
+     * Likewise, a preamble always gets retained by a full update which is
+     * not a compaction.
+     * <p>
      * Then, an output stream is acquired from the given {@code output} socket
      * and the parameters are forwarded to {@link #newOutputShop(FsModel, OptionOutputSocket, ZipInputShop)}
      * and the result gets wrapped in a new {@link MultiplexedOutputShop}
@@ -546,24 +709,30 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
     public final OutputShop<ZipDriverEntry> newOutputShop(
             final FsModel model,
             final OutputSocket<?> output,
-            final InputShop<ZipDriverEntry> source)
+            final InputShop<ZipDriverEntry> source,
+            final boolean compact)
     throws IOException {
         if (null == model)
             throw new NullPointerException();
         return newOutputShop0(
                 model,
                 (OptionOutputSocket) output,
-                (ZipInputShop) source);
+                (ZipInputShop) source,
+                compact);
     }
 
     private OutputShop<ZipDriverEntry> newOutputShop0(
             final FsModel model,
             final OptionOutputSocket output,
-            final ZipInputShop source)
+            final ZipInputShop source,
+            final boolean compact)
     throws IOException {
         final BitField<FsOutputOption> options = output.getOptions();
-        if (null != source)
-            source.setAppendee(options.get(GROW));
+        if (null != source) {
+            final boolean grow = options.get(GROW);
+            source.setAppendee(grow);
+            source.setCompactee(!grow && compact);
+        }
         return newOutputShop(model, output, source);
     }
 
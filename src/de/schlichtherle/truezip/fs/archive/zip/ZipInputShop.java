@@ -11,6 +11,8 @@ import de.schlichtherle.truezip.socket.InputShop;
 import de.schlichtherle.truezip.socket.InputSocket;
 import de.schlichtherle.truezip.zip.RawZipFile;
 import de.schlichtherle.truezip.zip.ZipCryptoParameters;
+import de.schlichtherle.truezip.zip.ZipIndexCache;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,14 +30,37 @@ implements InputShop<ZipDriverEntry> {
     private final ZipDriver driver;
     private final FsModel model;
     private boolean appendee;
+    private boolean compactee;
     private ZipCryptoParameters param;
 
+    public ZipInputShop(
+            ZipDriver driver,
+            FsModel model,
+            ReadOnlyFile rof)
+    throws IOException {
+        this(driver, model, rof, null, null);
+    }
+
+    /**
+     * Constructs a new ZIP input shop which mounts the central directory
+     * lazily from the given cache if {@code file} and {@code cache} are not
+     * {@code null}.
+     *
+     * @param driver the ZIP driver.
+     * @param model the file system model.
+     * @param rof the read only file for the ZIP file.
+     * @param file the nullable file which {@code rof} reads.
+     * @param cache the nullable cache for the index of the central
+     *        directory.
+     */
     public ZipInputShop(
             final ZipDriver driver,
             final FsModel model,
-            final ReadOnlyFile rof)
+            final ReadOnlyFile rof,
+            final File file,
+            final ZipIndexCache cache)
     throws IOException {
-        super(rof, driver);
+        super(rof, driver, file, cache);
         this.driver = driver;
         if (null == (this.model = model)) {
             final NullPointerException ex = new NullPointerException();
@@ -90,6 +115,30 @@ implements InputShop<ZipDriverEntry> {
         this.appendee = appendee;
     }
 
+    /**
+     * Returns {@code true} if and only if the target archive file gets
+     * compacted because it contains too much redundant data.
+     * In this case, a {@link #isPreambleRedundant() redundant} preamble does
+     * not get retained.
+     *
+     * @return {@code true} if and only if the target archive file gets
+     *         compacted.
+     * @see    ZipDriver#newOutputShop(FsModel, de.schlichtherle.truezip.socket.OutputSocket, InputShop, boolean)
+     */
+    protected boolean isCompactee() {
+        return compactee;
+    }
+
+    /**
+     * Indicates whether or not the target archive file gets compacted.
+     *
+     * @param compactee {@code true} if and only if the target archive file
+     *        gets compacted.
+     */
+    final void setCompactee(boolean compactee) {
+        this.compactee = compactee;
+    }
+
     @Override
     public int getSize() {
         return super.size();
@@ -113,7 +162,10 @@ implements InputShop<ZipDriverEntry> {
 
             @Override
             public ReadOnlyFile newReadOnlyFile() throws IOException {
-                throw new UnsupportedOperationException(); // TODO: Support this feature for STORED entries.
+                final ZipDriverEntry local = getLocalTarget();
+                return getReadOnlyFile(
+                        local.getName(),
+                        driver.check(ZipInputShop.this, local));
             }
 
             @Override
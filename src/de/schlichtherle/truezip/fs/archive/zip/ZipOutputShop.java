@@ -55,9 +55,13 @@ implements OutputShop<ZipDriverEntry> {
         this.model = model;
         if (null != source) {
             if (!source.isAppendee()) {
-                // Retain comment and preamble of input ZIP archive.
+                // Retain comment and preamble of input ZIP archive unless
+                // it gets compacted and the preamble just consists of
+                // superseded entries.
                 super.setComment(source.getComment());
-                if (0 < source.getPreambleLength()) {
+                if (0 < source.getPreambleLength()
+                        && !(source.isCompactee()
+                            && source.isPreambleRedundant())) {
                     final InputStream in = source.getPreambleInputStream();
                     try {
                         Streams.cat(in,
@@ -214,6 +214,28 @@ public abstract class ZipRaesDriver extends JarDriver {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @return {@code false} because the RAES file format cannot support
+     *         GROWing, so it always gets compacted anyway.
+     */
+    @Override
+    public boolean needsCompaction(InputShop<ZipDriverEntry> input) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return {@code false} because the RAES file format cannot support
+     *         appending.
+     */
+    @Override
+    public boolean isAppendable(InputShop<ZipDriverEntry> input) {
+        return false;
+    }
+
     /**
      * Sets {@link FsOutputOption#STORE} in {@code options} before
      * forwarding the call to {@code controller}.
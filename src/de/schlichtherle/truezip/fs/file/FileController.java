@@ -35,9 +35,15 @@ final class FileController extends FsAbstractController<FsModel>  {
     private static final String TWO_SEPARATORS = SEPARATOR + SEPARATOR;
 
     private final File target;
+    private final boolean mapped, positional;
 
-    FileController(final FsModel model) {
+    FileController(
+            final FsModel model,
+            final boolean mapped,
+            final boolean positional) {
         super(model);
+        this.mapped = mapped;
+        this.positional = positional;
         if (null != model.getParent()) throw new IllegalArgumentException();
         URI uri = model.getMountPoint().toUri();
         if ('\\' == separatorChar && null != uri.getRawAuthority()) {
@@ -136,7 +142,7 @@ final class FileController extends FsAbstractController<FsModel>  {
     public InputSocket<?> getInputSocket(
             FsEntryName name,
             BitField<FsInputOption> options) {
-        return new FileEntry(target, name).getInputSocket();
+        return new FileEntry(target, name).getInputSocket(mapped, positional);
     }
 
     @Override
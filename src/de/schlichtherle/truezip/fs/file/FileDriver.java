@@ -15,11 +15,58 @@ import de.schlichtherle.truezip.fs.FsModel;
  */
 public final class FileDriver extends FsDriver {
 
+    private final boolean mapped, positional;
+
+    /**
+     * Constructs a new file driver which provides
+     * {@link de.schlichtherle.truezip.rof.DefaultReadOnlyFile}s for random
+     * read access to files.
+     */
+    public FileDriver() {
+        this(false);
+    }
+
+    /**
+     * Constructs a new file driver.
+     *
+     * @param mapped whether or not random read access to files shall be
+     *        provided by
+     *        {@link de.schlichtherle.truezip.rof.MappedReadOnlyFile}s rather
+     *        than {@link de.schlichtherle.truezip.rof.DefaultReadOnlyFile}s.
+     *        Memory mapping avoids system calls when mounting and reading
+     *        large archive files, but may prevent them from getting updated
+     *        or deleted on some platforms until the mapped memory has been
+     *        garbage collected.
+     */
+    public FileDriver(boolean mapped) {
+        this(mapped, false);
+    }
+
+    /**
+     * Constructs a new file driver.
+     *
+     * @param mapped whether or not random read access to files shall be
+     *        provided by
+     *        {@link de.schlichtherle.truezip.rof.MappedReadOnlyFile}s.
+     *        See {@link #FileDriver(boolean)}.
+     * @param positional whether or not random read access to files which are
+     *        not mapped shall be provided by
+     *        {@link de.schlichtherle.truezip.rof.ChannelReadOnlyFile}s rather
+     *        than {@link de.schlichtherle.truezip.rof.DefaultReadOnlyFile}s.
+     *        Positional reads enable multiple threads to read the entries of
+     *        an archive file concurrently, but interrupting any thread which
+     *        is blocked in a read closes the file for all other threads.
+     */
+    public FileDriver(final boolean mapped, final boolean positional) {
+        this.mapped = mapped;
+        this.positional = positional;
+    }
+
     @Override
     public FsController<?> newController(
             final FsModel model,
             final FsController<?> parent) {
         assert null == parent;
-        return new FileController(model);
+        return new FileController(model, mapped, positional);
     }
 }
@@ -127,7 +127,13 @@ implements IOEntry<FileEntry>, Releasable<IOException> {
 
     @Override
     public final InputSocket<FileEntry> getInputSocket() {
-        return new FileInputSocket(this);
+        return getInputSocket(false, false);
+    }
+
+    final InputSocket<FileEntry> getInputSocket(
+            boolean mapped,
+            boolean positional) {
+        return new FileInputSocket(this, mapped, positional);
     }
 
     @Override
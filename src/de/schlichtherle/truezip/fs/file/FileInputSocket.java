@@ -4,7 +4,9 @@
  */
 package de.schlichtherle.truezip.fs.file;
 
+import de.schlichtherle.truezip.rof.ChannelReadOnlyFile;
 import de.schlichtherle.truezip.rof.DefaultReadOnlyFile;
+import de.schlichtherle.truezip.rof.MappedReadOnlyFile;
 import de.schlichtherle.truezip.rof.ReadOnlyFile;
 import de.schlichtherle.truezip.socket.InputSocket;
 import java.io.FileInputStream;
@@ -20,10 +22,16 @@ import java.io.InputStream;
 final class FileInputSocket extends InputSocket<FileEntry> {
 
     private final FileEntry entry;
+    private final boolean mapped, positional;
 
-    FileInputSocket(final FileEntry entry) {
+    FileInputSocket(
+            final FileEntry entry,
+            final boolean mapped,
+            final boolean positional) {
         assert null != entry;
         this.entry = entry;
+        this.mapped = mapped;
+        this.positional = positional;
     }
 
     @Override
@@ -33,7 +41,11 @@ final class FileInputSocket extends InputSocket<FileEntry> {
 
     @Override
     public ReadOnlyFile newReadOnlyFile() throws IOException {
-        return new DefaultReadOnlyFile(entry.getFile());
+        return mapped
+                ? new MappedReadOnlyFile(entry.getFile())
+                : positional
+                    ? new ChannelReadOnlyFile(entry.getFile())
+                    : new DefaultReadOnlyFile(entry.getFile());
     }
 
     @Override
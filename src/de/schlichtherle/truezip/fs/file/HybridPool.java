@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.fs.file;
+
+import static de.schlichtherle.truezip.entry.Entry.Access.WRITE;
+import de.schlichtherle.truezip.rof.ByteArrayReadOnlyFile;
+import de.schlichtherle.truezip.rof.ReadOnlyFile;
+import de.schlichtherle.truezip.socket.IOPool;
+import de.schlichtherle.truezip.socket.InputSocket;
+import de.schlichtherle.truezip.socket.OutputSocket;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This I/O pool keeps small I/O buffers in memory and transparently spills
+ * them to temporary files when they grow too big.
+ * An I/O buffer gets kept in a byte array as long as its size does not
+ * exceed the threshold and the total size of all byte arrays allocated by
+ * this pool does not exceed the memory budget.
+ * Otherwise, its contents get copied to a temporary file which is then used
+ * for all subsequent I/O.
+ * <p>
+ * This pool gets used by the {@link HybridPoolService}.
+ * Its threshold and memory budget may get configured by the system
+ * properties {@code de.schlichtherle.truezip.fs.file.HybridPool.threshold}
+ * and {@code de.schlichtherle.truezip.fs.file.HybridPool.budget}.
+ * The defaults are 64 KiB and a sixteenth of the maximum heap size.
+ * <p>
+ * The buffers are tracked by phantom references:
+ * If a buffer gets garbage collected without having been released, then its
+ * memory gets returned to the budget upon the next allocation.
+ * Its temporary file, if any, gets recycled or deleted by the
+ * {@link TempFilePool} in the same way.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class HybridPool implements IOPool<HybridPool.Buffer> {
+
+    /** The initial capacity of the byte array of an I/O buffer. */
+    private static final int INITIAL_CAPACITY = 512;
+
+    /** The default instance of this pool. */
+    static final HybridPool INSTANCE = new HybridPool(
+            Long.getLong(HybridPool.class.getName() + ".budget",
+                Runtime.getRuntime().maxMemory() / 16),
+            Integer.getInteger(HybridPool.class.getName() + ".threshold",
+                64 * 1024),
+            TempFilePool.INSTANCE);
+
+    private final long budget;
+    private final int threshold;
+    private final TempFilePool spill;
+
+    /** The total capacity of all byte arrays allocated by this pool. */
+    private final AtomicLong usage = new AtomicLong();
+
+    private final AtomicLong
+            memoryBytes = new AtomicLong(),
+            spilledBytes = new AtomicLong();
+
+    /** The references to all allocated and unreleased buffers. */
+    private final Set<BufferReference> live = Collections.newSetFromMap(
+            new ConcurrentHashMap<BufferReference, Boolean>());
+
+    /** The queue for buffers which have not been released. */
+    private final ReferenceQueue<Buffer> queue = new ReferenceQueue<Buffer>();
+
+    /**
+     * Constructs a new hybrid pool which spills to temporary files in the
+     * default temp file directory.
+     *
+     * @param  budget the maximum total number of bytes to keep in memory.
+     * @param  threshold the maximum number of bytes to keep in memory per
+     *         I/O buffer.
+     * @throws IllegalArgumentException if any parameter is negative.
+     */
+    public HybridPool(long budget, int threshold) {
+        this(budget, threshold, TempFilePool.INSTANCE);
+    }
+
+    private HybridPool(
+            final long budget,
+            final int threshold,
+            final TempFilePool spill) {
+        if (0 > budget || 0 > threshold)
+            throw new IllegalArgumentException();
+        this.budget = budget;
+        this.threshold = threshold;
+        this.spill = spill;
+    }
+
+    /** Returns the maximum total number of bytes to keep in memory. */
+    public long getBudget() {
+        return budget;
+    }
+
+    /** Returns the maximum number of bytes to keep in memory per I/O buffer. */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the total number of bytes currently allocated for I/O buffers
+     * in memory.
+     */
+    public long getMemoryUsage() {
+        expunge();
+        return usage.get();
+    }
+
+    /**
+     * Returns the total number of bytes which have been written to I/O
+     * buffers which have been kept in memory.
+     */
+    public long getMemoryBytes() {
+        return memoryBytes.get();
+    }
+
+    /**
+     * Returns the total number of bytes which have been written to I/O
+     * buffers which have been spilled to temporary files.
+     */
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    /**
+     * Reserves the given number of bytes from the memory budget.
+     *
+     * @return {@code true} if and only if the bytes have been reserved.
+     */
+    private boolean reserve(final int bytes) {
+        while (true) {
+            final long usage = this.usage.get();
+            if (budget - usage < bytes)
+                return false;
+            if (this.usage.compareAndSet(usage, usage + bytes))
+                return true;
+        }
+    }
+
+    private void free(final int bytes) {
+        usage.addAndGet(-bytes);
+    }
+
+    @Override
+    public Buffer allocate() {
+        expunge();
+        final Buffer buffer = new Buffer();
+        live.add(buffer.reference);
+        return buffer;
+    }
+
+    /**
+     * Returns the memory of all buffers which have been garbage collected
+     * without having been released to the budget.
+     */
+    private void expunge() {
+        for (Reference<? extends Buffer> ref; null != (ref = queue.poll()); ) {
+            final BufferReference br = (BufferReference) ref;
+            if (live.remove(br))
+                free(br.reserved);
+        }
+    }
+
+    @Override
+    public void release(Entry<Buffer> resource) throws IOException {
+        resource.release();
+    }
+
+    /** A hybrid pool entry. */
+    final class Buffer implements Entry<Buffer> {
+
+        /** The contents if kept in memory or {@code null} if empty. */
+        private byte[] data;
+
+        /** The number of valid bytes in {@link #data}. */
+        private int size;
+
+        /** The temporary file if spilled or {@code null} otherwise. */
+        private IOPool.Entry<FileEntry> file;
+
+        private long time = UNKNOWN;
+
+        private boolean released;
+
+        final BufferReference reference;
+
+        Buffer() {
+            this.reference = new BufferReference(this, queue);
+        }
+
+        @Override
+        public synchronized String getName() {
+            return null != file ? file.getName() : "(memory)";
+        }
+
+        @Override
+        public synchronized long getSize(final Size type) {
+            return null != file ? file.getSize(type) : size;
+        }
+
+        @Override
+        public synchronized long getTime(final Access type) {
+            if (null != file)
+                return file.getTime(type);
+            return WRITE == type ? time : UNKNOWN;
+        }
+
+        @Override
+        public InputSocket<Buffer> getInputSocket() {
+            return new Input();
+        }
+
+        @Override
+        public OutputSocket<Buffer> getOutputSocket() {
+            return new Output();
+        }
+
+        /** Discards the contents of this buffer. */
+        private void reset() throws IOException {
+            assert Thread.holdsLock(this);
+            freeData();
+            size = 0;
+            time = UNKNOWN;
+            final IOPool.Entry<FileEntry> file = this.file;
+            if (null != file) {
+                this.file = null;
+                file.release();
+            }
+        }
+
+        /** Discards the byte array and returns its memory to the budget. */
+        private void freeData() {
+            assert Thread.holdsLock(this);
+            if (null != data) {
+                free(data.length);
+                data = null;
+                reference.reserved = 0;
+            }
+        }
+
+        @Override
+        public synchronized void release() throws IOException {
+            if (released)
+                return;
+            released = true;
+            reference.clear();
+            live.remove(reference);
+            reset();
+        }
+
+        private final class Input extends InputSocket<Buffer> {
+            @Override
+            public Buffer getLocalTarget() {
+                return Buffer.this;
+            }
+
+            @Override
+            public ReadOnlyFile newReadOnlyFile() throws IOException {
+                synchronized (Buffer.this) {
+                    if (null != file)
+                        return file.getInputSocket().newReadOnlyFile();
+                    return new ByteArrayReadOnlyFile(array(), 0, size);
+                }
+            }
+
+            @Override
+            public InputStream newInputStream() throws IOException {
+                synchronized (Buffer.this) {
+                    if (null != file)
+                        return file.getInputSocket().newInputStream();
+                    return new ByteArrayInputStream(array(), 0, size);
+                }
+            }
+
+            private byte[] array() {
+                return null != data ? data : new byte[0];
+            }
+        } // Input
+
+        private final class Output extends OutputSocket<Buffer> {
+            @Override
+            public Buffer getLocalTarget() {
+                return Buffer.this;
+            }
+
+            @Override
+            public OutputStream newOutputStream() throws IOException {
+                synchronized (Buffer.this) {
+                    if (released)
+                        throw new IOException("Buffer has been released!");
+                    reset();
+                    return new BufferOutputStream();
+                }
+            }
+        } // Output
+
+        /**
+         * Writes to the byte array of the buffer until it would exceed the
+         * threshold or the memory budget and then spills to a temporary file.
+         */
+        private final class BufferOutputStream extends OutputStream {
+            /** The output stream for the temporary file if spilled. */
+            private OutputStream out;
+
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+                synchronized (Buffer.this) {
+                    if (closed)
+                        throw new IOException("Output stream has been closed!");
+                    if (null == out && !ensureCapacity(size + len))
+                        spill();
+                    if (null != out) {
+                        out.write(b, off, len);
+                    } else {
+                        System.arraycopy(b, off, data, size, len);
+                        size += len;
+                    }
+                }
+            }
+
+            /**
+             * Ensures that the byte array can hold the given number of bytes.
+             *
+             * @return {@code false} if this would exceed the threshold or the
+             *         memory budget.
+             */
+            private boolean ensureCapacity(final int required) {
+                final int capacity = null == data ? 0 : data.length;
+                if (required <= capacity)
+                    return true;
+                if (threshold < required || 0 > required)
+                    return false;
+                final int newCapacity = Math.min(threshold, Math.max(
+                        Math.max(INITIAL_CAPACITY, required), capacity << 1));
+                if (!reserve(newCapacity - capacity))
+                    return false;
+                final byte[] newData = new byte[newCapacity];
+                if (0 < size)
+                    System.arraycopy(data, 0, newData, 0, size);
+                data = newData;
+                reference.reserved = newCapacity;
+                return true;
+            }
+
+            /** Copies the contents to a new temporary file. */
+            private void spill() throws IOException {
+                final IOPool.Entry<FileEntry> file = spill.allocate();
+                final OutputStream out;
+                try {
+                    out = file.getOutputSocket().newOutputStream();
+                    try {
+                        if (0 < size)
+                            out.write(data, 0, size);
+                    } catch (final IOException ex) {
+                        out.close();
+                        throw ex;
+                    }
+                } catch (final IOException ex) {
+                    file.release();
+                    throw ex;
+                }
+                freeData();
+                size = 0;
+                Buffer.this.file = file;
+                this.out = out;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                synchronized (Buffer.this) {
+                    if (null != out)
+                        out.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                synchronized (Buffer.this) {
+                    if (closed)
+                        return;
+                    closed = true;
+                    if (null != out) {
+                        out.close();
+                        spilledBytes.addAndGet(file.getSize(Size.DATA));
+                    } else {
+                        time = System.currentTimeMillis();
+                        memoryBytes.addAndGet(size);
+                    }
+                }
+            }
+        } // BufferOutputStream
+    } // Buffer
+
+    /**
+     * A phantom reference to a buffer which remembers the number of bytes
+     * it has reserved from the memory budget, so that they can get returned
+     * if the buffer has not been released.
+     */
+    private static final class BufferReference
+    extends PhantomReference<Buffer> {
+        /** The capacity of the byte array of the buffer. */
+        volatile int reserved;
+
+        BufferReference(
+                final Buffer buffer,
+                final ReferenceQueue<? super Buffer> queue) {
+            super(buffer, queue);
+        }
+    } // BufferReference
+}
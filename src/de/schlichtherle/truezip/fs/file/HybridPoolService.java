@@ -0,0 +1,24 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.fs.file;
+
+import de.schlichtherle.truezip.socket.IOPool;
+import de.schlichtherle.truezip.socket.spi.IOPoolService;
+
+/**
+ * Contains the default instance of the {@link HybridPool}.
+ * In order to use this service, set the system property
+ * {@code de.schlichtherle.truezip.socket.spi.IOPoolService} to the name of
+ * this class.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class HybridPoolService extends IOPoolService {
+
+    @Override
+    public IOPool<?> get() {
+        return HybridPool.INSTANCE;
+    }
+}
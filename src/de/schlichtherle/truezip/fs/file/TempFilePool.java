@@ -6,39 +6,142 @@ package de.schlichtherle.truezip.fs.file;
 
 import de.schlichtherle.truezip.socket.IOPool;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This I/O pool creates and deletes temporary files as {@link FileEntry}s.
+ * <p>
+ * Optionally, this pool recycles its temporary files:
+ * When a buffer gets released, its temporary file gets truncated and kept
+ * for reuse by the next allocation rather than getting deleted, up to a
+ * maximum number of free files.
+ * This saves creating and deleting a temporary file per buffer.
+ * The free files get deleted when the JVM shuts down.
+ * The default instance of this pool recycles up to the number of temporary
+ * files given by the system property
+ * {@code de.schlichtherle.truezip.fs.file.TempFilePool.maxFree}, which
+ * defaults to 16.
+ * <p>
+ * The buffers of all pools are tracked by phantom references in a shared
+ * queue:
+ * If a buffer gets garbage collected without having been released, then its
+ * temporary file gets recycled or deleted upon the next allocation from any
+ * pool, even if its own pool has been garbage collected meanwhile.
+ * The temporary files of any unreleased buffers get deleted when the JVM
+ * shuts down.
  *
  * @author Christian Schlichtherle
  */
-final class TempFilePool implements IOPool<FileEntry> {
+public final class TempFilePool implements IOPool<FileEntry> {
+
+    /** The references to all allocated and unreleased buffers. */
+    private static final Set<BufferReference> live = Collections.newSetFromMap(
+            new ConcurrentHashMap<BufferReference, Boolean>());
+
+    /** The queue for buffers which have not been released. */
+    private static final ReferenceQueue<Buffer> queue
+            = new ReferenceQueue<Buffer>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new LiveCleaner());
+    }
 
     /**
      * A default instance of this pool.
      * Use this if you don't have special requirements regarding the temp file
      * prefix, suffix or directory.
      */
-    static final TempFilePool INSTANCE = new TempFilePool(null, null);
+    static final TempFilePool INSTANCE = new TempFilePool(null, null,
+            Integer.getInteger(TempFilePool.class.getName() + ".maxFree", 16));
 
     private final File dir;
     private final String prefix;
 
+    /** The maximum number of free temporary files to keep for reuse. */
+    private final int maxFree;
+
+    /** The free temporary files for reuse. */
+    private final Queue<File> free = new ConcurrentLinkedQueue<File>();
+
+    /** The number of elements in {@link #free}. */
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    /** The number of allocated and unreleased buffers of this pool. */
+    private final AtomicInteger liveCount = new AtomicInteger();
+
+    private final AtomicInteger peak = new AtomicInteger();
+
     TempFilePool(
             final File dir,
             final String prefix) {
+        this(dir, prefix, 0);
+    }
+
+    private TempFilePool(
+            final File dir,
+            final String prefix,
+            final int maxFree) {
         this.dir = dir;
         this.prefix = null != prefix ? prefixPlusDot(prefix) : "tzp";
+        this.maxFree = maxFree;
+        if (0 < maxFree)
+            Runtime.getRuntime().addShutdownHook(new Cleaner(this));
     }
 
     private static String prefixPlusDot(String prefix) {
         return prefix.endsWith(".") ? prefix : prefix + ".";
     }
 
+    /** Returns the maximum number of free temporary files to keep for reuse. */
+    public int getMaxFree() {
+        return maxFree;
+    }
+
+    /** Returns the number of free temporary files kept for reuse. */
+    public int getFree() {
+        return freeCount.get();
+    }
+
+    /** Returns the number of allocated and unreleased buffers. */
+    public int getLive() {
+        expunge();
+        return liveCount.get();
+    }
+
+    /** Returns the peak number of allocated and unreleased buffers. */
+    public int getPeak() {
+        return peak.get();
+    }
+
     @Override
     public Buffer allocate() throws IOException {
-        return new Buffer(createTempFile(), this);
+        expunge();
+        File file;
+        do {
+            file = free.poll();
+            if (null == file) {
+                file = createTempFile();
+                break;
+            }
+            freeCount.decrementAndGet();
+        } while (!file.exists()); // e.g. deleted by a temp file cleaner
+        final Buffer buffer = new Buffer(file, this);
+        live.add(buffer.reference);
+        final int size = liveCount.incrementAndGet();
+        for (int max; size > (max = peak.get()); )
+            if (peak.compareAndSet(max, size))
+                break;
+        return buffer;
     }
 
     private File createTempFile() throws IOException {
@@ -66,35 +169,131 @@ final class TempFilePool implements IOPool<FileEntry> {
         resource.release();
     }
 
+    /**
+     * Recycles or deletes the temporary files of all buffers of all pools
+     * which have been garbage collected without having been released.
+     */
+    private static void expunge() {
+        for (Reference<? extends Buffer> ref; null != (ref = queue.poll()); ) {
+            final BufferReference br = (BufferReference) ref;
+            if (live.remove(br)) {
+                final TempFilePool pool = br.pool;
+                pool.liveCount.decrementAndGet();
+                try {
+                    pool.recycle(br.file);
+                } catch (IOException ex) {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    /**
+     * Truncates the given temporary file and keeps it for reuse or deletes it
+     * if there are enough free temporary files already.
+     */
+    private void recycle(final File file) throws IOException {
+        if (!file.exists())
+            return; // e.g. renamed by FileOutputSocket
+        if (freeCount.incrementAndGet() <= maxFree) {
+            try {
+                new FileOutputStream(file).close(); // truncate
+                free.offer(file);
+                return;
+            } catch (IOException ex) {
+                // Fall through to delete it.
+            }
+        }
+        freeCount.decrementAndGet();
+        if (!file.delete() && file.exists())
+            throw new IOException(file + " (cannot delete temporary file)");
+    }
+
+    /** Deletes all free temporary files. */
+    private void clear() {
+        for (File file; null != (file = free.poll()); ) {
+            freeCount.decrementAndGet();
+            file.delete();
+        }
+    }
+
     /** A temp file pool entry. */
-    private static final class Buffer
+    static final class Buffer
     extends FileEntry
     implements Entry<FileEntry> {
 
+        final BufferReference reference;
+
         Buffer(File file, final TempFilePool pool) {
             super(file);
             assert null != file;
             assert null != pool;
             this.pool = pool;
+            this.reference = new BufferReference(this, file, pool);
         }
 
-        @Override public void release() throws IOException { pool(null); }
-
-        private void pool(final TempFilePool newPool)
-        throws IOException {
-            final TempFilePool oldPool = this.pool;
-            this.pool = newPool;
-            if (oldPool != newPool) {
-                final File file = getFile();
-                if (!file.delete() && file.exists())
-                    throw new IOException(file + " (cannot delete temporary file)");
+        @Override
+        public synchronized void release() throws IOException {
+            final TempFilePool pool = this.pool;
+            if (null == pool)
+                return;
+            this.pool = null;
+            reference.clear();
+            if (live.remove(reference)) {
+                pool.liveCount.decrementAndGet();
+                pool.recycle(getFile());
             }
         }
+    } // Buffer
+
+    /**
+     * A phantom reference to a buffer which remembers its temporary file and
+     * pool so that the file can get recycled or deleted if the buffer has not
+     * been released.
+     */
+    private static final class BufferReference
+    extends PhantomReference<Buffer> {
+        final File file;
+        final TempFilePool pool;
+
+        BufferReference(
+                final Buffer buffer,
+                final File file,
+                final TempFilePool pool) {
+            super(buffer, queue);
+            this.file = file;
+            this.pool = pool;
+        }
+    } // BufferReference
+
+    /** Deletes the free temporary files of a pool when the JVM shuts down. */
+    private static final class Cleaner extends Thread {
+        final TempFilePool pool;
+
+        Cleaner(final TempFilePool pool) {
+            super(Cleaner.class.getName());
+            this.pool = pool;
+        }
 
         @Override
-        protected void finalize() throws Throwable {
-            try { pool(null); }
-            finally { super.finalize(); }
+        public void run() {
+            pool.clear();
         }
-    } // Buffer
+    } // Cleaner
+
+    /**
+     * Deletes the temporary files of all unreleased buffers when the JVM
+     * shuts down.
+     */
+    private static final class LiveCleaner extends Thread {
+        LiveCleaner() {
+            super(LiveCleaner.class.getName());
+        }
+
+        @Override
+        public void run() {
+            for (final BufferReference br : live)
+                br.file.delete();
+        }
+    } // LiveCleaner
 }
@@ -4,8 +4,10 @@
  */
 package de.schlichtherle.truezip.io;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 /**
  * A decorating output stream which saves the last {@link IOException}
@@ -65,4 +67,43 @@ public class IOExceptionOutputStream extends DecoratingOutputStream {
             throw exception = ex;
         }
     }
+
+    /**
+     * Returns the file channel of the decorated output stream if it is a
+     * {@link FileOutputStream} and no subclass intercepts the write methods
+     * or {@code null} otherwise.
+     * This enables {@link Streams} to transfer data directly to the file
+     * channel.
+     */
+    final FileChannel getChannel() {
+        final OutputStream delegate = this.delegate;
+        if (!(delegate instanceof FileOutputStream) || interceptsWrites())
+            return null;
+        return ((FileOutputStream) delegate).getChannel();
+    }
+
+    private boolean interceptsWrites() {
+        final Class<?> c = getClass();
+        if (IOExceptionOutputStream.class == c)
+            return false;
+        try {
+            return IOExceptionOutputStream.class != c.getMethod("write",
+                        byte[].class, int.class, int.class).getDeclaringClass()
+                    || IOExceptionOutputStream.class != c.getMethod("write",
+                        int.class).getDeclaringClass();
+        } catch (NoSuchMethodException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    /**
+     * Saves the given I/O exception which has been thrown when writing to
+     * the {@linkplain #getChannel() file channel}.
+     *
+     * @param  ex the I/O exception.
+     * @return {@code ex}
+     */
+    final IOException failed(IOException ex) {
+        return exception = ex;
+    }
 }
@@ -6,11 +6,15 @@ package de.schlichtherle.truezip.io;
 
 import de.schlichtherle.truezip.util.ThreadGroups;
 import static de.schlichtherle.truezip.util.Throwables.wrap;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
+import java.nio.channels.FileChannel;
 import java.util.Deque;
 import java.util.Queue;
 import java.util.concurrent.*;
@@ -37,6 +41,24 @@ public class Streams {
     /** The buffer size used for reading and writing, which is {@value}. */
     public static final int BUFFER_SIZE = 8 * 1024;
 
+    /**
+     * The default number of buffers used by
+     * {@link #cat(InputStream, OutputStream)}.
+     * This is {@link #FIFO_SIZE} unless the system property
+     * {@code de.schlichtherle.truezip.io.Streams.fifoSize} is set.
+     */
+    private static final int fifoSize = Math.max(2, Integer.getInteger(
+            Streams.class.getName() + ".fifoSize", FIFO_SIZE));
+
+    /**
+     * The default buffer size used by
+     * {@link #cat(InputStream, OutputStream)}.
+     * This is {@link #BUFFER_SIZE} unless the system property
+     * {@code de.schlichtherle.truezip.io.Streams.bufferSize} is set.
+     */
+    private static final int bufferSize = Math.max(1, Integer.getInteger(
+            Streams.class.getName() + ".bufferSize", BUFFER_SIZE));
+
     private static final ExecutorService executor
             = Executors.newCachedThreadPool(new ReaderThreadFactory());
 
@@ -48,9 +70,8 @@ public class Streams {
      * and <em>always</em> closes <em>both</em> streams - even if an exception
      * occurs.
      * <p>
-     * This is a high performance implementation which uses a pooled background
-     * thread to fill a FIFO of pooled buffers which is concurrently flushed by
-     * the current thread.
+     * This is a high performance implementation which copies the data by
+     * calling {@link #cat(InputStream, OutputStream)}.
      * It performs best when used with <em>unbuffered</em> streams.
      *
      * @param  in the input stream.
@@ -84,9 +105,20 @@ public class Streams {
      * This hold true even if an {@link IOException} occurs when reading from
      * the input stream.
      * <p>
-     * This is a high performance implementation which uses a pooled background
-     * thread to fill a FIFO of pooled buffers which is concurrently flushed by
-     * the current thread.
+     * This is a high performance implementation which adapts its strategy to
+     * the given streams:
+     * <ul>
+     * <li>If the input stream is a {@link FileInputStream} for a regular
+     *     file with a known size and the output stream is a
+     *     {@link FileOutputStream}, then the data gets transferred by the
+     *     file channels, which may avoid copying it through the Java heap.
+     *     Any data beyond the size of the file gets copied as follows.
+     * <li>If the input stream is a {@link ByteArrayInputStream} or the
+     *     input ends within the first buffer, then the data gets copied by
+     *     the current thread only.
+     * <li>Otherwise, a pooled background thread fills a FIFO of pooled
+     *     buffers which is concurrently flushed by the current thread.
+     * </ul>
      * It performs best when used with <em>unbuffered</em> streams.
      * <p>
      * The name of this method is inspired by the Unix command line utility
@@ -102,10 +134,169 @@ public class Streams {
      */
     public static void cat( final InputStream in,
                             final OutputStream out)
+    throws IOException {
+        cat(in, out, bufferSize, fifoSize);
+    }
+
+    /**
+     * Copies the data from the given input stream to the given output stream
+     * <em>without</em> closing them, using the given number of buffers of the
+     * given size.
+     * Apart from this, this method is equivalent to
+     * {@link #cat(InputStream, OutputStream)}.
+     *
+     * @param  in the input stream.
+     * @param  out the output stream.
+     * @param  bufferSize the size of the buffers.
+     * @param  fifoSize the number of buffers for exchanging data between
+     *         the reader thread and the current thread.
+     * @throws IllegalArgumentException if {@code bufferSize} is less than
+     *         one or {@code fifoSize} is less than two.
+     * @throws InputException if copying the data fails because of an
+     *         {@code IOException} thrown by the <em>input stream</em>.
+     * @throws IOException if copying the data fails because of an
+     *         {@code IOException} thrown by the <em>output stream</em>.
+     */
+    public static void cat( final InputStream in,
+                            final OutputStream out,
+                            final int bufferSize,
+                            final int fifoSize)
     throws IOException {
         if (null == in || null == out)
             throw new NullPointerException();
+        if (1 > bufferSize || 2 > fifoSize)
+            throw new IllegalArgumentException();
+
+        transfer(in, out);
+
+        final Buffer[] buffers = Buffer.allocate(bufferSize, fifoSize);
+        try {
+            final byte[] buf = buffers[0].buf;
+            if (in instanceof ByteArrayInputStream) {
+                while (!catSync(in, out, buf)) {
+                }
+            } else if (!catSync(in, out, buf)) {
+                catAsync(in, out, buffers);
+            }
+        } finally {
+            Buffer.release(buffers);
+        }
+    }
+
+    /**
+     * Transfers the data from the given input stream to the given output
+     * stream by their file channels if the input stream is a plain file
+     * stream for a regular file with a known size and the output stream is a
+     * plain file stream or an {@link IOExceptionOutputStream} which decorates
+     * a plain file stream.
+     * Only the data up to the size of the input file gets transferred.
+     * Any remaining data, e.g. if the file has grown meanwhile, needs to get
+     * copied by the caller.
+     * Note that special files like FIFOs, character devices or the files in
+     * {@code /proc} typically report a size of zero, so they do not get
+     * transferred by this method.
+     *
+     * @throws InputException if the position or size of the input file
+     *         cannot get determined.
+     * @throws IOException if transferring the data fails.
+     */
+    @SuppressWarnings("deprecation")
+    private static void transfer(
+            final InputStream in,
+            final OutputStream out)
+    throws IOException {
+        if (!(in instanceof FileInputStream))
+            return;
+        final FileChannel oc;
+        final IOExceptionOutputStream ieos;
+        if (out instanceof FileOutputStream) {
+            oc = ((FileOutputStream) out).getChannel();
+            ieos = null;
+        } else if (out instanceof IOExceptionOutputStream) {
+            ieos = (IOExceptionOutputStream) out;
+            oc = ieos.getChannel();
+            if (null == oc)
+                return;
+        } else {
+            return;
+        }
+        final FileChannel ic = ((FileInputStream) in).getChannel();
+        long pos, size;
+        try {
+            pos = ic.position();
+            size = ic.size();
+        } catch (final IOException ex) {
+            throw new InputException(ex);
+        }
+        if (pos >= size)
+            return;
+        while (pos < size) {
+            // The cause of an IOException is unknown here, so assume the
+            // output is broken.
+            final long n;
+            try {
+                n = ic.transferTo(pos, size - pos, oc);
+            } catch (final IOException ex) {
+                throw null != ieos ? ieos.failed(ex) : ex;
+            }
+            if (0 >= n)
+                break;
+            pos += n;
+        }
+        try {
+            ic.position(pos);
+        } catch (final IOException ex) {
+            throw new InputException(ex);
+        }
+    }
+
+    /**
+     * Copies up to one buffer of data by the current thread.
+     * If the end of the input has been reached, the output gets flushed.
+     *
+     * @return {@code true} if and only if the end of the input has been
+     *         reached.
+     */
+    private static boolean catSync(
+            final InputStream in,
+            final OutputStream out,
+            final byte[] buf)
+    throws IOException {
+        InputException exception = null;
+        int total = 0, read = 0;
+        while (total < buf.length) {
+            try {
+                read = in.read(buf, total, buf.length - total);
+            } catch (final IOException ex) {
+                exception = ex instanceof InputException
+                        ? (InputException) ex
+                        : new InputException(ex);
+                read = -1;
+            }
+            if (0 > read)
+                break;
+            total += read;
+        }
+        if (0 < total)
+            out.write(buf, 0, total);
+        if (0 <= read)
+            return false;
+        out.flush();
+        if (null != exception)
+            throw exception;
+        return true;
+    }
 
+    /**
+     * Copies the remaining data by using a pooled background thread to fill
+     * a FIFO of the given buffers which is concurrently flushed by the
+     * current thread.
+     */
+    private static void catAsync(
+            final InputStream in,
+            final OutputStream out,
+            final Buffer[] buffers)
+    throws IOException {
         // We will use a FIFO to exchange byte buffers between a pooled reader
         // thread and the current writer thread.
         // The pooled reader thread will fill the buffers with data from the
@@ -116,7 +307,6 @@ public class Streams {
 
         final Lock lock = new ReentrantLock();
         final Condition signal = lock.newCondition();
-        final Buffer[] buffers = Buffer.allocate();
 
         /*
          * The task that cycles through the buffers in order to fill them
@@ -259,7 +449,6 @@ public class Streams {
         } finally {
             if (interrupted)
                 Thread.currentThread().interrupt(); // restore
-            Buffer.release(buffers);
         }
     }
 
@@ -308,7 +497,9 @@ public class Streams {
         static final Queue<Reference<Buffer[]>> queue
                 = new ConcurrentLinkedQueue<Reference<Buffer[]>>();
 
-        static Buffer[] allocate() {
+        static Buffer[] allocate(final int bufferSize, final int fifoSize) {
+            if (!isPooled(bufferSize, fifoSize))
+                return newBuffers(bufferSize, fifoSize);
             {
                 Reference<Buffer[]> reference;
                 while (null != (reference = queue.poll())) {
@@ -318,19 +509,39 @@ public class Streams {
                 }
             }
 
-            final Buffer[] buffers = new Buffer[FIFO_SIZE];
+            return newBuffers(bufferSize, fifoSize);
+        }
+
+        private static Buffer[] newBuffers(
+                final int bufferSize,
+                final int fifoSize) {
+            final Buffer[] buffers = new Buffer[fifoSize];
             for (int i = buffers.length; 0 <= --i; )
-                buffers[i] = new Buffer();
+                buffers[i] = new Buffer(bufferSize);
             return buffers;
         }
 
+        /** Only buffers with the default configuration get pooled. */
+        private static boolean isPooled(
+                final int bufferSize,
+                final int fifoSize) {
+            return Streams.bufferSize == bufferSize
+                    && Streams.fifoSize == fifoSize;
+        }
+
         static void release(Buffer[] buffers) {
+            if (!isPooled(buffers[0].buf.length, buffers.length))
+                return;
             //queue.push(new SoftReference<Buffer[]>(buffers));
             queue.add(new SoftReference<Buffer[]>(buffers));
         }
 
+        Buffer(final int size) {
+            this.buf = new byte[size];
+        }
+
         /** The byte buffer used for reading and writing. */
-        final byte[] buf = new byte[BUFFER_SIZE];
+        final byte[] buf;
 
         /**
          * The actual number of bytes read into the buffer.
@@ -35,6 +35,14 @@ import java.io.IOException;
  *         rof.close();
  *     }
  * </pre>
+ * <p>
+ * If the decorated read only file is a {@link PositionalReadOnlyFile}, then
+ * the buffer gets filled by positional reads, so the file pointer of the
+ * decorated read only file does not get changed.
+ * This enables multiple instances of this class to share a decorated read
+ * only file.
+ * However, this class is not thread-safe and does not support positional
+ * reads itself.
  *
  * @author Christian Schlichtherle
  */
@@ -272,20 +280,32 @@ public class BufferedReadOnlyFile extends DecoratingReadOnlyFile {
             // Move position.
             // Round down to multiple of buffer size.
             this.bufferStart = bufferStart = pos / bufferSize * bufferSize;
-            if (bufferStart != nextBufferStart)
-                delegate.seek(bufferStart);
 
             // Fill buffer until end of file or buffer.
             // This should normally complete in one loop cycle, but we do not
             // depend on this as it would be a violation of ReadOnlyFile's
             // contract.
             int total = 0;
-            do {
-                int read = delegate.read(buffer, total, bufferSize - total);
-                if (read < 0)
-                    break;
-                total += read;
-            } while (total < bufferSize);
+            if (delegate instanceof PositionalReadOnlyFile) {
+                final PositionalReadOnlyFile
+                        prof = (PositionalReadOnlyFile) delegate;
+                do {
+                    int read = prof.read(bufferStart + total,
+                            buffer, total, bufferSize - total);
+                    if (read < 0)
+                        break;
+                    total += read;
+                } while (total < bufferSize);
+            } else {
+                if (bufferStart != nextBufferStart)
+                    delegate.seek(bufferStart);
+                do {
+                    int read = delegate.read(buffer, total, bufferSize - total);
+                    if (read < 0)
+                        break;
+                    total += read;
+                } while (total < bufferSize);
+            }
         } catch (final IOException ex) {
             this.bufferStart = INVALID;
             throw ex;
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.rof;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DefaultReadOnlyFile} which supports positional reads.
+ * <p>
+ * Positional reads are implemented by the {@link java.nio.channels.FileChannel}
+ * of the random access file, so they can get executed concurrently by
+ * multiple threads.
+ * Mind that interrupting a thread which is blocked in a positional read
+ * closes the channel and hence this read only file for all other threads!
+ * This is why this class is not used by default:
+ * Use it only if the application never interrupts threads which read from
+ * it, e.g. by cancelling a {@link java.util.concurrent.Future}.
+ *
+ * @author  Christian Schlichtherle
+ */
+public class ChannelReadOnlyFile
+extends DefaultReadOnlyFile
+implements PositionalReadOnlyFile {
+
+    public ChannelReadOnlyFile(File file) throws FileNotFoundException {
+        super(file);
+    }
+
+    @Override
+    public int read(final long pos, final byte[] buf, final int off, final int len)
+    throws IOException {
+        if (0 > pos)
+            throw new IOException("Position must not be negative!");
+        if (0 == len)
+            return 0;
+        return getChannel().read(ByteBuffer.wrap(buf, off, len), pos);
+    }
+}
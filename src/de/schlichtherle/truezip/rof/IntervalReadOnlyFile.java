@@ -15,6 +15,16 @@ import java.io.IOException;
  * you have finished using this decorating read only file, then you should not
  * assume a particular position of the file pointer in the decorated read only
  * file.
+ * <p>
+ * If this decorating read only file does not have exclusive access to the
+ * decorated read only file and the decorated read only file is a
+ * {@link PositionalReadOnlyFile}, then positional reads are used instead of
+ * positioning the file pointer in the decorated read only file before each
+ * read operation.
+ * This enables multiple instances of this class to concurrently read from
+ * the same decorated read only file.
+ * However, this class is not thread-safe and does not support positional
+ * reads itself.
  *
  * @since   TrueZIP 7.3
  * @author  Christian Schlichtherle
@@ -145,9 +155,19 @@ public class IntervalReadOnlyFile extends DecoratingReadOnlyFile {
             return -1;
 
         // Operate.
-        if (!this.exclusive)
+        final int read;
+        if (this.exclusive) {
+            read = this.delegate.read();
+        } else if (this.delegate instanceof PositionalReadOnlyFile) {
+            final byte[] buf = new byte[1];
+            read = 1 == ((PositionalReadOnlyFile) this.delegate)
+                    .read(fp + this.offset, buf, 0, 1)
+                    ? buf[0] & 0xff
+                    : -1;
+        } else {
             this.delegate.seek(fp + this.offset);
-        final int read = this.delegate.read();
+            read = this.delegate.read();
+        }
 
         // Update state.
         this.fp = fp + 1;
@@ -172,9 +192,16 @@ public class IntervalReadOnlyFile extends DecoratingReadOnlyFile {
             len = (int) (length - fp);
 
         // Operate.
-        if (!this.exclusive)
+        final int read;
+        if (this.exclusive) {
+            read = this.delegate.read(buf, off, len);
+        } else if (this.delegate instanceof PositionalReadOnlyFile) {
+            read = ((PositionalReadOnlyFile) this.delegate)
+                    .read(fp + this.offset, buf, off, len);
+        } else {
             this.delegate.seek(fp + this.offset);
-        final int read = this.delegate.read(buf, off, len);
+            read = this.delegate.read(buf, off, len);
+        }
 
         // Post-check state.
         if (0 == len) {
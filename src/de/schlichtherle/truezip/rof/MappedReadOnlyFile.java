@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.rof;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+/**
+ * A {@link ReadOnlyFile} implementation which maps a file into memory.
+ * Once the file has been mapped, reading from it does not require any system
+ * calls.
+ * <p>
+ * Because a {@link MappedByteBuffer} cannot address more than
+ * {@link Integer#MAX_VALUE} bytes, the file gets mapped in segments of
+ * {@link #SEGMENT_SIZE} bytes, so files larger than 2 GiB are supported.
+ * <p>
+ * Positional reads are thread-safe, all other methods are not.
+ * <p>
+ * Note that the length of the file gets determined when this read only file
+ * gets constructed, so it does not reflect any subsequent changes.
+ * Mind that closing this read only file just releases the references to the
+ * mapped segments - the memory gets unmapped when the segments get garbage
+ * collected.
+ * On some platforms, this may prevent deleting or overwriting the file until
+ * then.
+ *
+ * @author Christian Schlichtherle
+ */
+public class MappedReadOnlyFile
+extends AbstractReadOnlyFile
+implements PositionalReadOnlyFile {
+
+    /** The size of a mapped segment of the file in bytes. */
+    public static final int SEGMENT_SIZE = 1 << 30;
+
+    private final long length;
+
+    /** The mapped segments of the file or {@code null} if closed. */
+    private MappedByteBuffer[] segments;
+
+    /** The file pointer. */
+    private long fp;
+
+    /**
+     * Constructs a new mapped read only file.
+     *
+     * @param  file the file to map.
+     * @throws FileNotFoundException if the file cannot get opened for reading.
+     * @throws IOException on any I/O error.
+     */
+    public MappedReadOnlyFile(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long length = this.length = channel.size();
+            final int count = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            final MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                final long start = (long) i * SEGMENT_SIZE;
+                segments[i] = channel.map(READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE, length - start));
+            }
+            this.segments = segments;
+        } finally {
+            // The mapping remains valid after the channel has been closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the mapped segments.
+     *
+     * @throws IOException If this read only file has been closed.
+     */
+    private MappedByteBuffer[] segments() throws IOException {
+        final MappedByteBuffer[] segments = this.segments;
+        if (null == segments)
+            throw new IOException("File is closed!");
+        return segments;
+    }
+
+    @Override
+    public long length() throws IOException {
+        segments();
+        return length;
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        segments();
+        return fp;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        segments();
+        if (pos < 0)
+            throw new IOException("File pointer must not be negative!");
+        final long length = this.length;
+        if (pos > length)
+            throw new IOException("File pointer (" + pos
+                    + ") is larger than file length (" + length + ")!");
+        fp = pos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final MappedByteBuffer[] segments = segments();
+        final long fp = this.fp;
+        if (fp >= length)
+            return -1;
+        final int read = segments[(int) (fp / SEGMENT_SIZE)]
+                .get((int) (fp % SEGMENT_SIZE)) & 0xff;
+        this.fp = fp + 1;
+        return read;
+    }
+
+    @Override
+    public int read(final byte[] buf, final int off, final int len)
+    throws IOException {
+        final int read = read(fp, buf, off, len);
+        if (0 < read)
+            fp += read;
+        return read;
+    }
+
+    @Override
+    public int read(final long pos, final byte[] buf, final int off, final int len)
+    throws IOException {
+        final MappedByteBuffer[] segments = segments();
+        if (0 > (off | len | buf.length - off - len))
+	    throw new IndexOutOfBoundsException();
+        if (0 > pos)
+            throw new IOException("Position must not be negative!");
+        if (0 == len)
+            return 0;
+        final long length = this.length;
+        if (pos >= length)
+            return -1;
+        final int total = (int) Math.min(len, length - pos);
+        int read = 0;
+        while (read < total) {
+            final long p = pos + read;
+            // Use a duplicate so that concurrent reads don't interfere.
+            final ByteBuffer segment = segments[(int) (p / SEGMENT_SIZE)]
+                    .duplicate();
+            segment.position((int) (p % SEGMENT_SIZE));
+            final int n = Math.min(total - read, segment.remaining());
+            segment.get(buf, off + read, n);
+            read += n;
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments = null;
+    }
+}
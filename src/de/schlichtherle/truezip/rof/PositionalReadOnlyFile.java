@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.rof;
+
+import java.io.IOException;
+
+/**
+ * A read only file which supports positional reads, i.e. reading from a given
+ * position in the file without using or updating its file pointer.
+ * This is the equivalent of the POSIX function {@code pread(2)}.
+ * <p>
+ * Positional reads must be thread-safe, i.e. they may get executed
+ * concurrently by multiple threads, so that multiple decorating read only
+ * files (e.g. {@link IntervalReadOnlyFile}s) can share a single decorated
+ * read only file without the need to synchronize on its file pointer.
+ * Implementations which cannot provide this guarantee, e.g. because they
+ * use a shared buffer, must not implement this interface.
+ *
+ * @see    ChannelReadOnlyFile
+ * @author Christian Schlichtherle
+ */
+public interface PositionalReadOnlyFile extends ReadOnlyFile {
+
+    /**
+     * Reads up to {@code len} bytes of data from the given position in this
+     * read only file into the given array.
+     * This method blocks until at least one byte of input is available unless
+     * {@code len} is zero.
+     * The file pointer of this read only file does not get changed.
+     *
+     * @param  pos The position of the data in the file as a zero-based index.
+     * @param  buf The buffer to fill with data.
+     * @param  off The start offset of the data.
+     * @param  len The maximum number of bytes to read.
+     * @return The total number of bytes read, or {@code -1} if there is
+     *         no more data because the end of the file has been reached.
+     * @throws IOException If {@code pos} is less than {@code 0} or on any
+     *         I/O failure.
+     */
+    int read(long pos, byte[] buf, int off, int len) throws IOException;
+}
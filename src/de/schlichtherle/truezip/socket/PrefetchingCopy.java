@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.socket;
+
+import de.schlichtherle.truezip.io.InputException;
+import de.schlichtherle.truezip.io.Streams;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A copy operation from an input socket to an output socket which may read
+ * the input data ahead in a background thread before it gets
+ * {@link #run() run}.
+ * This enables clients to read the data of multiple input sockets
+ * concurrently while still writing the data to the output sockets in a
+ * deterministic order.
+ * <p>
+ * When reading ahead, the input socket gets connected to the output socket
+ * before its input stream gets created, so that the input socket can still
+ * set up the data to be transferred just like
+ * {@link IOSocket#copy(InputSocket, OutputSocket)} does, e.g. in order to
+ * avoid data recompression.
+ * Consequently, the input socket must support creating its input stream by
+ * a different thread than the output stream of the output socket.
+ * <p>
+ * Note that this class is <em>not</em> thread-safe.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class PrefetchingCopy {
+
+    private final InputSocket<?> input;
+    private final OutputSocket<?> output;
+    private Prefetcher prefetcher;
+
+    /**
+     * Constructs a new copy operation.
+     *
+     * @param input the input socket for the input target.
+     * @param output the output socket for the output target.
+     */
+    public PrefetchingCopy(
+            final InputSocket<?> input,
+            final OutputSocket<?> output) {
+        if (null == input || null == output)
+            throw new NullPointerException();
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Starts reading the input data ahead using the given executor service.
+     *
+     * @param executor the executor service for reading the input data.
+     * @param size the expected number of bytes to read.
+     * @throws IllegalStateException if this method has been called before.
+     */
+    public void prefetch(final ExecutorService executor, final int size) {
+        if (null != prefetcher)
+            throw new IllegalStateException();
+        input.connect(output);
+        final Prefetcher p = new Prefetcher(size);
+        p.result = executor.submit(p);
+        prefetcher = p;
+    }
+
+    /**
+     * Copies the prefetched input data or, if no data has been prefetched,
+     * the input stream of the input socket to the output stream of the
+     * output socket.
+     *
+     * @throws InputException if copying the data fails because of an
+     *         {@code IOException} thrown by the <em>input socket</em>.
+     * @throws IOException if copying the data fails because of an
+     *         {@code IOException} thrown by the <em>output socket</em>.
+     */
+    public void run() throws IOException {
+        final Prefetcher p = prefetcher;
+        if (null == p) {
+            IOSocket.copy(input, output);
+            return;
+        }
+        final byte[] data = get(p.result);
+        final OutputStream out = output.newOutputStream();
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        // Disconnect for subsequent use, if any.
+        input.connect(null);
+    }
+
+    /**
+     * Cancels reading the input data ahead and waits until the background
+     * thread has stopped reading from the input socket, if any.
+     */
+    public void cancel() {
+        final Prefetcher p = prefetcher;
+        if (null == p)
+            return;
+        p.cancelled = true;
+        try {
+            get(p.result);
+        } catch (final IOException ex) {
+            // Ignore.
+        }
+    }
+
+    private static byte[] get(final Future<byte[]> result) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    else if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    else if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new AssertionError(cause);
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt(); // restore
+        }
+    }
+
+    /** Reads the input data into a byte array. */
+    private final class Prefetcher implements Callable<byte[]> {
+        final int size;
+        Future<byte[]> result;
+        volatile boolean cancelled;
+
+        Prefetcher(final int size) {
+            this.size = size;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            if (cancelled)
+                return null;
+            final InputStream in;
+            try {
+                in = input.newInputStream();
+            } catch (final IOException ex) {
+                throw new InputException(ex);
+            }
+            try {
+                final ByteArrayOutputStream
+                        out = new ByteArrayOutputStream(Math.max(32, size));
+                final byte[] buf = new byte[Streams.BUFFER_SIZE];
+                for (int read; 0 <= (read = in.read(buf)); ) {
+                    if (cancelled)
+                        return null;
+                    out.write(buf, 0, read);
+                }
+                return out.toByteArray();
+            } catch (final IOException ex) {
+                throw new InputException(ex);
+            } finally {
+                try {
+                    in.close();
+                } catch (final IOException ex) {
+                    throw new InputException(ex);
+                }
+            }
+        }
+    } // Prefetcher
+}
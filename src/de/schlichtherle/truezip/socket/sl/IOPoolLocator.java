@@ -8,9 +8,16 @@ import de.schlichtherle.truezip.fs.file.TempFilePoolService;
 import de.schlichtherle.truezip.socket.IOPool;
 import de.schlichtherle.truezip.socket.IOPoolProvider;
 import de.schlichtherle.truezip.socket.spi.IOPoolService;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ServiceConfigurationError;
 
 /**
  * Locates an I/O buffer pool service.
+ * If the system property {@code de.schlichtherle.truezip.socket.spi.IOPoolService}
+ * is set, then its value gets used as the name of the class of the I/O
+ * buffer pool service to instantiate, e.g.
+ * {@code de.schlichtherle.truezip.fs.file.HybridPoolService}.
+ * Otherwise, the {@link TempFilePoolService} gets used.
  *
  * @see     IOPoolService
  * @author  Christian Schlichtherle
@@ -37,9 +44,35 @@ public final class IOPoolLocator implements IOPoolProvider {
         }
 
         private static IOPool<?> create() {
-            IOPoolService service = new TempFilePoolService();
+            final String name = System.getProperty(
+                    IOPoolService.class.getName());
+            IOPoolService service = null == name
+                    ? new TempFilePoolService()
+                    : newService(name);
             final IOPool<?> pool = service.get();
             return pool;
         }
+
+        private static IOPoolService newService(final String name) {
+            try {
+                return Class
+                        .forName(name, true, IOPoolLocator.class.getClassLoader())
+                        .asSubclass(IOPoolService.class)
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (final ClassNotFoundException ex) {
+                throw new ServiceConfigurationError(name, ex);
+            } catch (final ClassCastException ex) {
+                throw new ServiceConfigurationError(name, ex);
+            } catch (final NoSuchMethodException ex) {
+                throw new ServiceConfigurationError(name, ex);
+            } catch (final InstantiationException ex) {
+                throw new ServiceConfigurationError(name, ex);
+            } catch (final IllegalAccessException ex) {
+                throw new ServiceConfigurationError(name, ex);
+            } catch (final InvocationTargetException ex) {
+                throw new ServiceConfigurationError(name, ex.getCause());
+            }
+        }
     } // Boot
 }
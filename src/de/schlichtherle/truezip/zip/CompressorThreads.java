@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.util.ThreadGroups;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Provides the shared executor service for compressing and decompressing
+ * ZIP entry data in parallel.
+ *
+ * @author Christian Schlichtherle
+ */
+final class CompressorThreads {
+
+    /** The executor service for compressor threads. */
+    static final ExecutorService executor
+            = Executors.newCachedThreadPool(new CompressorThreadFactory());
+
+    /* Can't touch this - hammer time! */
+    private CompressorThreads() { }
+
+    /** A factory for compressor threads. */
+    private static final class CompressorThreadFactory
+    implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new CompressorThread(r);
+        }
+    } // CompressorThreadFactory
+
+    /**
+     * A pooled and cached daemon thread which compresses or decompresses
+     * ZIP entry data.
+     */
+    private static final class CompressorThread extends Thread {
+        CompressorThread(Runnable r) {
+            super(ThreadGroups.getServerThreadGroup(), r,
+                    CompressorThread.class.getName());
+            setDaemon(true);
+        }
+    } // CompressorThread
+}
@@ -16,15 +16,17 @@ final class DefaultZipFileParameters
 extends DefaultZipCharsetParameters
 implements ZipFileParameters<ZipEntry> {
 
-    private final boolean preambled, postambled;
+    private final boolean preambled, postambled, lazyMount;
 
     DefaultZipFileParameters(
             final Charset charset,
             final boolean preambled,
-            final boolean postambled) {
+            final boolean postambled,
+            final boolean lazyMount) {
         super(charset);
         this.preambled = preambled;
         this.postambled = postambled;
+        this.lazyMount = lazyMount;
     }
 
     @Override
@@ -37,6 +39,11 @@ implements ZipFileParameters<ZipEntry> {
         return postambled;
     }
 
+    @Override
+    public boolean getLazyMount() {
+        return lazyMount;
+    }
+
     @Override
     public ZipEntry newEntry(String name) {
         return new ZipEntry(name);
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.util.Pool;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import static java.util.zip.Deflater.BEST_COMPRESSION;
+import static java.util.zip.Deflater.DEFAULT_COMPRESSION;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded, thread-safe pool of {@link Deflater}s or {@link Inflater}s.
+ * Allocating a flater from a pool reuses a previously released flater if
+ * available, so that the native zlib state does not need to get allocated
+ * and freed again for each ZIP entry.
+ * Released flaters get {@code reset()} and kept in the pool unless it's
+ * full, in which case they get {@code end()}ed.
+ * <p>
+ * There is one pool of deflaters for each compression level and one pool of
+ * inflaters.
+ * The pools record the number of hits and misses when allocating flaters.
+ *
+ * @param  <F> the type of the flaters.
+ * @author Christian Schlichtherle
+ */
+abstract class FlaterPool<F> implements Pool<F, RuntimeException> {
+
+    /** The maximum number of flaters kept in each pool. */
+    private static final int CAPACITY
+            = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static final FlaterPool<Inflater> inflaters = new InflaterPool();
+
+    private static final DeflaterPool[] deflaters
+            = new DeflaterPool[BEST_COMPRESSION - DEFAULT_COMPRESSION + 1];
+    static {
+        for (int level = DEFAULT_COMPRESSION; level <= BEST_COMPRESSION; level++)
+            deflaters[level - DEFAULT_COMPRESSION] = new DeflaterPool(level);
+    }
+
+    private final BlockingQueue<F> flaters = new ArrayBlockingQueue<F>(CAPACITY);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    FlaterPool() { }
+
+    /**
+     * Returns the pool of deflaters for the given compression level.
+     *
+     * @param  level the compression level.
+     * @return The pool of deflaters for the given compression level.
+     * @throws IllegalArgumentException if {@code level} is not a valid
+     *         compression level.
+     */
+    static FlaterPool<Deflater> deflaters(final int level) {
+        if (level < DEFAULT_COMPRESSION || BEST_COMPRESSION < level)
+            throw new IllegalArgumentException("Invalid compression level!");
+        return deflaters[level - DEFAULT_COMPRESSION];
+    }
+
+    /** Returns the pool of inflaters. */
+    static FlaterPool<Inflater> inflaters() {
+        return inflaters;
+    }
+
+    /**
+     * Returns a pooled flater or a new flater if the pool is empty.
+     *
+     * @return A pooled flater or a new flater if the pool is empty.
+     */
+    @Override
+    public final F allocate() {
+        final F flater = flaters.poll();
+        if (null != flater) {
+            hits.incrementAndGet();
+            return flater;
+        }
+        misses.incrementAndGet();
+        return newFlater();
+    }
+
+    /**
+     * Resets the given flater and returns it to this pool or ends it if this
+     * pool is full.
+     * The given flater must not get used anymore by the caller.
+     *
+     * @param flater the flater to release.
+     */
+    @Override
+    public final void release(final F flater) {
+        reset(flater);
+        if (!flaters.offer(flater))
+            end(flater);
+    }
+
+    /**
+     * Returns the number of allocations which have been served by a pooled
+     * flater.
+     */
+    final long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of allocations which required to create a new
+     * flater.
+     */
+    final long getMisses() {
+        return misses.get();
+    }
+
+    abstract F newFlater();
+
+    abstract void reset(F flater);
+
+    abstract void end(F flater);
+
+    private static final class DeflaterPool extends FlaterPool<Deflater> {
+        final int level;
+
+        DeflaterPool(final int level) {
+            this.level = level;
+        }
+
+        @Override
+        Deflater newFlater() {
+            return new Jdk6Deflater(level, true);
+        }
+
+        @Override
+        void reset(Deflater deflater) {
+            deflater.reset();
+        }
+
+        @Override
+        void end(Deflater deflater) {
+            deflater.end();
+        }
+    } // DeflaterPool
+
+    private static final class InflaterPool extends FlaterPool<Inflater> {
+        @Override
+        Inflater newFlater() {
+            return new Jdk6Inflater(true);
+        }
+
+        @Override
+        void reset(Inflater inflater) {
+            inflater.reset();
+        }
+
+        @Override
+        void end(Inflater inflater) {
+            inflater.end();
+        }
+    } // InflaterPool
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.rof.AbstractReadOnlyFile;
+import de.schlichtherle.truezip.rof.DecoratingReadOnlyFile;
+import de.schlichtherle.truezip.rof.ReadOnlyFile;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A read only file which provides random access to the inflated contents of
+ * a DEFLATED ZIP entry.
+ * <p>
+ * The JDK's {@link java.util.zip.Inflater} can neither save its state nor
+ * resume inflating at an arbitrary bit position in the deflated data, so
+ * this class cannot use an index of checkpoints within the deflated data.
+ * Instead, it keeps a single inflater stream: Seeking forwards skips the
+ * inflated data up to the new position, while seeking backwards restarts
+ * inflating from the start of the deflated data.
+ * In order to make small backward seeks cheap, this class should get
+ * decorated with a {@link de.schlichtherle.truezip.rof.BufferedReadOnlyFile}.
+ * <p>
+ * Note that this class is <em>not</em> thread-safe.
+ *
+ * @author Christian Schlichtherle
+ */
+final class InflaterReadOnlyFile extends AbstractReadOnlyFile {
+
+    /** The read only file for the deflated data. */
+    private final ReadOnlyFile rof;
+
+    /** The length of the inflated data. */
+    private final long length;
+
+    /** The buffer size for the inflater stream. */
+    private final int size;
+
+    /** The inflater stream or {@code null} if not yet created. */
+    private ZipInflaterInputStream in;
+
+    /** The position of {@link #in} in the inflated data. */
+    private long inPos;
+
+    /** The virtual file pointer in the inflated data. */
+    private long fp;
+
+    private boolean closed;
+
+    /**
+     * Constructs a new inflater read only file.
+     *
+     * @param rof the read only file for the deflated data.
+     *        This read only file gets closed when this read only file gets
+     *        closed.
+     * @param length the length of the inflated data.
+     * @param size the buffer size for the inflater stream.
+     */
+    InflaterReadOnlyFile(
+            final ReadOnlyFile rof,
+            final long length,
+            final int size) {
+        assert null != rof;
+        assert 0 <= length;
+        assert 0 < size;
+        this.rof = rof;
+        this.length = length;
+        this.size = size;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed)
+            throw new IOException("File is closed!");
+    }
+
+    @Override
+    public long length() throws IOException {
+        checkOpen();
+        return length;
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        checkOpen();
+        return fp;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        checkOpen();
+        if (pos < 0)
+            throw new IOException("File pointer must not be negative!");
+        final long length = this.length;
+        if (pos > length)
+            throw new IOException("File pointer (" + pos
+                    + ") is larger than file length (" + length + ")!");
+        fp = pos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] buf = new byte[1];
+        return 1 == read(buf, 0, 1) ? buf[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] buf, final int off, int len)
+    throws IOException {
+        checkOpen();
+        if (0 > (off | len | buf.length - off - len))
+	    throw new IndexOutOfBoundsException();
+        if (0 == len)
+            return 0;
+        final long fp = this.fp;
+        if (fp >= length)
+            return -1;
+        if (fp + len > length)
+            len = (int) (length - fp);
+        final ZipInflaterInputStream in = position(fp);
+        final int read = in.read(buf, off, len);
+        if (0 > read)
+            throw new EOFException();
+        inPos += read;
+        this.fp = fp + read;
+        return read;
+    }
+
+    /**
+     * Returns the inflater stream positioned at the given position in the
+     * inflated data.
+     */
+    private ZipInflaterInputStream position(final long pos)
+    throws IOException {
+        ZipInflaterInputStream in = this.in;
+        if (null == in || pos < inPos) {
+            if (null != in) {
+                this.in = null;
+                in.close();
+            }
+            rof.seek(0);
+            this.in = in = new ZipInflaterInputStream(
+                    new DummyByteInputStream(new NonClosingReadOnlyFile(rof)),
+                    size);
+            inPos = 0;
+        }
+        while (inPos < pos) {
+            final long skipped = in.skip(pos - inPos);
+            if (0 >= skipped)
+                throw new EOFException();
+            inPos += skipped;
+        }
+        return in;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            final ZipInflaterInputStream in = this.in;
+            if (null != in) {
+                this.in = null;
+                in.close();
+            }
+        } finally {
+            rof.close();
+        }
+    }
+
+    /**
+     * Prevents closing the deflated data read only file when the inflater
+     * stream gets closed on restart.
+     */
+    private static final class NonClosingReadOnlyFile
+    extends DecoratingReadOnlyFile {
+        NonClosingReadOnlyFile(ReadOnlyFile rof) {
+            super(rof);
+        }
+
+        @Override
+        public void close() {
+        }
+    } // NonClosingReadOnlyFile
+}
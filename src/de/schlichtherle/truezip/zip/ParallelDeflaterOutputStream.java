@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.io.DecoratingOutputStream;
+import static de.schlichtherle.truezip.zip.Constants.MAX_FLATER_BUF_LENGTH;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import static java.util.zip.Deflater.SYNC_FLUSH;
+
+/**
+ * An output stream which splits its input into blocks of a fixed size and
+ * deflates them concurrently, similar to {@code pigz}.
+ * Each block gets deflated by a separate {@link Deflater} which uses the
+ * tail of the previous block as its preset dictionary and gets terminated
+ * with a sync flush, except for the last block.
+ * The deflated blocks get written in order, so that the output is a single
+ * valid raw deflate stream.
+ * <p>
+ * Note that this class is <em>not</em> thread-safe.
+ *
+ * @author Christian Schlichtherle
+ */
+final class ParallelDeflaterOutputStream extends DecoratingOutputStream {
+
+    /** The maximum size of a preset dictionary for deflating, which is {@value}. */
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final ExecutorService executor;
+    private final FlaterPool<Deflater> pool;
+    private final int blockSize;
+    private final int parallelism;
+
+    /** The deflated blocks which have not yet been written, in order. */
+    private final Queue<Future<byte[]>> blocks = new ArrayDeque<Future<byte[]>>();
+
+    private byte[] buf;
+    private int count;
+
+    /** The previous block or {@code null} if there is none. */
+    private byte[] previous;
+
+    /** The number of bytes in {@link #previous}. */
+    private int previousCount;
+
+    /** The number of bytes written to this stream. */
+    private long read;
+
+    private boolean finished;
+
+    /**
+     * Constructs a new parallel deflater output stream.
+     *
+     * @param out the output stream to write the raw deflate stream to.
+     * @param executor the executor service for deflating the blocks.
+     * @param level the compression level.
+     * @param blockSize the size of the blocks to deflate concurrently.
+     * @param parallelism the maximum number of blocks to deflate
+     *        concurrently.
+     */
+    ParallelDeflaterOutputStream(
+            final OutputStream out,
+            final ExecutorService executor,
+            final int level,
+            final int blockSize,
+            final int parallelism) {
+        super(out);
+        assert null != out;
+        assert null != executor;
+        assert DICTIONARY_SIZE <= blockSize;
+        assert 0 < parallelism;
+        this.executor = executor;
+        this.pool = FlaterPool.deflaters(level);
+        this.blockSize = blockSize;
+        this.parallelism = parallelism;
+        this.buf = new byte[blockSize];
+    }
+
+    /** Returns the number of bytes written to this stream. */
+    long getBytesRead() {
+        return read;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        if (finished)
+            throw new IOException("Stream is finished!");
+        while (0 < len) {
+            final int count = this.count;
+            final int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, buf, count, n);
+            this.count = count + n;
+            read += n;
+            off += n;
+            len -= n;
+            if (blockSize == this.count)
+                submit(false);
+        }
+    }
+
+    private void submit(final boolean last) throws IOException {
+        final byte[] block = this.buf;
+        final int count = this.count;
+        blocks.add(executor.submit(new BlockDeflater(
+                previous, previousCount, block, count, last)));
+        previous = block;
+        previousCount = count;
+        if (!last)
+            buf = new byte[blockSize];
+        this.count = 0;
+        while (parallelism < blocks.size())
+            writeBlock();
+    }
+
+    private void writeBlock() throws IOException {
+        final byte[] block = get(blocks.remove());
+        delegate.write(block, 0, block.length);
+    }
+
+    private static byte[] get(final Future<byte[]> result) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    else if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new AssertionError(cause);
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt(); // restore
+        }
+    }
+
+    /**
+     * Deflates the last block and writes all remaining deflated blocks to
+     * the decorated stream without closing it.
+     */
+    void finish() throws IOException {
+        if (finished)
+            return;
+        try {
+            submit(true);
+            while (!blocks.isEmpty())
+                writeBlock();
+        } finally {
+            for (Future<byte[]> block; null != (block = blocks.poll()); )
+                block.cancel(true);
+            finished = true;
+            buf = previous = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        assert false : "This method should never get called by the current implementation.";
+        finish();
+        delegate.close();
+    }
+
+    /** Deflates a block using the tail of the previous block as dictionary. */
+    private final class BlockDeflater implements Callable<byte[]> {
+        final byte[] previous;
+        final int previousCount;
+        final byte[] block;
+        final int count;
+        final boolean last;
+
+        BlockDeflater(
+                final byte[] previous,
+                final int previousCount,
+                final byte[] block,
+                final int count,
+                final boolean last) {
+            this.previous = previous;
+            this.previousCount = previousCount;
+            this.block = block;
+            this.count = count;
+            this.last = last;
+        }
+
+        @Override
+        public byte[] call() {
+            final Deflater def = pool.allocate();
+            try {
+                if (null != previous) {
+                    final int len = Math.min(previousCount, DICTIONARY_SIZE);
+                    def.setDictionary(previous, previousCount - len, len);
+                }
+                def.setInput(block, 0, count);
+                final ByteArrayOutputStream out
+                        = new ByteArrayOutputStream(count / 2 + 64);
+                final byte[] buf = new byte[MAX_FLATER_BUF_LENGTH];
+                if (last) {
+                    def.finish();
+                    while (!def.finished())
+                        out.write(buf, 0, def.deflate(buf));
+                } else {
+                    int n;
+                    do {
+                        n = def.deflate(buf, 0, buf.length, SYNC_FLUSH);
+                        out.write(buf, 0, n);
+                    } while (buf.length == n);
+                }
+                return out.toByteArray();
+            } finally {
+                pool.release(def);
+            }
+        }
+    } // BlockDeflater
+}
@@ -6,6 +6,7 @@ package de.schlichtherle.truezip.zip;
 
 import de.schlichtherle.truezip.rof.BufferedReadOnlyFile;
 import de.schlichtherle.truezip.rof.IntervalReadOnlyFile;
+import de.schlichtherle.truezip.rof.PositionalReadOnlyFile;
 import de.schlichtherle.truezip.rof.ReadOnlyFile;
 import de.schlichtherle.truezip.rof.ReadOnlyFileInputStream;
 import static de.schlichtherle.truezip.util.HashMaps.initialCapacity;
@@ -18,18 +19,28 @@ import static de.schlichtherle.truezip.zip.WinZipAesUtils.overhead;
 import static de.schlichtherle.truezip.zip.ZipEntry.*;
 import static de.schlichtherle.truezip.zip.ZipParametersUtils.parameters;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.ZipException;
 import libtruezip.compress.bzip2.BZip2CompressorInputStream;
+import libtruezip.compress.bzip2.ParallelBZip2CompressorInputStream;
 
 /**
  * Provides unsafe (raw) access to a ZIP file using unsynchronized methods and
@@ -89,6 +100,9 @@ implements Iterable<E>, Closeable {
 
     private final ZipEntryFactory<E> param;
 
+    /** Whether or not the central directory gets mounted lazily. */
+    private final boolean lazyMount;
+
     /** The charset to use for entry names and comments. */
     private Charset charset;
 
@@ -102,7 +116,22 @@ implements Iterable<E>, Closeable {
     private PositionMapper mapper = new PositionMapper();
 
     /** The number of open resources for reading the entries in this ZIP file. */
-    private int open;
+    private final AtomicInteger open = new AtomicInteger();
+
+    /** The maximum number of blocks to decompress in parallel. */
+    private volatile int parallelism = 1;
+
+    /**
+     * The maximum size of the encrypted data of an entry to authenticate
+     * from memory.
+     */
+    private volatile int authenticationBufferSize;
+
+    /**
+     * Whether or not encrypted entries get authenticated while their input
+     * stream gets read.
+     */
+    private volatile boolean streamingAuthentication;
 
     /**
      * Reads the given {@code zip} file in order to provide random access
@@ -122,28 +151,88 @@ implements Iterable<E>, Closeable {
         this(new SingleReadOnlyFilePool(zip), param);
     }
 
+    /**
+     * Reads the given {@code zip} file in order to provide random access
+     * to its entries.
+     * If {@code file} and {@code cache} are not {@code null}, then the
+     * central directory gets mounted lazily from a valid index in the cache
+     * or gets mounted lazily from the ZIP file and stored in the cache.
+     *
+     * @param  zip the ZIP file to be read.
+     * @param  param the parameters for reading the ZIP file.
+     * @param  file the nullable file which {@code zip} reads.
+     * @param  cache the nullable cache for the index of the central
+     *         directory.
+     * @throws ZipException if the file is not compatible to the ZIP
+     *         File Format Specification.
+     * @throws IOException on any other I/O related issue.
+     * @see    #recoverLostEntries()
+     */
+    protected RawZipFile(
+            ReadOnlyFile zip,
+            ZipFileParameters<E> param,
+            File file,
+            ZipIndexCache cache)
+    throws IOException {
+        this(   new SingleReadOnlyFilePool(zip), param,
+                null == cache ? null : file,
+                null == file ? null : cache);
+    }
+
     RawZipFile(
             final Pool<ReadOnlyFile, IOException> source,
             final ZipFileParameters<E> param)
+    throws IOException {
+        this(source, param, null, null);
+    }
+
+    /**
+     * Reads the ZIP file from the given source in order to provide random
+     * access to its entries.
+     * If {@code cache} is not {@code null}, then the central directory gets
+     * mounted lazily from a valid index in the cache or gets mounted lazily
+     * from the ZIP file and stored in the cache.
+     *
+     * @param  source the pool for the ZIP file to be read.
+     * @param  param the parameters for reading the ZIP file.
+     * @param  file the ZIP file or {@code null} if and only if
+     *         {@code cache} is {@code null}.
+     * @param  cache the nullable cache for the index of the central
+     *         directory.
+     */
+    RawZipFile(
+            final Pool<ReadOnlyFile, IOException> source,
+            final ZipFileParameters<E> param,
+            final File file,
+            final ZipIndexCache cache)
     throws IOException {
         if (null == param)
             throw new NullPointerException();
+        assert (null == file) == (null == cache);
+        // Capture the last modification time before reading the central
+        // directory so that a concurrent update invalidates the index.
+        final long time = null != file ? file.lastModified() : 0;
         final ReadOnlyFile rof = source.allocate();
         try {
             this.rof = rof;
             this.length = rof.length();
             this.param = param;
+            this.lazyMount = param.getLazyMount() || null != cache;
             this.charset = param.getCharset();
             final ReadOnlyFile
                     brof = new SafeBufferedReadOnlyFile(rof, this.length);
-            if (!param.getPreambled())
-                checkZipFileSignature(brof);
-            final int numEntries = findCentralDirectory(brof, param.getPostambled());
-            mountCentralDirectory(brof, numEntries);
-            if (this.preamble + this.postamble >= this.length) {
-                assert 0 == numEntries;
-                if (param.getPreambled()) // otherwise already checked
+            if (null == cache || !mountIndex(cache.load(file, brof))) {
+                if (!param.getPreambled())
                     checkZipFileSignature(brof);
+                final int numEntries = findCentralDirectory(brof, param.getPostambled());
+                mountCentralDirectory(brof, numEntries);
+                if (this.preamble + this.postamble >= this.length) {
+                    assert 0 == numEntries;
+                    if (param.getPreambled()) // otherwise already checked
+                        checkZipFileSignature(brof);
+                }
+                if (null != cache && this.entries instanceof RawZipFile.CentralDirectory)
+                    cache.store(file, newIndex(brof, time));
             }
             // Do NOT close brof - would close rof as well!
         } catch (IOException ex) {
@@ -157,6 +246,66 @@ implements Iterable<E>, Closeable {
         assert null != this.mapper;
     }
 
+    /**
+     * Mounts the central directory from the given index.
+     *
+     * @param  index the nullable index.
+     * @return Whether or not the central directory has been mounted.
+     */
+    private boolean mountIndex(final ZipIndexCache.Index index)
+    throws ZipException {
+        if (null == index || !index.charset.equals(this.charset.name()))
+            return false;
+        final CentralDirectory directory = new CentralDirectory(index.cd,
+                index.offsets, index.hashes, index.size, index.utf8,
+                this.charset);
+        if (!directory.isNamePreserving())
+            return false;
+        this.preamble = index.preamble;
+        this.postamble = index.postamble;
+        this.comment = index.comment;
+        if (0 != index.mapperStart)
+            this.mapper = new OffsetPositionMapper(index.mapperStart);
+        this.entries = directory;
+        if (0 <= index.utf8)
+            this.charset = UTF8;
+        return true;
+    }
+
+    /**
+     * Returns a new index for the lazily mounted central directory.
+     *
+     * @param  rof the read only file for reading the ZIP file.
+     * @param  time the last modification time of the ZIP file before its
+     *         central directory has been read.
+     */
+    private ZipIndexCache.Index newIndex(
+            final ReadOnlyFile rof,
+            final long time)
+    throws IOException {
+        final CentralDirectory directory = (CentralDirectory) this.entries;
+        final ZipIndexCache.Index index = new ZipIndexCache.Index();
+        index.length = this.length;
+        index.time = time;
+        final byte[] comment = this.comment;
+        index.eocdrOff = this.length - this.postamble - EOCDR_MIN_LEN
+                - (null == comment ? 0 : comment.length);
+        final byte[] eocdr = index.eocdr = new byte[EOCDR_MIN_LEN];
+        rof.seek(index.eocdrOff);
+        rof.readFully(eocdr);
+        index.preamble = this.preamble;
+        index.postamble = this.postamble;
+        index.mapperStart = this.mapper.map(0);
+        index.charset = directory.charset.name();
+        index.utf8 = directory.utf8;
+        index.comment = comment;
+        index.size = directory.size;
+        index.offsets = directory.offsets;
+        index.hashes = directory.hashes;
+        index.cd = directory.cd;
+        return index;
+    }
+
     private void checkZipFileSignature(final ReadOnlyFile rof)
     throws IOException {
         final byte[] sig = new byte[4];
@@ -344,6 +493,8 @@ implements Iterable<E>, Closeable {
      * The ZipEntrys will know all data that can be obtained from
      * the central directory alone, but not the data that requires the
      * local file header or additional data to be read.
+     * If the central directory gets mounted lazily, then the ZipEntrys get
+     * created on demand instead.
      * <p>
      * As a side effect, the following fields will get initialized:
      * <ul>
@@ -362,94 +513,34 @@ implements Iterable<E>, Closeable {
      */
     private void mountCentralDirectory(final ReadOnlyFile rof, int numEntries)
     throws IOException {
+        if (this.lazyMount && mountLazyCentralDirectory(rof, numEntries))
+            return;
         final Map<String, E> entries = new LinkedHashMap<String, E>(
                 Math.max(initialCapacity(numEntries), 16));
-        final byte[] cfh = new byte[CFH_MIN_LEN];
+        final byte[] sig = new byte[4];
         for (; ; numEntries--) {
-            rof.readFully(cfh, 0, 4);
+            rof.readFully(sig);
             // central file header signature   4 bytes  (0x02014b50)
-            if (CFH_SIG != readUInt(cfh, 0))
+            if (CFH_SIG != readUInt(sig, 0))
                 break;
-            rof.readFully(cfh, 4, CFH_MIN_LEN - 4);
-            final int gpbf = readUShort(cfh, 8);
-            final int nameLen = readUShort(cfh, 28);
-            final byte[] name = new byte[nameLen];
-            rof.readFully(name);
+            final byte[] head = new byte[CFH_MIN_LEN];
+            System.arraycopy(sig, 0, head, 0, 4);
+            rof.readFully(head, 4, CFH_MIN_LEN - 4);
+            final byte[] cfh = new byte[CFH_MIN_LEN + readUShort(head, 28)
+                    + readUShort(head, 30) + readUShort(head, 32)];
+            System.arraycopy(head, 0, cfh, 0, CFH_MIN_LEN);
+            rof.readFully(cfh, CFH_MIN_LEN, cfh.length - CFH_MIN_LEN);
             // See appendix D of PKWARE's ZIP File Format Specification.
-            final boolean utf8 = 0 != (gpbf & GPBF_UTF8);
+            final boolean utf8 = 0 != (readUShort(cfh, 8) & GPBF_UTF8);
             if (utf8)
                 this.charset = UTF8;
-            final E entry = this.param.newEntry(decode(name));
-            try {
-                int off = 0;
-                // central file header signature   4 bytes  (0x02014b50)
-                off += 4;
-                // version made by                 2 bytes
-                entry.setRawPlatform(readUShort(cfh, off) >> 8);
-                off += 2;
-                // version needed to extract       2 bytes
-                off += 2;
-                // general purpose bit flag        2 bytes
-                entry.setGeneralPurposeBitFlags(gpbf);
-                off += 2; // General Purpose Bit Flags
-                // compression method              2 bytes
-                entry.setRawMethod(readUShort(cfh, off));
-                off += 2;
-                // last mod file time              2 bytes
-                // last mod file date              2 bytes
-                entry.setRawTime(readUInt(cfh, off));
-                off += 4;
-                // crc-32                          4 bytes
-                entry.setRawCrc(readUInt(cfh, off));
-                off += 4;
-                // compressed size                 4 bytes
-                entry.setRawCompressedSize(readUInt(cfh, off));
-                off += 4;
-                // uncompressed size               4 bytes
-                entry.setRawSize(readUInt(cfh, off));
-                off += 4;
-                // file name length                2 bytes
-                off += 2;
-                // extra field length              2 bytes
-                final int extraLen = readUShort(cfh, off);
-                off += 2;
-                // file comment length             2 bytes
-                final int commentLen = readUShort(cfh, off);
-                off += 2;
-                // disk number start               2 bytes
-                off += 2;
-                // internal file attributes        2 bytes
-                //entry.setEncodedInternalAttributes(readUShort(cfh, off));
-                off += 2;
-                // external file attributes        4 bytes
-                entry.setRawExternalAttributes(readUInt(cfh, off));
-                off += 4;
-                // relative offset of local header 4 bytes
-                long lfhOff = readUInt(cfh, off);
-                entry.setRawOffset(lfhOff); // must be unmapped!
-                //off += 4;
-                // extra field (variable size)
-                if (0 < extraLen) {
-                    final byte[] extra = new byte[extraLen];
-                    rof.readFully(extra);
-                    entry.setRawExtraFields(extra);
-                }
-                // file comment (variable size)
-                if (0 < commentLen) {
-                    final byte[] comment = new byte[commentLen];
-                    rof.readFully(comment);
-                    entry.setRawComment(decode(comment));
-                }
-                // Re-read virtual offset after ZIP64 Extended Information
-                // Extra Field may have been parsed, map it to the real
-                // offset and conditionally update the preamble size from it.
-                lfhOff = this.mapper.map(entry.getOffset());
-                if (lfhOff < this.preamble)
-                    this.preamble = lfhOff;
-            } catch (IllegalArgumentException cause) {
-                throw (ZipException) new ZipException(entry.getName()
-                        + " (invalid meta data)").initCause(cause);
-            }
+            final E entry = newEntry(cfh, 0, this.charset);
+            // Re-read virtual offset after ZIP64 Extended Information
+            // Extra Field may have been parsed, map it to the real
+            // offset and conditionally update the preamble size from it.
+            final long lfhOff = this.mapper.map(entry.getOffset());
+            if (lfhOff < this.preamble)
+                this.preamble = lfhOff;
 
             // Map the entry using the name that has been determined
             // by the ZipEntryFactory.
@@ -457,9 +548,117 @@ implements Iterable<E>, Closeable {
             // in the ZIP file!
             entries.put(entry.getName(), entry);
         }
+        checkNumEntries(numEntries);
+
+        // Commit map of entries.
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the central directory from the given read only file in one go
+     * and populates the internal tables with an index of the Central File
+     * Headers instead of ZipEntry instances.
+     * The ZipEntry instances get created on demand when they are looked up
+     * or iterated.
+     * <p>
+     * If the central directory does not fit into a byte array or contains
+     * entries with equal names, then this method resets the file pointer
+     * and returns {@code false} so that the caller can mount the central
+     * directory eagerly.
+     *
+     * @return Whether or not the central directory has been mounted.
+     * @throws ZipException If the file is not compatible to the ZIP File
+     *         Format Specification.
+     * @throws IOException On any other I/O related issue.
+     */
+    private boolean mountLazyCentralDirectory(
+            final ReadOnlyFile rof,
+            int numEntries)
+    throws IOException {
+        final long start = rof.getFilePointer();
+        final long length = this.preamble - start;
+        if (0 > length || Integer.MAX_VALUE < length)
+            return false;
+        final byte[] cd = new byte[(int) length];
+        rof.readFully(cd);
+        final Charset charset = this.charset;
+        final boolean ascii = isAsciiCompatible(charset);
+        int[] offsets = new int[Math.max(numEntries, 16)];
+        int[] hashes = new int[offsets.length];
+        int size = 0, utf8 = -1;
+        long preamble = this.preamble;
+        for (int off = 0;
+                off + CFH_MIN_LEN <= cd.length && CFH_SIG == readUInt(cd, off);
+                numEntries--) {
+            final int nameLen = readUShort(cd, off + 28);
+            final int end = off + CFH_MIN_LEN + nameLen
+                    + readUShort(cd, off + 30) + readUShort(cd, off + 32);
+            if (end > cd.length)
+                break;
+            // See appendix D of PKWARE's ZIP File Format Specification.
+            if (0 > utf8 && 0 != (readUShort(cd, off + 8) & GPBF_UTF8))
+                utf8 = size;
+            final Charset cs = 0 <= utf8 ? UTF8 : charset;
+            int hash = 0;
+            boolean decode = !ascii;
+            for (int i = off + CFH_MIN_LEN, l = i + nameLen; i < l; i++) {
+                final byte b = cd[i];
+                if (0 > b) {
+                    decode = true;
+                    break;
+                }
+                hash = 31 * hash + b; // equals String.hashCode()
+            }
+            if (decode)
+                hash = decode(cd, off + CFH_MIN_LEN, nameLen, cs).hashCode();
+            checkExtraFields(cd, off, cs);
+            if (offsets.length <= size) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            offsets[size] = off;
+            hashes[size] = hash;
+            // Only parse the ZIP64 Extended Information Extra Field if
+            // required to update the preamble size.
+            final long lfhOff = UInt.MAX_VALUE == readUInt(cd, off + 42)
+                    ? this.mapper.map(newEntry(cd, off, cs).getOffset())
+                    : this.mapper.map(readUInt(cd, off + 42));
+            if (lfhOff < preamble)
+                preamble = lfhOff;
+            size++;
+            off = end;
+        }
+        final CentralDirectory directory = new CentralDirectory(
+                cd, offsets, hashes, size, utf8, charset);
+        if (!directory.isUnique() || !directory.isNamePreserving()) {
+            rof.seek(start);
+            return false;
+        }
+        checkNumEntries(numEntries);
+        if (0 <= utf8)
+            this.charset = UTF8;
+        this.preamble = preamble;
+        this.entries = directory;
+        return true;
+    }
+
+    private static boolean isAsciiCompatible(final Charset charset) {
+        final byte[] b = new byte[0x80];
+        final char[] c = new char[0x80];
+        for (int i = 0; i < 0x80; i++)
+            c[i] = (char) (b[i] = (byte) i);
+        return new String(c).equals(new String(b, charset));
+    }
 
-        // Check if the number of entries found matches the number of entries
-        // declared in the (ZIP64) End Of Central Directory header.
+    /**
+     * Checks if the number of entries found matches the number of entries
+     * declared in the (ZIP64) End Of Central Directory header.
+     *
+     * @param numEntries the number of declared entries minus the number of
+     *        entries found.
+     */
+    private static void checkNumEntries(final int numEntries)
+    throws ZipException {
         // Sometimes, legacy ZIP32 archives (those without ZIP64 extensions)
         // contain more than the maximum number of entries specified in the
         // ZIP File Format Specification, which is 65535 (= 0xffff, a two byte
@@ -474,9 +673,138 @@ implements Iterable<E>, Closeable {
                     Math.abs(numEntries) +
                     (numEntries > 0 ? " more" : " less") +
                     " entries in the Central Directory!");
+    }
 
-        // Commit map of entries.
-        this.entries = entries;
+    /**
+     * Checks the extra fields of the Central File Header at the given offset
+     * in the given buffer so that {@link #newEntry} does not fail when the
+     * entry gets created on demand for a lazily mounted central directory.
+     * This includes the ZIP64 Extended Information Extra Field, if required.
+     *
+     * @param  cfh the buffer holding the Central File Header.
+     * @param  off the offset of the Central File Header in the buffer.
+     * @param  charset the charset for decoding the file name.
+     * @throws ZipException if the extra fields are invalid.
+     */
+    private static void checkExtraFields(
+            final byte[] cfh,
+            final int off,
+            final Charset charset)
+    throws ZipException {
+        final int nameLen = readUShort(cfh, off + 28);
+        final int extraLen = readUShort(cfh, off + 30);
+        if (0 >= extraLen)
+            return;
+        RuntimeException cause;
+        try {
+            // Like newEntry(), parse a copy so that the extra fields cannot
+            // exceed their bounds.
+            final int extraOff = off + CFH_MIN_LEN + nameLen;
+            final byte[] extra = Arrays.copyOfRange(
+                    cfh, extraOff, extraOff + extraLen);
+            final ExtraFields fields = new ExtraFields();
+            fields.readFrom(extra, 0, extraLen);
+            final ExtraField zip64 = fields.get(ExtraField.ZIP64_HEADER_ID);
+            if (null != zip64) {
+                int required = 0;
+                if (UInt.MAX_VALUE == readUInt(cfh, off + 24))
+                    required += 8; // uncompressed size
+                if (UInt.MAX_VALUE == readUInt(cfh, off + 20))
+                    required += 8; // compressed size
+                if (UInt.MAX_VALUE == readUInt(cfh, off + 42))
+                    required += 8; // relative offset of local header
+                if (zip64.getDataSize() < required)
+                    throw new IndexOutOfBoundsException();
+            }
+            return;
+        } catch (IndexOutOfBoundsException ex) {
+            cause = ex;
+        } catch (IllegalArgumentException ex) {
+            cause = ex;
+        }
+        throw (ZipException) new ZipException(
+                decode(cfh, off + CFH_MIN_LEN, nameLen, charset)
+                + " (invalid meta data)").initCause(cause);
+    }
+
+    /**
+     * Returns a new entry with its properties parsed from the Central File
+     * Header at the given offset in the given buffer.
+     * The buffer must contain the entire Central File Header, including the
+     * file name, extra field and file comment.
+     *
+     * @param  cfh the buffer holding the Central File Header.
+     * @param  off the offset of the Central File Header in the buffer.
+     * @param  charset the charset for decoding the file name and comment.
+     * @return A new entry.
+     * @throws ZipException if the entry has invalid meta data.
+     */
+    private E newEntry(final byte[] cfh, int off, final Charset charset)
+    throws ZipException {
+        final int nameLen = readUShort(cfh, off + 28);
+        final E entry = this.param.newEntry(
+                decode(cfh, off + CFH_MIN_LEN, nameLen, charset));
+        try {
+            // central file header signature   4 bytes  (0x02014b50)
+            off += 4;
+            // version made by                 2 bytes
+            entry.setRawPlatform(readUShort(cfh, off) >> 8);
+            off += 2;
+            // version needed to extract       2 bytes
+            off += 2;
+            // general purpose bit flag        2 bytes
+            entry.setGeneralPurposeBitFlags(readUShort(cfh, off));
+            off += 2; // General Purpose Bit Flags
+            // compression method              2 bytes
+            entry.setRawMethod(readUShort(cfh, off));
+            off += 2;
+            // last mod file time              2 bytes
+            // last mod file date              2 bytes
+            entry.setRawTime(readUInt(cfh, off));
+            off += 4;
+            // crc-32                          4 bytes
+            entry.setRawCrc(readUInt(cfh, off));
+            off += 4;
+            // compressed size                 4 bytes
+            entry.setRawCompressedSize(readUInt(cfh, off));
+            off += 4;
+            // uncompressed size               4 bytes
+            entry.setRawSize(readUInt(cfh, off));
+            off += 4;
+            // file name length                2 bytes
+            off += 2;
+            // extra field length              2 bytes
+            final int extraLen = readUShort(cfh, off);
+            off += 2;
+            // file comment length             2 bytes
+            final int commentLen = readUShort(cfh, off);
+            off += 2;
+            // disk number start               2 bytes
+            off += 2;
+            // internal file attributes        2 bytes
+            //entry.setEncodedInternalAttributes(readUShort(cfh, off));
+            off += 2;
+            // external file attributes        4 bytes
+            entry.setRawExternalAttributes(readUInt(cfh, off));
+            off += 4;
+            // relative offset of local header 4 bytes
+            entry.setRawOffset(readUInt(cfh, off)); // must be unmapped!
+            off += 4;
+            // file name (variable size)
+            off += nameLen;
+            // extra field (variable size)
+            if (0 < extraLen)
+                entry.setRawExtraFields(
+                        Arrays.copyOfRange(cfh, off, off + extraLen));
+            off += extraLen;
+            // file comment (variable size)
+            if (0 < commentLen)
+                entry.setRawComment(decode(cfh, off, commentLen, charset));
+        } catch (IllegalArgumentException cause) {
+            throw (ZipException) new ZipException(entry.getName()
+                    + " (invalid meta data)").initCause(cause);
+        }
+        return entry;
     }
 
     /**
@@ -506,6 +834,8 @@ implements Iterable<E>, Closeable {
      * @throws IOException if any other I/O error occurs.
      */
     public void recoverLostEntries() throws IOException {
+        if (0 < this.postamble && !(entries instanceof LinkedHashMap))
+            entries = new LinkedHashMap<String, E>(entries);
         final long length = this.length;
         final ReadOnlyFile rof = new SafeBufferedReadOnlyFile(rof(), length);
         while (0 < this.postamble) {
@@ -720,6 +1050,11 @@ implements Iterable<E>, Closeable {
         return new String(bytes, charset);
     }
 
+    private static String decode(   byte[] bytes, int off, int len,
+                                    Charset charset) {
+        return new String(bytes, off, len, charset);
+    }
+
     final byte[] getRawComment() {
         return this.comment;
     }
@@ -739,7 +1074,120 @@ implements Iterable<E>, Closeable {
      * one or more entries.
      */
     public boolean busy() {
-        return 0 < open;
+        return 0 < open.get();
+    }
+
+    /**
+     * Returns the maximum number of blocks to decompress in parallel when
+     * reading an entry.
+     * The initial value is one.
+     *
+     * @return The maximum number of blocks to decompress in parallel when
+     *         reading an entry.
+     * @see    #setParallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of blocks to decompress in parallel when
+     * reading an entry.
+     * If this is greater than one, then the input streams for entries with
+     * the compression method {@link ZipEntry#BZIP2} scan the compressed data
+     * for block boundaries and decode up to this number of blocks ahead by
+     * background threads.
+     *
+     * @param  parallelism the maximum number of blocks to decompress in
+     *         parallel.
+     * @throws IllegalArgumentException if {@code parallelism} is less than
+     *         one.
+     * @see    #getParallelism
+     */
+    public void setParallelism(final int parallelism) {
+        if (1 > parallelism)
+            throw new IllegalArgumentException("Invalid parallelism!");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the maximum size of the encrypted data of an entry which gets
+     * read into memory in order to authenticate it before returning an input
+     * stream for it.
+     * The initial value is zero.
+     *
+     * @return The maximum size of the encrypted data of an entry which gets
+     *         read into memory in order to authenticate it before returning
+     *         an input stream for it.
+     * @see    #setAuthenticationBufferSize
+     */
+    public int getAuthenticationBufferSize() {
+        return authenticationBufferSize;
+    }
+
+    /**
+     * Sets the maximum size of the encrypted data of an entry which gets
+     * read into memory in order to authenticate it before returning an input
+     * stream for it.
+     * If the encrypted data of an authenticated entry does not exceed this
+     * size, then {@link #getInputStream(String, Boolean, boolean)} reads it
+     * into memory, authenticates it and then decrypts it from memory, so
+     * that the encrypted data gets read only once.
+     * Otherwise, the encrypted data gets read twice: Once in order to
+     * authenticate it and once more in order to decrypt it, unless
+     * {@linkplain #setStreamingAuthentication streaming authentication} is
+     * enabled.
+     *
+     * @param  size the maximum size of the encrypted data of an entry which
+     *         gets read into memory in order to authenticate it.
+     * @throws IllegalArgumentException if {@code size} is negative.
+     * @see    #getAuthenticationBufferSize
+     */
+    public void setAuthenticationBufferSize(final int size) {
+        if (0 > size)
+            throw new IllegalArgumentException("Invalid authentication buffer size!");
+        this.authenticationBufferSize = size;
+    }
+
+    /**
+     * Returns whether or not encrypted entries which exceed the
+     * {@linkplain #getAuthenticationBufferSize authentication buffer size}
+     * get authenticated while their input stream gets read.
+     * The initial value is {@code false}.
+     *
+     * @return Whether or not encrypted entries get authenticated while their
+     *         input stream gets read.
+     * @see    #setStreamingAuthentication
+     */
+    public boolean getStreamingAuthentication() {
+        return streamingAuthentication;
+    }
+
+    /**
+     * Sets whether or not encrypted entries which exceed the
+     * {@linkplain #getAuthenticationBufferSize authentication buffer size}
+     * get authenticated while their input stream gets read.
+     * If this is {@code true}, then
+     * {@link #getInputStream(String, Boolean, boolean)} returns an input
+     * stream which computes the MAC value while the encrypted data gets read,
+     * so that it needs to get read only once.
+     * However, the entry data is then returned <em>before</em> it has been
+     * authenticated and a {@link ZipAuthenticationException} gets thrown
+     * only when the end of the entry stream is reached or when the stream
+     * gets closed after reaching its end (post-check).
+     * If the stream gets closed before reaching its end, then the MAC value
+     * does not get checked at all, because this would require to read the
+     * remaining encrypted data.
+     * <p>
+     * If this is {@code false}, then the encrypted data always gets
+     * authenticated before the input stream gets returned (pre-check).
+     *
+     * @param  streaming whether or not encrypted entries get authenticated
+     *         while their input stream gets read.
+     * @see    #getStreamingAuthentication
+     */
+    public void setStreamingAuthentication(final boolean streaming) {
+        this.streamingAuthentication = streaming;
     }
 
     /**
@@ -793,6 +1241,24 @@ implements Iterable<E>, Closeable {
         return entries.get(name);
     }
 
+    /**
+     * Returns the entry for the given name or {@code null} if no entry with
+     * this name exists.
+     *
+     * @throws ZipException if the central directory has been mounted lazily
+     *         and the entry has invalid meta data.
+     */
+    private ZipEntry entry(final String name) throws ZipException {
+        try {
+            return entries.get(name);
+        } catch (IllegalStateException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof ZipException)
+                throw (ZipException) cause;
+            throw ex;
+        }
+    }
+
     /**
      * Returns the file length of this ZIP file in bytes.
      */
@@ -860,6 +1326,65 @@ implements Iterable<E>, Closeable {
                 new EntryReadOnlyFile(length - postamble, postamble));
     }
 
+    /**
+     * Returns {@code true} if and only if the preamble of this ZIP file
+     * starts with a Local File Header.
+     * This indicates that the preamble does not contain e.g. a self
+     * extracting executable, but only entries which have been superseded by
+     * appending new or updated entries and a new central directory to this
+     * ZIP file.
+     *
+     * @throws ZipException If this ZIP file has been closed.
+     * @throws IOException On any other I/O error.
+     */
+    public boolean isPreambleRedundant() throws IOException {
+        if (LFH_MIN_LEN > preamble)
+            return false;
+        final byte[] sig = new byte[4];
+        final DataInputStream in = new DataInputStream(getPreambleInputStream());
+        try {
+            in.readFully(sig);
+        } finally {
+            in.close();
+        }
+        return LFH_SIG == readUInt(sig, 0);
+    }
+
+    /**
+     * Returns an estimate of the number of redundant bytes in this ZIP file.
+     * These are all bytes which are neither part of the postamble nor of the
+     * headers, the contents or the central directory of the current entries,
+     * nor part of the preamble unless it's
+     * {@link #isPreambleRedundant() redundant}.
+     * Redundant bytes are typically caused by appending new or updated
+     * entries and a new central directory to this ZIP file, e.g. with the
+     * output option {@code GROW} in the TrueZIP Kernel.
+     * <p>
+     * This method performs in the order of <i>O(n)</i>, where <i>n</i> is the
+     * number of entries in this ZIP file.
+     *
+     * @return An estimate of the number of redundant bytes in this ZIP file.
+     * @throws ZipException If this ZIP file has been closed.
+     * @throws IOException On any other I/O error.
+     */
+    public long getRedundantLength() throws IOException {
+        long live = EOCDR_MIN_LEN + (null == comment ? 0 : comment.length);
+        for (final E entry : entries.values()) {
+            final int name = entry.getName().getBytes(charset).length;
+            final byte[] extra = entry.getRawExtraFields();
+            final int headers = name + (null == extra ? 0 : extra.length);
+            final String c = entry.getRawComment();
+            live += LFH_MIN_LEN + CFH_MIN_LEN + 2 * headers
+                    + (null == c ? 0 : c.getBytes(charset).length)
+                    + entry.getCompressedSize();
+            if (entry.getGeneralPurposeBitFlag(GPBF_DATA_DESCRIPTOR))
+                live += entry.isZip64ExtensionsRequired() ? 24 : 16;
+        }
+        final long total = length - postamble
+                - (isPreambleRedundant() ? 0 : preamble);
+        return Math.max(0, total - live);
+    }
+
     final PositionMapper getOffsetMapper() {
         return mapper;
     }
@@ -941,6 +1466,14 @@ implements Iterable<E>, Closeable {
      *             If this check fails, then a
      *             {@link ZipAuthenticationException} gets thrown from this
      *             method (pre-check).
+     *             However, if
+     *             {@linkplain #getStreamingAuthentication streaming authentication}
+     *             is enabled and the encrypted data exceeds the
+     *             {@linkplain #getAuthenticationBufferSize authentication buffer size},
+     *             then the MAC value gets computed while the entry stream
+     *             gets read and if this check fails, then a
+     *             {@link ZipAuthenticationException} gets thrown when the
+     *             end of the entry stream is reached (post-check).
      *         <li>If the entry is <em>not</em> encrypted, then the CRC-32
      *             value gets computed and checked.
      *             First, the local file header is checked to hold the same
@@ -972,29 +1505,12 @@ implements Iterable<E>, Closeable {
         final ReadOnlyFile rof = rof();
         if (name == null)
             throw new NullPointerException();
-        final ZipEntry entry = entries.get(name);
+        final ZipEntry entry = entry(name);
         if (entry == null)
             return null;
-        long fp = entry.getOffset();
-        assert UNKNOWN != fp;
-        fp = mapper.map(fp);
-        rof.seek(fp);
         final byte[] lfh = new byte[LFH_MIN_LEN];
-        rof.readFully(lfh);
-        if (LFH_SIG != readUInt(lfh, 0))
-            throw new ZipException(name + " (expected Local File Header)");
-        fp += LFH_MIN_LEN
-                + readUShort(lfh, LFH_FILE_NAME_LENGTH_OFF) // file name length
-                + readUShort(lfh, LFH_FILE_NAME_LENGTH_OFF + 2); // extra field length
-        ReadOnlyFile erof;
-        try {
-            erof = new EntryReadOnlyFile(
-                    fp, entry.getCompressedSize());
-        } catch (IllegalArgumentException ex) {
-            throw (IOException) new ZipException(name +
-                    " (invalid meta data in Local File Header or Central Directory Record)"
-                    ).initCause(ex);
-        }
+        final long fp = readLocalFileHeader(rof, entry, lfh);
+        ReadOnlyFile erof = newEntryReadOnlyFile(entry, fp);
         try {
             if (!process) {
                 assert UNKNOWN != entry.getCrc();
@@ -1002,6 +1518,7 @@ implements Iterable<E>, Closeable {
             }
             if (null == check)
                 check = entry.isEncrypted();
+            WinZipAesEntryReadOnlyFile mac = null;
             int method = entry.getMethod();
             if (entry.isEncrypted()) {
                 if (WINZIP_AES != method)
@@ -1018,7 +1535,12 @@ implements Iterable<E>, Closeable {
                                     entry));
                 erof = eerof;
                 if (check) {
-                    eerof.authenticate();
+                    if (!eerof.authenticate(authenticationBufferSize)) {
+                        if (streamingAuthentication)
+                            mac = eerof;
+                        else
+                            eerof.authenticate();
+                    }
                     // Disable redundant CRC-32 check.
                     check = false;
                 }
@@ -1036,8 +1558,7 @@ implements Iterable<E>, Closeable {
                     // All newer apps should write it (and so does TrueZIP),
                     // but older apps might not.
                     final byte[] dd = new byte[8];
-                    rof.seek(fp + entry.getCompressedSize());
-                    rof.readFully(dd);
+                    readFully(rof, fp + entry.getCompressedSize(), dd);
                     localCrc = readUInt(dd, 0);
                     if (DD_SIG == localCrc)
                         localCrc = readUInt(dd, 4);
@@ -1059,8 +1580,14 @@ implements Iterable<E>, Closeable {
                             bufSize);
                     break;
                 case BZIP2:
-                    in = new BZip2CompressorInputStream(
-                            new ReadOnlyFileInputStream(erof));
+                    final int parallelism = this.parallelism;
+                    in = 1 < parallelism
+                            ? new ParallelBZip2CompressorInputStream(
+                                new ReadOnlyFileInputStream(erof),
+                                CompressorThreads.executor,
+                                parallelism)
+                            : new BZip2CompressorInputStream(
+                                new ReadOnlyFileInputStream(erof));
                     break;
                 default:
                     throw new ZipException(name
@@ -1068,6 +1595,8 @@ implements Iterable<E>, Closeable {
                             + method
                             + " is not supported)");
             }
+            if (null != mac)
+                in = new WinZipAesMacInputStream(in, mac);
             if (check)
                 in = new Crc32InputStream(in, entry, bufSize);
             return in;
@@ -1077,6 +1606,185 @@ implements Iterable<E>, Closeable {
         }
     }
 
+    /**
+     * Returns a {@code ReadOnlyFile} for random access to the contents of the
+     * given entry.
+     * <p>
+     * For STORED entries, the returned read only file provides a direct
+     * view of the entry data in this ZIP file.
+     * For DEFLATED entries, the returned read only file inflates the entry
+     * data on demand, so that random access does not require to extract the
+     * entry to a temporary file first.
+     * However, seeking backwards beyond its buffer restarts inflating from the
+     * start of the entry data.
+     * If the entry is WinZip AES encrypted, the entry data gets decrypted,
+     * too.
+     * <p>
+     * If the {@link #close} method is called on this instance, all read only
+     * files returned by this method become unusable, too.
+     *
+     * @param  name The name of the entry to get the read only file for.
+     * @param  check Whether or not the entry content gets authenticated.
+     *         If this parameter is {@code null}, then it is set to the
+     *         {@link ZipEntry#isEncrypted()} property of the given entry.
+     *         If this parameter is {@code true} and the entry is encrypted,
+     *         then the Message Authentication Code (MAC) value gets computed
+     *         and checked.
+     *         If this check fails, then a {@link ZipAuthenticationException}
+     *         gets thrown from this method (pre-check).
+     *         If this parameter is {@code true} and the entry is <em>not</em>
+     *         encrypted, then the local file header is checked to hold the
+     *         same CRC-32 value than the central directory record.
+     *         Note that the CRC-32 value of the entry data cannot get
+     *         checked for random access.
+     * @return A read only file to read the entry data from or {@code null} if
+     *         the entry does not exist.
+     * @throws ZipAuthenticationException If the entry is encrypted and
+     *         checking the MAC fails.
+     * @throws ZipException If this file is not compatible to the ZIP File
+     *         Format Specification or the compression method of the entry
+     *         does not support random access.
+     * @throws IOException If the entry cannot get read from this ZipFile.
+     */
+    protected ReadOnlyFile getReadOnlyFile(
+            final String name,
+            Boolean check)
+    throws IOException {
+        final ReadOnlyFile rof = rof();
+        if (name == null)
+            throw new NullPointerException();
+        final ZipEntry entry = entry(name);
+        if (entry == null)
+            return null;
+        final byte[] lfh = new byte[LFH_MIN_LEN];
+        final long fp = readLocalFileHeader(rof, entry, lfh);
+        ReadOnlyFile erof = newEntryReadOnlyFile(entry, fp);
+        try {
+            if (null == check)
+                check = entry.isEncrypted();
+            int method = entry.getMethod();
+            if (entry.isEncrypted()) {
+                if (WINZIP_AES != method)
+                    throw new ZipException(name
+                            + " (encrypted compression method "
+                            + method
+                            + " is not supported)");
+                final WinZipAesEntryReadOnlyFile
+                        eerof = new WinZipAesEntryReadOnlyFile(erof,
+                                new WinZipAesEntryParameters(
+                                    parameters(
+                                        WinZipAesParameters.class,
+                                        getCryptoParameters()),
+                                    entry));
+                erof = eerof;
+                if (check && !eerof.authenticate(authenticationBufferSize))
+                    eerof.authenticate();
+                final WinZipAesEntryExtraField field
+                        = (WinZipAesEntryExtraField) entry.getExtraField(WINZIP_AES_ID);
+                method = field.getMethod();
+            } else if (check
+                    && !entry.getGeneralPurposeBitFlag(GPBF_DATA_DESCRIPTOR)) {
+                // Check CRC32 in the Local File Header.
+                final long localCrc = readUInt(lfh, 14);
+                if (entry.getCrc() != localCrc)
+                    throw new CRC32Exception(name, entry.getCrc(), localCrc);
+            }
+            switch (method) {
+                case STORED:
+                    return erof;
+                case DEFLATED:
+                    final int bufSize = getBufferSize(entry);
+                    return new BufferedReadOnlyFile(
+                            new InflaterReadOnlyFile(erof, entry.getSize(),
+                                bufSize),
+                            bufSize);
+                default:
+                    throw new ZipException(name
+                            + " (compression method "
+                            + method
+                            + " is not supported for random access)");
+            }
+        } catch (final IOException ex) {
+            erof.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads the Local File Header of the given entry into the given buffer
+     * and returns the position of the entry data in this ZIP file.
+     */
+    private long readLocalFileHeader(
+            final ReadOnlyFile rof,
+            final ZipEntry entry,
+            final byte[] lfh)
+    throws IOException {
+        long fp = entry.getOffset();
+        assert UNKNOWN != fp;
+        fp = mapper.map(fp);
+        readFully(rof, fp, lfh);
+        if (LFH_SIG != readUInt(lfh, 0))
+            throw new ZipException(entry.getName()
+                    + " (expected Local File Header)");
+        return fp + LFH_MIN_LEN
+                + readUShort(lfh, LFH_FILE_NAME_LENGTH_OFF) // file name length
+                + readUShort(lfh, LFH_FILE_NAME_LENGTH_OFF + 2); // extra field length
+    }
+
+    private ReadOnlyFile newEntryReadOnlyFile(
+            final ZipEntry entry,
+            final long fp)
+    throws IOException {
+        try {
+            return new EntryReadOnlyFile(fp, entry.getCompressedSize());
+        } catch (IllegalArgumentException ex) {
+            throw (IOException) new ZipException(entry.getName() +
+                    " (invalid meta data in Local File Header or Central Directory Record)"
+                    ).initCause(ex);
+        }
+    }
+
+    /**
+     * Reads {@code buf.length} bytes from the given position in the given
+     * read only file into the given buffer.
+     * If the read only file supports positional reads, then its file pointer
+     * does not get changed, so that this method can get called concurrently
+     * with reading other entries.
+     */
+    private static void readFully(
+            final ReadOnlyFile rof,
+            final long pos,
+            final byte[] buf)
+    throws IOException {
+        if (rof instanceof PositionalReadOnlyFile) {
+            final PositionalReadOnlyFile
+                    prof = (PositionalReadOnlyFile) rof;
+            final int len = buf.length;
+            int total = 0;
+            while (total < len) {
+                final int read = prof.read(pos + total, buf, total, len - total);
+                if (0 > read)
+                    throw new EOFException();
+                total += read;
+            }
+        } else {
+            rof.seek(pos);
+            rof.readFully(buf);
+        }
+    }
+
+    /**
+     * Returns {@code true} if and only if the entries of this ZIP file can
+     * get read concurrently because the underlying read only file supports
+     * positional reads.
+     *
+     * @return {@code true} if and only if the entries of this ZIP file can
+     *         get read concurrently.
+     */
+    public final boolean isConcurrentlyReadable() {
+        return rof instanceof PositionalReadOnlyFile;
+    }
+
     private static int getBufferSize(final ZipEntry entry) {
         long size = entry.getSize();
         if (MAX_FLATER_BUF_LENGTH < size)
@@ -1121,7 +1829,7 @@ implements Iterable<E>, Closeable {
         EntryReadOnlyFile(final long start, final long length)
         throws IOException {
             super(rof(), start, length);
-            RawZipFile.this.open++;
+            RawZipFile.this.open.incrementAndGet();
         }
 
         @Override
@@ -1131,10 +1839,220 @@ implements Iterable<E>, Closeable {
             // Never close the raw ZIP file!
             //super.close();
             this.closed = true;
-            RawZipFile.this.open--;
+            RawZipFile.this.open.decrementAndGet();
         }
     } // EntryReadOnlyFile
 
+    /**
+     * An unmodifiable map of entry names to entries which is backed by the
+     * raw central directory.
+     * Entries get looked up by the hash code of their name and get created
+     * and cached on demand.
+     * The iteration order is the order of the Central File Headers.
+     */
+    private final class CentralDirectory extends AbstractMap<String, E> {
+
+        /** The raw central directory. */
+        final byte[] cd;
+
+        /** The offsets of the Central File Headers in {@link #cd}. */
+        final int[] offsets;
+
+        /** The hash codes of the entry names. */
+        final int[] hashes;
+
+        /**
+         * The hash table of indexes plus one into {@link #offsets},
+         * using open addressing with linear probing.
+         */
+        final int[] table;
+
+        /** The number of entries. */
+        final int size;
+
+        /**
+         * The index of the first entry with the UTF-8 general purpose bit
+         * flag or a negative value if there is no such entry.
+         * This and all subsequent entries need to get decoded using UTF-8.
+         */
+        final int utf8;
+
+        /** The charset for decoding the entries before {@link #utf8}. */
+        final Charset charset;
+
+        /** The cached entries. Guarded by this. */
+        final Object[] cache;
+
+        CentralDirectory(
+                final byte[] cd,
+                final int[] offsets,
+                final int[] hashes,
+                final int size,
+                final int utf8,
+                final Charset charset) {
+            this.cd = cd;
+            this.offsets = offsets;
+            this.hashes = hashes;
+            this.size = size;
+            this.utf8 = utf8;
+            this.charset = charset;
+            this.cache = new Object[size];
+            final int[] table = this.table
+                    = new int[Integer.highestOneBit(Math.max(size, 8)) << 2];
+            final int mask = table.length - 1;
+            for (int index = 0; index < size; index++) {
+                int i = spread(hashes[index]) & mask;
+                while (0 != table[i])
+                    i = (i + 1) & mask;
+                table[i] = index + 1;
+            }
+        }
+
+        private int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        /**
+         * Returns {@code true} if and only if no two entries have equal
+         * names.
+         * Only entries with equal name hash codes get compared.
+         */
+        boolean isUnique() {
+            final int[] table = this.table;
+            final int mask = table.length - 1;
+            for (int index = 0; index < size; index++) {
+                final int hash = hashes[index];
+                for (   int i = spread(hash) & mask, other;
+                        0 <= (other = table[i] - 1);
+                        i = (i + 1) & mask) {
+                    if (other == index || hashes[other] != hash)
+                        continue;
+                    if (decode(index).equals(decode(other)))
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns {@code true} if and only if the entry factory creates
+         * entries with the names found in the Central File Headers.
+         * Entries get looked up by the hash codes of these names, so a
+         * factory which changes the names requires the central directory
+         * to get mounted eagerly.
+         * Only the first entry gets probed.
+         *
+         * @throws ZipException if the first entry has invalid meta data.
+         */
+        boolean isNamePreserving() throws ZipException {
+            return 0 >= size || decode(0).equals(
+                    newEntry(cd, offsets[0], charset(0)).getName());
+        }
+
+        private String decode(final int index) {
+            final int off = offsets[index];
+            return RawZipFile.decode(cd, off + CFH_MIN_LEN,
+                    readUShort(cd, off + 28), charset(index));
+        }
+
+        private Charset charset(int index) {
+            return 0 <= utf8 && utf8 <= index ? UTF8 : charset;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object name) {
+            return null != get(name);
+        }
+
+        @Override
+        public E get(final Object name) {
+            if (!(name instanceof String))
+                return null;
+            final int hash = name.hashCode();
+            final int[] table = this.table;
+            final int mask = table.length - 1;
+            for (   int i = spread(hash) & mask, index;
+                    0 <= (index = table[i] - 1);
+                    i = (i + 1) & mask) {
+                if (hashes[index] != hash)
+                    continue;
+                final E entry = entry(index);
+                if (name.equals(entry.getName()))
+                    return entry;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the entry with the given index, creating it on the first
+         * call.
+         *
+         * @throws IllegalStateException if the entry has invalid meta data.
+         *         This does not happen unless the entry factory fails,
+         *         because the meta data gets checked when mounting the
+         *         central directory.
+         *         The cause is a {@link ZipException}.
+         */
+        @SuppressWarnings("unchecked")
+        synchronized E entry(final int index) {
+            E entry = (E) cache[index];
+            if (null == entry) {
+                try {
+                    entry = newEntry(cd, offsets[index], charset(index));
+                } catch (ZipException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                cache[index] = entry;
+            }
+            return entry;
+        }
+
+        @Override
+        public Set<Map.Entry<String, E>> entrySet() {
+            class EntrySet extends AbstractSet<Map.Entry<String, E>> {
+                @Override
+                public Iterator<Map.Entry<String, E>> iterator() {
+                    class EntryIterator implements Iterator<Map.Entry<String, E>> {
+                        int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < size;
+                        }
+
+                        @Override
+                        public Map.Entry<String, E> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            final E entry = entry(index++);
+                            return new SimpleImmutableEntry<String, E>(
+                                    entry.getName(), entry);
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    } // EntryIterator
+
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            } // EntrySet
+
+            return new EntrySet();
+        }
+    } // CentralDirectory
+
     /**
      * A buffered read only file which is safe for use with a concurrently
      * growing file, e.g. when another thread is appending to it.
@@ -15,10 +15,15 @@ import static de.schlichtherle.truezip.zip.WinZipAesEntryExtraField.VV_AE_2;
 import static de.schlichtherle.truezip.zip.WinZipAesUtils.overhead;
 import static de.schlichtherle.truezip.zip.ZipEntry.*;
 import static de.schlichtherle.truezip.zip.ZipParametersUtils.parameters;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.ZipException;
 import libtruezip.compress.bzip2.BZip2CompressorOutputStream;
@@ -38,6 +43,12 @@ public abstract class RawZipOutputStream<E extends ZipEntry>
 extends DecoratingOutputStream
 implements Iterable<E> {
 
+    /**
+     * The default maximum number of bytes to buffer for entries which are
+     * compressed in parallel, which is {@value}.
+     */
+    public static final long DEFAULT_PARALLEL_BUFFER_SIZE = 64 * 1024 * 1024;
+
     private final LEDataOutputStream dos;
 
     /** The charset to use for entry names and comments. */
@@ -68,6 +79,24 @@ implements Iterable<E> {
 
     private OutputMethod processor;
 
+    /** The maximum number of entries to compress in parallel. */
+    private int parallelism = 1;
+
+    /** The maximum number of bytes to buffer for pending entries. */
+    private long parallelBufferSize = DEFAULT_PARALLEL_BUFFER_SIZE;
+
+    /** The size of the blocks to deflate in parallel or zero. */
+    private int deflaterBlockSize;
+
+    /** The current entry if it's buffered for parallel compression. */
+    private CompressionJob job;
+
+    /** The entries which are compressed in parallel, in order. */
+    private final Queue<CompressionJob> jobs = new ArrayDeque<CompressionJob>();
+
+    /** The number of bytes buffered for {@link #jobs}. */
+    private long jobsSize;
+
     /**
      * Constructs a raw ZIP output stream which decorates the given output
      * stream and optionally apppends to the given raw ZIP file.
@@ -284,6 +313,114 @@ implements Iterable<E> {
         this.level = level;
     }
 
+    /**
+     * Returns the maximum number of entries to compress in parallel.
+     * The initial value is one.
+     *
+     * @return The maximum number of entries to compress in parallel.
+     * @see    #setParallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of entries to compress in parallel.
+     * If this is greater than one, then the contents of entries with the
+     * compression method {@link ZipEntry#DEFLATED} or {@link ZipEntry#BZIP2}
+     * which are not encrypted get buffered in memory and compressed by
+     * background threads while the application continues to write subsequent
+     * entries.
+     * The compressed entries are written in the same order as they were
+     * put and in the same format as if they were compressed sequentially.
+     * <p>
+     * If an entry exceeds the memory available according to
+     * {@link #getParallelBufferSize()}, then all pending entries get written
+     * and the entry gets compressed sequentially.
+     * Any other entries get compressed sequentially, too.
+     * However, when compressing an entry sequentially with the method
+     * {@link ZipEntry#BZIP2}, up to this number of blocks get encoded in
+     * parallel.
+     *
+     * @param  parallelism the maximum number of entries to compress in
+     *         parallel.
+     * @throws IllegalArgumentException if {@code parallelism} is less than
+     *         one.
+     * @see    #getParallelism
+     */
+    public void setParallelism(final int parallelism) {
+        if (1 > parallelism)
+            throw new IllegalArgumentException("Invalid parallelism!");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the maximum number of bytes to buffer for entries which are
+     * compressed in parallel.
+     * The initial value is {@link #DEFAULT_PARALLEL_BUFFER_SIZE}.
+     *
+     * @return The maximum number of bytes to buffer for entries which are
+     *         compressed in parallel.
+     * @see    #setParallelBufferSize
+     */
+    public long getParallelBufferSize() {
+        return parallelBufferSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes to buffer for entries which are
+     * compressed in parallel.
+     * This property is only used if {@link #getParallelism()} is greater
+     * than one.
+     *
+     * @param  size the maximum number of bytes to buffer for entries which
+     *         are compressed in parallel.
+     * @throws IllegalArgumentException if {@code size} is negative.
+     * @see    #getParallelBufferSize
+     */
+    public void setParallelBufferSize(final long size) {
+        if (0 > size)
+            throw new IllegalArgumentException("Invalid buffer size!");
+        this.parallelBufferSize = size;
+    }
+
+    /**
+     * Returns the size of the blocks to deflate in parallel within a single
+     * entry or zero if this feature is disabled.
+     * The initial value is zero.
+     *
+     * @return The size of the blocks to deflate in parallel within a single
+     *         entry or zero if this feature is disabled.
+     * @see    #setDeflaterBlockSize
+     */
+    public int getDeflaterBlockSize() {
+        return deflaterBlockSize;
+    }
+
+    /**
+     * Sets the size of the blocks to deflate in parallel within a single
+     * entry or zero in order to disable this feature.
+     * If this is not zero and {@link #getParallelism()} is greater than one,
+     * then the contents of entries which get sequentially compressed with
+     * the method {@link ZipEntry#DEFLATED} are split into blocks of the
+     * given size which get deflated by background threads.
+     * Each block uses the tail of the previous block as its preset
+     * dictionary, so the compression ratio is only slightly worse than with
+     * sequential deflating.
+     * This is most effective for large entries, including those which
+     * exceed the {@link #getParallelBufferSize() parallel buffer size}.
+     *
+     * @param  size the size of the blocks to deflate in parallel or zero.
+     * @throws IllegalArgumentException if {@code size} is negative or less
+     *         than 32 KB, but not zero.
+     * @see    #getDeflaterBlockSize
+     */
+    public void setDeflaterBlockSize(final int size) {
+        if (0 != size && ParallelDeflaterOutputStream.DICTIONARY_SIZE > size)
+            throw new IllegalArgumentException("Invalid block size!");
+        this.deflaterBlockSize = size;
+    }
+
     /**
      * Returns the parameters for encryption or authentication of entries.
      *
@@ -345,15 +482,87 @@ implements Iterable<E> {
         closeEntry();
         final OutputMethod method = newOutputMethod(entry, process);
         method.init(entry.clone()); // test!
-        method.init(entry);
-        this.delegate = method.start();
-        this.processor = method;
+        if (isParallelizable(entry, process)) {
+            final CompressionJob job = new CompressionJob(entry);
+            this.delegate = job;
+            this.job = job;
+            this.finished = false;
+        } else {
+            writeJobs(0);
+            method.init(entry);
+            this.delegate = method.start();
+            this.processor = method;
+        }
         // Store entry now so that a subsequent call to getEntry(...) returns
         // it.
         this.entries.put(entry.getName(), entry);
         this.entry = entry;
     }
 
+    /**
+     * Returns {@code true} if and only if the contents of the given entry
+     * should get buffered and compressed in parallel.
+     * The method of the given entry must already be resolved.
+     */
+    private boolean isParallelizable(
+            final ZipEntry entry,
+            final boolean process) {
+        if (!process || 1 >= this.parallelism || entry.isEncrypted())
+            return false;
+        final int method = entry.getMethod();
+        if (DEFLATED != method && BZIP2 != method)
+            return false;
+        final long size = entry.getSize();
+        return UNKNOWN == size || size <= getAvailableParallelBufferSize();
+    }
+
+    /**
+     * Returns the number of bytes which may get buffered for the current
+     * entry without exceeding the parallel buffer size.
+     */
+    private long getAvailableParallelBufferSize() {
+        return Math.min(this.parallelBufferSize - this.jobsSize,
+                        Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Writes the oldest pending entries which have been compressed in
+     * parallel until no more than the given number of entries is pending.
+     */
+    private void writeJobs(final int max) throws IOException {
+        final Queue<CompressionJob> jobs = this.jobs;
+        while (max < jobs.size())
+            writeJob();
+    }
+
+    /**
+     * Writes the oldest pending entries which have already been compressed
+     * in parallel without waiting for any other entries.
+     */
+    private void writeDoneJobs() throws IOException {
+        final Queue<CompressionJob> jobs = this.jobs;
+        for (CompressionJob job; null != (job = jobs.peek()) && job.isDone(); )
+            writeJob();
+    }
+
+    private void writeJob() throws IOException {
+        final CompressionJob job = this.jobs.remove();
+        try {
+            job.write();
+        } finally {
+            this.jobsSize -= job.size();
+        }
+    }
+
+    /** Cancels all pending entries which have been compressed in parallel. */
+    private void cancelJobs() {
+        final Queue<CompressionJob> jobs = this.jobs;
+        for (CompressionJob job; null != (job = jobs.poll()); ) {
+            job.cancel();
+            this.jobsSize -= job.size();
+        }
+    }
+
     /**
      * Returns a new output method for the given entry.
      * Except the property &quot;method&quot;, this method must not modify the
@@ -465,8 +674,18 @@ implements Iterable<E> {
         final ZipEntry entry = this.entry;
         if (null == entry)
             return;
-        this.processor.finish();
-        this.delegate.flush();
+        final CompressionJob job = this.job;
+        if (null != job) {
+            this.job = null;
+            this.jobs.add(job);
+            this.jobsSize += job.size();
+            job.submit();
+            writeDoneJobs();
+            writeJobs(this.parallelism);
+        } else {
+            this.processor.finish();
+            this.delegate.flush();
+        }
         this.delegate = this.dos;
         this.processor = null;
         this.entry = null;
@@ -494,6 +713,7 @@ implements Iterable<E> {
         if (this.finished)
             return;
         closeEntry();
+        writeJobs(0);
         final LEDataOutputStream dos = this.dos;
         this.cdOffset = dos.size();
         final Iterator<E> i = this.entries.values().iterator();
@@ -682,7 +902,11 @@ implements Iterable<E> {
      */
     @Override
     public void close() throws IOException {
-        finish();
+        try {
+            finish();
+        } finally {
+            cancelJobs();
+        }
         this.delegate.close();
     }
 
@@ -966,22 +1190,12 @@ implements Iterable<E> {
             assert null == this.cout;
             assert null == this.dout;
             OutputStream out = this.delegate.start();
-            final long size = this.entry.getSize();
-            final int blockSize = UNKNOWN != size
-                    ? BZip2CompressorOutputStream.chooseBlockSize(size)
-                    : getBZip2BlockSize();
-            out = this.cout = new BZip2CompressorOutputStream(out, blockSize);
+            out = this.cout = new BZip2CompressorOutputStream(out,
+                    getBZip2BlockSize(this.entry),
+                    CompressorThreads.executor, getParallelism());
             return this.dout = new LEDataOutputStream(out);
         }
 
-        int getBZip2BlockSize() {
-            final int level = RawZipOutputStream.this.getLevel();
-            if (BZip2CompressorOutputStream.MIN_BLOCKSIZE <= level
-                    && level <= BZip2CompressorOutputStream.MAX_BLOCKSIZE)
-                return level;
-            return BZip2CompressorOutputStream.MAX_BLOCKSIZE;
-        }
-
         @Override
         public void finish()
         throws IOException {
@@ -992,8 +1206,20 @@ implements Iterable<E> {
         }
     } // BZip2OutputMethod
 
+    private int getBZip2BlockSize(final ZipEntry entry) {
+        final long size = entry.getSize();
+        if (UNKNOWN != size)
+            return BZip2CompressorOutputStream.chooseBlockSize(size);
+        final int level = getLevel();
+        if (BZip2CompressorOutputStream.MIN_BLOCKSIZE <= level
+                && level <= BZip2CompressorOutputStream.MAX_BLOCKSIZE)
+            return level;
+        return BZip2CompressorOutputStream.MAX_BLOCKSIZE;
+    }
+
     private final class DeflaterOutputMethod extends DecoratingOutputMethod {
         ZipDeflaterOutputStream out;
+        ParallelDeflaterOutputStream pout;
         ZipEntry entry;
 
         DeflaterOutputMethod(OutputMethod processor) {
@@ -1010,6 +1236,18 @@ implements Iterable<E> {
         @Override
         public OutputStream start() throws IOException {
             assert null == this.out;
+            assert null == this.pout;
+            final int blockSize = getDeflaterBlockSize();
+            final int parallelism = getParallelism();
+            final long size = this.entry.getSize();
+            if (0 < blockSize && 1 < parallelism
+                    && (UNKNOWN == size || blockSize < size))
+                return this.pout = new ParallelDeflaterOutputStream(
+                        this.delegate.start(),
+                        CompressorThreads.executor,
+                        getLevel(),
+                        blockSize,
+                        parallelism);
             return this.out = new ZipDeflaterOutputStream(
                     this.delegate.start(),
                     RawZipOutputStream.this.getLevel(),
@@ -1018,16 +1256,250 @@ implements Iterable<E> {
 
         @Override
         public void finish() throws IOException {
+            final ParallelDeflaterOutputStream pout = this.pout;
+            if (null != pout) {
+                pout.finish();
+                this.entry.setRawSize(pout.getBytesRead());
+                this.pout = null;
+                this.delegate.finish();
+                return;
+            }
             this.out.finish();
             final Deflater deflater = this.out.getDeflater();
             final ZipEntry entry = this.entry;
             //entry.setRawCompressedSize(deflater.getBytesWritten());
             entry.setRawSize(deflater.getBytesRead());
-            deflater.end();
+            this.out.end();
+            this.out = null;
             this.delegate.finish();
         }
     } // DeflaterOutputMethod
 
+    /**
+     * Writes the contents of an entry which has been compressed in parallel
+     * by a {@link CompressionJob}.
+     */
+    private final class PrecompressedOutputMethod
+    extends DecoratingOutputMethod {
+        final CompressionJob job;
+        ZipEntry entry;
+
+        PrecompressedOutputMethod(
+                final OutputMethod processor,
+                final CompressionJob job) {
+            super(processor);
+            this.job = job;
+        }
+
+        @Override
+        public void init(final ZipEntry entry) throws ZipException  {
+            entry.setCompressedSize(UNKNOWN);
+            this.delegate.init(entry);
+            this.entry = entry;
+        }
+
+        @Override
+        public OutputStream start() throws IOException {
+            return this.delegate.start();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            final ZipEntry entry = this.entry;
+            entry.setRawCrc(this.job.crc);
+            entry.setRawSize(this.job.size());
+            this.delegate.finish();
+        }
+    } // PrecompressedOutputMethod
+
+    /**
+     * Buffers the contents of an entry and compresses them in a background
+     * thread.
+     * If the buffered contents exceed the available parallel buffer size,
+     * then this job writes all pending entries and falls back to compressing
+     * the entry sequentially.
+     */
+    private final class CompressionJob
+    extends OutputStream
+    implements Callable<Void> {
+        final ZipEntry entry;
+        final int method;
+        final int level;
+        final int blockSize;
+        byte[] buf = new byte[MAX_FLATER_BUF_LENGTH];
+        int count;
+        OutputStream out;
+        Future<Void> future;
+        long crc;
+        CompressedBuffer data;
+
+        CompressionJob(final ZipEntry entry) {
+            this.entry = entry;
+            this.method = entry.getMethod();
+            this.level = getLevel();
+            this.blockSize = getBZip2BlockSize(entry);
+        }
+
+        /** Returns the number of bytes buffered by this job. */
+        int size() {
+            return this.count;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (null == this.out && this.count < this.buf.length)
+                this.buf[this.count++] = (byte) b;
+            else
+                write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+        throws IOException {
+            if (null != this.out) {
+                this.out.write(b, off, len);
+                return;
+            }
+            final int count = this.count;
+            final long needed = (long) count + len;
+            if (needed > this.buf.length) {
+                while (needed > getAvailableParallelBufferSize()
+                        && !RawZipOutputStream.this.jobs.isEmpty())
+                    writeJob();
+                final long available = getAvailableParallelBufferSize();
+                if (needed > available) {
+                    fallback().write(b, off, len);
+                    return;
+                }
+                final byte[] buf = new byte[(int) Math.max(needed,
+                        Math.min(2L * this.buf.length, available))];
+                System.arraycopy(this.buf, 0, buf, 0, count);
+                this.buf = buf;
+            }
+            System.arraycopy(b, off, this.buf, count, len);
+            this.count = count + len;
+        }
+
+        /**
+         * Starts compressing the entry sequentially, writes the buffered
+         * contents and returns the output stream for the remaining contents.
+         */
+        private OutputStream fallback() throws IOException {
+            assert RawZipOutputStream.this.jobs.isEmpty();
+            final OutputMethod method = newOutputMethod(this.entry, true);
+            method.init(this.entry);
+            final OutputStream out = method.start();
+            out.write(this.buf, 0, this.count);
+            this.buf = null;
+            this.count = 0;
+            RawZipOutputStream.this.job = null;
+            RawZipOutputStream.this.processor = method;
+            RawZipOutputStream.this.delegate = out;
+            return this.out = out;
+        }
+
+        void submit() {
+            assert null == this.future;
+            this.future = CompressorThreads.executor.submit(this);
+        }
+
+        boolean isDone() {
+            return this.future.isDone();
+        }
+
+        void cancel() {
+            this.future.cancel(true);
+        }
+
+        @Override
+        public Void call() throws IOException {
+            final byte[] buf = this.buf;
+            final int count = this.count;
+            final CRC32 crc = new CRC32();
+            crc.update(buf, 0, count);
+            final CompressedBuffer data = new CompressedBuffer(
+                    Math.max(count / 2, MAX_FLATER_BUF_LENGTH));
+            switch (this.method) {
+                case DEFLATED:
+                    final ZipDeflaterOutputStream dout
+                            = new ZipDeflaterOutputStream(data, this.level,
+                                MAX_FLATER_BUF_LENGTH);
+                    try {
+                        dout.write(buf, 0, count);
+                        dout.finish();
+                    } finally {
+                        dout.end();
+                    }
+                    break;
+                case BZIP2:
+                    final BZip2CompressorOutputStream cout
+                            = new BZip2CompressorOutputStream(data,
+                                this.blockSize);
+                    cout.write(buf, 0, count);
+                    cout.finish();
+                    break;
+                default:
+                    throw new AssertionError();
+            }
+            this.crc = crc.getValue();
+            this.data = data;
+            this.buf = null;
+            return null;
+        }
+
+        /**
+         * Waits until the entry has been compressed and writes it to the
+         * underlying stream.
+         */
+        void write() throws IOException {
+            await();
+            final OutputMethod method = new PrecompressedOutputMethod(
+                    new RawOutputMethod(true), this);
+            method.init(this.entry);
+            final CompressedBuffer data = this.data;
+            method.start().write(data.getBuffer(), 0, data.size());
+            method.finish();
+            this.data = null;
+        }
+
+        private void await() throws IOException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        this.future.get();
+                        return;
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    } catch (ExecutionException ex) {
+                        final Throwable cause = ex.getCause();
+                        if (cause instanceof IOException)
+                            throw (IOException) cause;
+                        else if (cause instanceof RuntimeException)
+                            throw (RuntimeException) cause;
+                        else if (cause instanceof Error)
+                            throw (Error) cause;
+                        throw new AssertionError(cause);
+                    }
+                }
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt(); // restore
+            }
+        }
+    } // CompressionJob
+
+    /** Provides access to the buffer of a byte array output stream. */
+    private static final class CompressedBuffer extends ByteArrayOutputStream {
+        CompressedBuffer(int size) {
+            super(size);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    } // CompressedBuffer
+
     private abstract class Crc32OutputMethod extends DecoratingOutputMethod {
         Crc32OutputStream out;
 
@@ -5,18 +5,18 @@
 package de.schlichtherle.truezip.zip;
 
 import de.schlichtherle.truezip.crypto.CipherOutputStream;
+import de.schlichtherle.truezip.crypto.CryptoProvider;
 import de.schlichtherle.truezip.crypto.FilterMacOutputStream;
+import de.schlichtherle.truezip.crypto.SeekableBufferedBlockCipher;
+import de.schlichtherle.truezip.crypto.param.AesKeyStrength;
 import de.schlichtherle.truezip.crypto.param.KeyStrength;
 import de.schlichtherle.truezip.io.LEDataOutputStream;
 
 import java.io.IOException;
 import java.security.SecureRandom;
-import libtruezip.lcrypto.crypto.BufferedBlockCipher;
 import libtruezip.lcrypto.crypto.Mac;
 import libtruezip.lcrypto.crypto.PBEParametersGenerator;
-import libtruezip.lcrypto.crypto.digests.SHA1Digest;
 import libtruezip.lcrypto.crypto.generators.PKCS5S2ParametersGenerator;
-import libtruezip.lcrypto.crypto.macs.HMac;
 import libtruezip.lcrypto.crypto.params.KeyParameter;
 import libtruezip.lcrypto.crypto.params.ParametersWithIV;
 
@@ -63,36 +63,36 @@ final class WinZipAesEntryOutputStream extends CipherOutputStream {
             final LEDataOutputStream out,
             final WinZipAesEntryParameters param)
     throws IOException {
-        super(out, new BufferedBlockCipher(new WinZipAesCipher()));
+        super(out, new SeekableBufferedBlockCipher(new WinZipAesCipher()));
         assert null != out;
         assert null != param;
         this.param = param;
 
         // Init key strength.
-        final KeyStrength keyStrength = param.getKeyStrength();
-        final int keyStrengthBits = keyStrength.getBits();
+        final AesKeyStrength keyStrength = param.getKeyStrength();
         final int keyStrengthBytes = keyStrength.getBytes();
 
-        // Shake the salt.
-        final byte[] salt = new byte[keyStrengthBytes / 2];
-        shaker.nextBytes(salt);
-
         // Init password.
         final byte[] passwd = param.getWritePassword();
 
-        // Derive cipher and MAC parameters.
-        final PBEParametersGenerator gen = new PKCS5S2ParametersGenerator();
-        gen.init(passwd, salt, ITERATION_COUNT);
-        // Here comes the strange part about WinZip AES encryption:
-        // Its unorthodox use of the Password-Based Key Derivation
-        // Function 2 (PBKDF2) of PKCS #5 V2.0 alias RFC 2898.
-        // Yes, the password verifier is only a 16 bit value.
-        // So we must use the MAC for password verification, too.
-        assert AES_BLOCK_SIZE_BITS <= keyStrengthBits;
-        final KeyParameter keyParam =
-                (KeyParameter) gen.generateDerivedParameters(
-                    2 * keyStrengthBits + PWD_VERIFIER_BITS);
-        paranoidWipe(passwd); // must not wipe before generator use!
+        // Shake the salt and derive cipher and MAC parameters.
+        final byte[] salt;
+        final KeyParameter keyParam;
+        final WinZipAesKeyCache cache = param.getKeyCache();
+        if (null != cache) {
+            final WinZipAesKeyCache.DerivedKey key
+                    = cache.newKey(passwd, keyStrength);
+            salt = key.salt;
+            keyParam = new KeyParameter(key.key);
+            paranoidWipe(key.key);
+        } else {
+            salt = new byte[keyStrengthBytes / 2];
+            shaker.nextBytes(salt);
+            final byte[] key = deriveKey(passwd, salt, keyStrength);
+            keyParam = new KeyParameter(key);
+            paranoidWipe(key);
+        }
+        paranoidWipe(passwd); // must not wipe before key derivation!
 
         // Can you believe they "forgot" the nonce in the CTR mode IV?! :-(
         final byte[] ctrIv = new byte[AES_BLOCK_SIZE_BITS / 8];
@@ -108,7 +108,7 @@ final class WinZipAesEntryOutputStream extends CipherOutputStream {
         this.cipher.init(true, aesCtrParam);
 
         // Init MAC.
-        final Mac mac = this.mac = new HMac(new SHA1Digest());
+        final Mac mac = this.mac = CryptoProvider.get().newHMacSHA1();
         mac.init(sha1HMacParam);
 
         // Reinit chain of output streams as Encrypt-then-MAC.
@@ -120,6 +120,32 @@ final class WinZipAesEntryOutputStream extends CipherOutputStream {
         writePasswordVerifier(keyParam);
     }
 
+    /**
+     * Derives the key for the cipher, the MAC and the password verifier from
+     * the given password and salt.
+     *
+     * @param  passwd the password.
+     * @param  salt the salt.
+     * @param  keyStrength the key strength.
+     * @return The derived key.
+     */
+    static byte[] deriveKey(
+            final byte[] passwd,
+            final byte[] salt,
+            final KeyStrength keyStrength) {
+        final PBEParametersGenerator gen = new PKCS5S2ParametersGenerator();
+        gen.init(passwd, salt, ITERATION_COUNT);
+        // Here comes the strange part about WinZip AES encryption:
+        // Its unorthodox use of the Password-Based Key Derivation
+        // Function 2 (PBKDF2) of PKCS #5 V2.0 alias RFC 2898.
+        // Yes, the password verifier is only a 16 bit value.
+        // So we must use the MAC for password verification, too.
+        final int keyStrengthBits = keyStrength.getBits();
+        assert AES_BLOCK_SIZE_BITS <= keyStrengthBits;
+        return ((KeyParameter) gen.generateDerivedParameters(
+                2 * keyStrengthBits + PWD_VERIFIER_BITS)).getKey();
+    }
+
     private void writePasswordVerifier(KeyParameter keyParam)
     throws IOException {
         this.dos.write(
@@ -45,4 +45,14 @@ final class WinZipAesEntryParameters {
     byte[] getReadPassword(boolean invalid) throws ZipKeyException {
         return param.getReadPassword(entry.getName(), invalid);
     }
+
+    /**
+     * Returns the cache for derived keys which is provided by the WinZip AES
+     * parameters or {@code null} if not available.
+     */
+    WinZipAesKeyCache getKeyCache() {
+        return param instanceof ZipParametersProvider
+                ? ((ZipParametersProvider) param).get(WinZipAesKeyCache.class)
+                : null;
+    }
 }
\ No newline at end of file
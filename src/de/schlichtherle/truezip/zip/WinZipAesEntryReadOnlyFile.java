@@ -5,6 +5,7 @@
 package de.schlichtherle.truezip.zip;
 
 import de.schlichtherle.truezip.crypto.CipherReadOnlyFile;
+import de.schlichtherle.truezip.crypto.CryptoProvider;
 import de.schlichtherle.truezip.crypto.SeekableBlockCipher;
 import de.schlichtherle.truezip.crypto.SuspensionPenalty;
 import de.schlichtherle.truezip.crypto.param.AesKeyStrength;
@@ -15,10 +16,6 @@ import static de.schlichtherle.truezip.zip.WinZipAesEntryOutputStream.*;
 import java.io.EOFException;
 import java.io.IOException;
 import libtruezip.lcrypto.crypto.Mac;
-import libtruezip.lcrypto.crypto.PBEParametersGenerator;
-import libtruezip.lcrypto.crypto.digests.SHA1Digest;
-import libtruezip.lcrypto.crypto.generators.PKCS5S2ParametersGenerator;
-import libtruezip.lcrypto.crypto.macs.HMac;
 import libtruezip.lcrypto.crypto.params.KeyParameter;
 import libtruezip.lcrypto.crypto.params.ParametersWithIV;
 
@@ -61,7 +58,6 @@ final class WinZipAesEntryReadOnlyFile extends CipherReadOnlyFile {
 
         // Get key strength.
         final AesKeyStrength keyStrength = field.getKeyStrength();
-        final int keyStrengthBits = keyStrength.getBits();
         final int keyStrengthBytes = keyStrength.getBytes();
 
         // Load salt.
@@ -74,7 +70,7 @@ final class WinZipAesEntryReadOnlyFile extends CipherReadOnlyFile {
         rof.readFully(passwdVerifier);
 
         // Init MAC and authentication code.
-        final Mac mac = new HMac(new SHA1Digest());
+        final Mac mac = CryptoProvider.get().newHMacSHA1();
         this.authenticationCode = new byte[mac.getMacSize() / 2];
 
         // Init start, end and length of encrypted data.
@@ -99,7 +95,7 @@ final class WinZipAesEntryReadOnlyFile extends CipherReadOnlyFile {
         }
 
         // Derive cipher and MAC parameters.
-        final PBEParametersGenerator gen = new PKCS5S2ParametersGenerator();
+        final WinZipAesKeyCache cache = param.getKeyCache();
         KeyParameter keyParam;
         ParametersWithIV aesCtrParam;
         KeyParameter sha1MacParam;
@@ -108,15 +104,11 @@ final class WinZipAesEntryReadOnlyFile extends CipherReadOnlyFile {
             final byte[] passwd = param.getReadPassword(0 != lastTry);
             assert null != passwd;
 
-            gen.init(passwd, salt, ITERATION_COUNT);
-            // Here comes the strange part about WinZip AES encryption:
-            // Its unorthodox use of the Password-Based Key Derivation
-            // Function 2 (PBKDF2) of PKCS #5 V2.0 alias RFC 2898.
-            // Yes, the password verifier is only a 16 bit value.
-            // So we must use the MAC for password verification, too.
-            assert AES_BLOCK_SIZE_BITS <= keyStrengthBits;
-            keyParam = (KeyParameter) gen.generateDerivedParameters(
-                    2 * keyStrengthBits + PWD_VERIFIER_BITS);
+            final byte[] key = null != cache
+                    ? cache.getKey(passwd, salt, keyStrength)
+                    : deriveKey(passwd, salt, keyStrength);
+            keyParam = new KeyParameter(key);
+            paranoidWipe(key);
             paranoidWipe(passwd);
 
             // Can you believe they "forgot" the nonce in the CTR mode IV?! :-(
@@ -166,9 +158,59 @@ final class WinZipAesEntryReadOnlyFile extends CipherReadOnlyFile {
      * @throws IOException On any I/O related issue.
      */
     void authenticate() throws IOException {
-        final Mac mac = new HMac(new SHA1Digest());
+        check(computeMac(newMac()));
+    }
+
+    /**
+     * Authenticates all encrypted data in this read only file like
+     * {@link #authenticate()} if its length does not exceed the given maximum
+     * buffer size.
+     * The encrypted data gets read into memory first, so that it needs to get
+     * read only once in order to authenticate and decrypt it.
+     *
+     * @param  maxBufferSize the maximum number of bytes to buffer.
+     * @return {@code true} if the encrypted data has been authenticated or
+     *         {@code false} if it exceeds the given maximum buffer size.
+     * @throws ZipAuthenticationException If the computed MAC does not match
+     *         the MAC declared in the WinZip AES entry.
+     * @throws IOException On any I/O related issue.
+     */
+    boolean authenticate(final int maxBufferSize) throws IOException {
+        if (!buffer(maxBufferSize))
+            return false;
+        authenticate();
+        return true;
+    }
+
+    /**
+     * Starts to authenticate the encrypted data in this read only file while
+     * it gets read.
+     * Use {@link #finishAuthentication()} in order to check the result.
+     */
+    void startAuthentication() {
+        startMac(newMac());
+    }
+
+    /**
+     * Finishes to authenticate the encrypted data in this read only file
+     * since the last call to {@link #startAuthentication()}.
+     * Any encrypted data which has not yet been read gets read now.
+     *
+     * @throws ZipAuthenticationException If the computed MAC does not match
+     *         the MAC declared in the WinZip AES entry.
+     * @throws IOException On any I/O related issue.
+     */
+    void finishAuthentication() throws IOException {
+        check(finishMac());
+    }
+
+    private Mac newMac() {
+        final Mac mac = CryptoProvider.get().newHMacSHA1();
         mac.init(sha1MacParam);
-        final byte[] buf = computeMac(mac);
+        return mac;
+    }
+
+    private void check(final byte[] buf) throws ZipAuthenticationException {
         if (!ArrayHelper.equals(buf, 0, authenticationCode, 0, authenticationCode.length))
             throw new ZipAuthenticationException(entry.getName()
                     + " (authenticated WinZip AES entry content has been tampered with)");
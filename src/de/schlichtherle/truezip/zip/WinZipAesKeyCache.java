@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.crypto.param.AesKeyStrength;
+import de.schlichtherle.truezip.util.ThreadGroups;
+import static de.schlichtherle.truezip.zip.WinZipAesEntryOutputStream.deriveKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import libtruezip.lcrypto.crypto.Digest;
+import libtruezip.lcrypto.crypto.digests.SHA256Digest;
+
+/**
+ * A bounded cache for the keys which get derived from passwords for WinZip
+ * AES entries.
+ * Deriving a key with PBKDF2 is deliberately expensive, so caching the keys
+ * saves repeating the key derivation when reading the same entry again or an
+ * entry which has just been written.
+ * <p>
+ * A cached key is identified by the password, the salt and the key strength.
+ * The password does not get stored: It gets identified by a SHA-256 hash of a
+ * random secret of this cache and the password.
+ * When the cache is full, the least recently used key gets evicted.
+ * Evicted keys get wiped.
+ * <p>
+ * Optionally, this cache derives the key for the next entry to write with the
+ * same password and key strength in the background while the current entry
+ * gets written.
+ * This works because the salt for writing an entry is chosen randomly, so
+ * that it can get chosen in advance.
+ * The keys get derived by pooled daemon threads.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see    WinZipAesParameters
+ * @author Christian Schlichtherle
+ */
+public final class WinZipAesKeyCache implements ZipParameters {
+
+    private final int maxSize;
+    private final boolean prefetch;
+
+    private final SecureRandom shaker = new SecureRandom();
+
+    /** The random secret for identifying passwords. */
+    private final byte[] secret = new byte[32];
+
+    /** The cached keys in access order. */
+    private final Map<Key, byte[]> keys;
+
+    /** The keys which get derived in the background for writing. */
+    private final ConcurrentMap<Key, Future<DerivedKey>> pending
+            = new ConcurrentHashMap<Key, Future<DerivedKey>>();
+
+    private final AtomicLong
+            hits = new AtomicLong(),
+            misses = new AtomicLong();
+
+    /**
+     * Constructs a new WinZip AES key cache which does not derive keys in
+     * the background.
+     *
+     * @param  maxSize the maximum number of keys to cache.
+     * @throws IllegalArgumentException if {@code maxSize} is negative.
+     */
+    public WinZipAesKeyCache(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * Constructs a new WinZip AES key cache.
+     *
+     * @param  maxSize the maximum number of keys to cache.
+     * @param  prefetch whether or not the key for the next entry to write
+     *         with the same password and key strength should get derived in
+     *         the background.
+     * @throws IllegalArgumentException if {@code maxSize} is negative.
+     */
+    public WinZipAesKeyCache(final int maxSize, final boolean prefetch) {
+        if (0 > maxSize)
+            throw new IllegalArgumentException("Negative maximum size!");
+        this.maxSize = maxSize;
+        this.prefetch = prefetch;
+        this.keys = new LinkedHashMap<Key, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+                if (size() <= WinZipAesKeyCache.this.maxSize)
+                    return false;
+                wipe(eldest.getValue());
+                return true;
+            }
+        };
+        shaker.nextBytes(secret);
+    }
+
+    /** Returns the maximum number of keys to cache. */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns {@code true} if and only if the key for the next entry to write
+     * with the same password and key strength gets derived in the background.
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /** Returns the number of cached keys. */
+    public synchronized int getSize() {
+        return keys.size();
+    }
+
+    /** Returns the number of key lookups which have been served by the cache. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of keys which had to get derived on demand. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Wipes and removes all cached keys and cancels any pending ones. */
+    public void clear() {
+        for (final Iterator<Future<DerivedKey>> i = pending.values().iterator(); i.hasNext(); ) {
+            final Future<DerivedKey> future = i.next();
+            i.remove();
+            if (!future.cancel(false)) {
+                final DerivedKey key = done(future);
+                if (null != key)
+                    wipe(key.key);
+            }
+        }
+        synchronized (this) {
+            for (final byte[] key : keys.values())
+                wipe(key);
+            keys.clear();
+        }
+    }
+
+    /**
+     * Returns a copy of the key derived from the given password and salt for
+     * the given key strength.
+     *
+     * @param  passwd the password.
+     * @param  salt the salt.
+     * @param  keyStrength the key strength.
+     * @return A copy of the derived key.
+     *         The caller should wipe it after use.
+     */
+    byte[] getKey(
+            final byte[] passwd,
+            final byte[] salt,
+            final AesKeyStrength keyStrength) {
+        final Key id = new Key(identify(passwd), salt, keyStrength);
+        synchronized (this) {
+            final byte[] key = keys.get(id);
+            if (null != key) {
+                hits.incrementAndGet();
+                return key.clone();
+            }
+        }
+        misses.incrementAndGet();
+        final byte[] key = deriveKey(passwd, salt, keyStrength);
+        put(id, key);
+        return key;
+    }
+
+    /**
+     * Returns a new random salt and a copy of the key derived from the given
+     * password and this salt for the given key strength.
+     * If this cache has been configured to prefetch keys, then the returned
+     * key may have been derived in the background and the next key for the
+     * same password and key strength gets derived in the background.
+     *
+     * @param  passwd the password.
+     * @param  keyStrength the key strength.
+     * @return A new random salt and a copy of the derived key.
+     *         The caller should wipe the key after use.
+     */
+    DerivedKey newKey(
+            final byte[] passwd,
+            final AesKeyStrength keyStrength) {
+        final Key id = new Key(identify(passwd), null, keyStrength);
+        DerivedKey key = null;
+        final Future<DerivedKey> future = pending.remove(id);
+        if (null != future) {
+            key = done(future);
+            if (null != key)
+                hits.incrementAndGet();
+        }
+        if (null == key) {
+            misses.incrementAndGet();
+            key = new DerivedKey(passwd, keyStrength, shaker);
+        }
+        if (prefetch)
+            prefetch(id, passwd, keyStrength);
+        put(new Key(id.passwd, key.salt, keyStrength), key.key);
+        return key;
+    }
+
+    private void prefetch(
+            final Key id,
+            final byte[] passwd,
+            final AesKeyStrength keyStrength) {
+        if (pending.containsKey(id) || maxSize <= pending.size())
+            return;
+        final FutureTask<DerivedKey> task = new FutureTask<DerivedKey>(
+                new Derivation(passwd.clone(), keyStrength, shaker));
+        if (null == pending.putIfAbsent(id, task))
+            KeyDerivationThreads.executor.execute(task);
+    }
+
+    /**
+     * Returns the result of the given future or {@code null} if it has
+     * failed.
+     */
+    private static DerivedKey done(final Future<DerivedKey> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            return null;
+        }
+    }
+
+    private synchronized void put(final Key id, final byte[] key) {
+        if (0 >= maxSize)
+            return;
+        final byte[] old = keys.put(id, key.clone());
+        if (null != old)
+            wipe(old);
+    }
+
+    /** Returns the identity of the given password. */
+    private byte[] identify(final byte[] passwd) {
+        final Digest digest = new SHA256Digest();
+        digest.update(secret, 0, secret.length);
+        digest.update(passwd, 0, passwd.length);
+        final byte[] id = new byte[digest.getDigestSize()];
+        digest.doFinal(id, 0);
+        return id;
+    }
+
+    /** Wipes the given array. */
+    private static void wipe(final byte[] key) {
+        Arrays.fill(key, (byte) 0);
+    }
+
+    /** The identity of a cached key. */
+    private static final class Key {
+        final byte[] passwd, salt;
+        final AesKeyStrength keyStrength;
+
+        Key(    final byte[] passwd,
+                final byte[] salt,
+                final AesKeyStrength keyStrength) {
+            this.passwd = passwd;
+            this.salt = salt;
+            this.keyStrength = keyStrength;
+        }
+
+        @Override
+        public boolean equals(final Object that) {
+            if (this == that)
+                return true;
+            if (!(that instanceof Key))
+                return false;
+            final Key key = (Key) that;
+            return keyStrength.equals(key.keyStrength)
+                    && Arrays.equals(salt, key.salt)
+                    && Arrays.equals(passwd, key.passwd);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 17;
+            hash = 31 * hash + Arrays.hashCode(passwd);
+            hash = 31 * hash + Arrays.hashCode(salt);
+            hash = 31 * hash + keyStrength.hashCode();
+            return hash;
+        }
+    } // Key
+
+    /** A random salt and the key derived from it. */
+    static final class DerivedKey {
+        final byte[] salt, key;
+
+        DerivedKey(
+                final byte[] passwd,
+                final AesKeyStrength keyStrength,
+                final SecureRandom shaker) {
+            final byte[] salt = new byte[keyStrength.getBytes() / 2];
+            shaker.nextBytes(salt);
+            this.salt = salt;
+            this.key = deriveKey(passwd, salt, keyStrength);
+        }
+    } // DerivedKey
+
+    /** Derives a key from a copy of a password and wipes the copy. */
+    private static final class Derivation implements Callable<DerivedKey> {
+        final byte[] passwd;
+        final AesKeyStrength keyStrength;
+        final SecureRandom shaker;
+
+        Derivation(
+                final byte[] passwd,
+                final AesKeyStrength keyStrength,
+                final SecureRandom shaker) {
+            this.passwd = passwd;
+            this.keyStrength = keyStrength;
+            this.shaker = shaker;
+        }
+
+        @Override
+        public DerivedKey call() {
+            try {
+                return new DerivedKey(passwd, keyStrength, shaker);
+            } finally {
+                wipe(passwd);
+            }
+        }
+    } // Derivation
+
+    /** Holds the executor service for deriving keys in the background. */
+    private static final class KeyDerivationThreads {
+        static final ExecutorService executor
+                = Executors.newCachedThreadPool(new KeyDerivationThreadFactory());
+    } // KeyDerivationThreads
+
+    /** A factory for key derivation threads. */
+    private static final class KeyDerivationThreadFactory
+    implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new KeyDerivationThread(r);
+        }
+    } // KeyDerivationThreadFactory
+
+    /** A pooled and cached daemon thread which derives keys. */
+    private static final class KeyDerivationThread extends Thread {
+        KeyDerivationThread(Runnable r) {
+            super(ThreadGroups.getServerThreadGroup(), r,
+                    KeyDerivationThread.class.getName());
+            setDaemon(true);
+        }
+    } // KeyDerivationThread
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.io.DecoratingInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Compares the MAC computed from the encrypted content to the MAC in the
+ * WinZip AES entry and throws a {@link ZipAuthenticationException} if it
+ * detects a mismatch when reaching the end of the content.
+ * The MAC gets computed while the encrypted content gets read, so that it
+ * needs to get read only once.
+ * If this stream gets closed before reaching the end of the content, then
+ * the MAC does not get checked, because this would require to read the
+ * remaining encrypted content.
+ *
+ * @author Christian Schlichtherle
+ */
+final class WinZipAesMacInputStream extends DecoratingInputStream {
+    private final WinZipAesEntryReadOnlyFile eerof;
+    private boolean authenticated, closed;
+
+    WinZipAesMacInputStream(
+            final InputStream in,
+            final WinZipAesEntryReadOnlyFile eerof) {
+        super(in);
+        this.eerof = eerof;
+        eerof.startAuthentication();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int read = delegate.read();
+        if (0 > read)
+            authenticate();
+        return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int read = delegate.read(b, off, len);
+        if (0 > read)
+            authenticate();
+        return read;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void authenticate() throws IOException {
+        if (authenticated)
+            return;
+        authenticated = true;
+        eerof.finishAuthentication();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            // Check the MAC only if the end of the content has been reached,
+            // e.g. if the client has read exactly the entry size.
+            if (!authenticated && 0 > delegate.read())
+                authenticate();
+        } finally {
+            delegate.close();
+        }
+    }
+}
@@ -7,47 +7,55 @@ package de.schlichtherle.truezip.zip;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.Deflater;
-import static java.util.zip.Deflater.DEFAULT_COMPRESSION;
 import java.util.zip.DeflaterOutputStream;
 
 /**
- * A deflater output stream which uses a custom {@link Deflater} and provides
+ * A deflater output stream which uses a pooled {@link Deflater} and provides
  * access to it.
+ * The deflater gets allocated from the {@link FlaterPool} for the given
+ * compression level and must get returned to it by calling {@link #end()}.
  *
  * @author  Christian Schlichtherle
  */
 final class ZipDeflaterOutputStream extends DeflaterOutputStream {
 
-    private static final DeflaterFactory factory = new Jdk6DeflaterFactory();
+    private final FlaterPool<Deflater> pool;
+    private boolean ended;
 
     ZipDeflaterOutputStream(OutputStream out, int level, int size) {
-        super(out, factory.newDeflater(), size);
-        def.setLevel(level);
+        this(out, FlaterPool.deflaters(level), size);
+    }
+
+    private ZipDeflaterOutputStream(
+            final OutputStream out,
+            final FlaterPool<Deflater> pool,
+            final int size) {
+        super(out, pool.allocate(), size);
+        this.pool = pool;
     }
 
     Deflater getDeflater() {
         return def;
     }
 
+    /**
+     * Releases the deflater to its pool.
+     * The deflater must not get used anymore after calling this method.
+     */
+    void end() {
+        if (ended)
+            return;
+        ended = true;
+        pool.release(def);
+    }
+
     @Override
     public void close() throws IOException {
         assert false : "This method should never get called by the current implementation.";
-        def.end();
-        super.close();
-    }
-
-    /** A factory for {@link Deflater} objects. */
-    private static class DeflaterFactory {
-        protected Deflater newDeflater() {
-            return new Deflater(DEFAULT_COMPRESSION, true);
-        }
-    }
-
-    /** A factory for {@link Jdk6Deflater} objects. */
-    private static final class Jdk6DeflaterFactory extends DeflaterFactory {
-        @Override
-        protected Deflater newDeflater() {
-            return new Jdk6Deflater(DEFAULT_COMPRESSION, true);
+        try {
+            super.close();
+        } finally {
+            end();
         }
     }
-}
\ No newline at end of file
+}
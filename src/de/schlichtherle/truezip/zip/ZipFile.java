@@ -62,6 +62,19 @@ public class ZipFile extends RawZipFile<ZipEntry> {
         this(path, charset, true, false);
     }
 
+    /**
+     * Equivalent to {@link #ZipFile(String, Charset, boolean, boolean, boolean)
+     * ZipFile(path, charset, preambled, postambled, false)}
+     */
+    public ZipFile(
+            String path,
+            Charset charset,
+            boolean preambled,
+            boolean postambled)
+    throws IOException {
+        this(path, charset, preambled, postambled, false);
+    }
+
     /**
      * Opens the ZIP file identified by the given path name for reading its
      * entries.
@@ -88,6 +101,12 @@ public class ZipFile extends RawZipFile<ZipEntry> {
      *        not compatible to the ZIP File Format Specification.
      *        This may be useful to read Self Extracting ZIP files (SFX) with
      *        large postambles.
+     * @param lazyMount if this is {@code true}, then the entries get created
+     *        on demand when they are looked up or iterated rather than when
+     *        the ZIP file gets opened.
+     *        This may be useful to open ZIP files with a large central
+     *        directory of which only a few entries get accessed.
+     *        See {@link ZipFileParameters#getLazyMount()}.
      * @throws FileNotFoundException if {@code name} cannot get opened for
      *         reading.
      * @throws ZipException if {@code name} is not compatible with the ZIP
@@ -99,10 +118,11 @@ public class ZipFile extends RawZipFile<ZipEntry> {
             final String path,
             final Charset charset,
             final boolean preambled,
-            final boolean postambled)
+            final boolean postambled,
+            final boolean lazyMount)
     throws IOException {
         super(  new DefaultReadOnlyFilePool(path),
-                new DefaultZipFileParameters(charset, preambled, postambled));
+                new DefaultZipFileParameters(charset, preambled, postambled, lazyMount));
         this.name = path;
     }
 
@@ -124,6 +144,19 @@ public class ZipFile extends RawZipFile<ZipEntry> {
         this(file, charset, true, false);
     }
 
+    /**
+     * Equivalent to {@link #ZipFile(File, Charset, boolean, boolean, boolean)
+     * ZipFile(file, charset, preambled, postambled, false)}
+     */
+    public ZipFile(
+            File file,
+            Charset charset,
+            boolean preambled,
+            boolean postambled)
+    throws IOException {
+        this(file, charset, preambled, postambled, false);
+    }
+
     /**
      * Opens the given {@link File} for reading its entries.
      *
@@ -149,6 +182,53 @@ public class ZipFile extends RawZipFile<ZipEntry> {
      *        not compatible to the ZIP File Format Specification.
      *        This may be useful to read Self Extracting ZIP files (SFX) with
      *        large postambles.
+     * @param lazyMount if this is {@code true}, then the entries get created
+     *        on demand when they are looked up or iterated rather than when
+     *        the ZIP file gets opened.
+     *        This may be useful to open ZIP files with a large central
+     *        directory of which only a few entries get accessed.
+     *        See {@link ZipFileParameters#getLazyMount()}.
+     * @throws FileNotFoundException if {@code file} cannot get opened for
+     *         reading.
+     * @throws ZipException if {@code file} is not compatible with the ZIP
+     *         File Format Specification.
+     * @throws IOException on any other I/O related issue.
+     * @see    #recoverLostEntries()
+     */
+    public ZipFile(
+            final File file,
+            final Charset charset,
+            final boolean preambled,
+            final boolean postambled,
+            final boolean lazyMount)
+    throws IOException {
+        super(  new DefaultReadOnlyFilePool(file),
+                new DefaultZipFileParameters(charset, preambled, postambled, lazyMount));
+        this.name = file.toString();
+    }
+
+    /**
+     * Opens the given {@link File} for reading its entries and mounts its
+     * central directory lazily using the given cache for its index.
+     * If the cache holds a valid index for the file, then the central
+     * directory gets mounted from the index without searching and scanning
+     * it.
+     * Otherwise, the central directory gets mounted from the file and its
+     * index gets stored in the cache.
+     *
+     * @param file the file.
+     * @param charset the charset to use for decoding entry names and ZIP file
+     *        comment.
+     * @param preambled if this is {@code true}, then the ZIP file may have a
+     *        preamble.
+     *        See {@link #ZipFile(File, Charset, boolean, boolean, boolean)}.
+     * @param postambled if this is {@code true}, then the ZIP file may have a
+     *        postamble of arbitrary length.
+     *        See {@link #ZipFile(File, Charset, boolean, boolean, boolean)}.
+     * @param cache the nullable cache for the index of the central
+     *        directory.
+     *        If this is {@code null}, then the central directory gets
+     *        mounted lazily without a cache.
      * @throws FileNotFoundException if {@code file} cannot get opened for
      *         reading.
      * @throws ZipException if {@code file} is not compatible with the ZIP
@@ -160,10 +240,13 @@ public class ZipFile extends RawZipFile<ZipEntry> {
             final File file,
             final Charset charset,
             final boolean preambled,
-            final boolean postambled)
+            final boolean postambled,
+            final ZipIndexCache cache)
     throws IOException {
         super(  new DefaultReadOnlyFilePool(file),
-                new DefaultZipFileParameters(charset, preambled, postambled));
+                new DefaultZipFileParameters(charset, preambled, postambled, true),
+                null == cache ? null : file,
+                cache);
         this.name = file.toString();
     }
 
@@ -185,6 +268,19 @@ public class ZipFile extends RawZipFile<ZipEntry> {
         this(rof, charset, true, false);
     }
 
+    /**
+     * Equivalent to {@link #ZipFile(ReadOnlyFile, Charset, boolean, boolean, boolean)
+     * ZipFile(rof, charset, preambled, postambled, false)}
+     */
+    public ZipFile(
+            ReadOnlyFile rof,
+            Charset charset,
+            boolean preambled,
+            boolean postambled)
+    throws IOException {
+        this(rof, charset, preambled, postambled, false);
+    }
+
     /**
      * Opens the given {@link ReadOnlyFile} for reading its entries.
      *
@@ -210,6 +306,12 @@ public class ZipFile extends RawZipFile<ZipEntry> {
      *        not compatible to the ZIP File Format Specification.
      *        This may be useful to read Self Extracting ZIP files (SFX) with
      *        large postambles.
+     * @param lazyMount if this is {@code true}, then the entries get created
+     *        on demand when they are looked up or iterated rather than when
+     *        the ZIP file gets opened.
+     *        This may be useful to open ZIP files with a large central
+     *        directory of which only a few entries get accessed.
+     *        See {@link ZipFileParameters#getLazyMount()}.
      * @throws FileNotFoundException if {@code rof} cannot get opened for
      *         reading.
      * @throws ZipException if {@code rof} is not compatible with the ZIP
@@ -221,9 +323,10 @@ public class ZipFile extends RawZipFile<ZipEntry> {
             ReadOnlyFile rof,
             Charset charset,
             boolean preambled,
-            boolean postambled)
+            boolean postambled,
+            boolean lazyMount)
     throws IOException {
-        super(rof, new DefaultZipFileParameters(charset, preambled, postambled));
+        super(rof, new DefaultZipFileParameters(charset, preambled, postambled, lazyMount));
         this.name = rof.toString();
     }
 
@@ -351,7 +454,14 @@ public class ZipFile extends RawZipFile<ZipEntry> {
             String name, Boolean check, boolean process)
     throws IOException {
         final InputStream in = super.getInputStream(name, check, process);
-        return in == null ? null : new de.schlichtherle.truezip.io.SynchronizedInputStream(in, this);
+        if (null == in)
+            return null;
+        // Entry streams do not share a file pointer if the underlying read
+        // only file supports positional reads, so they can get read
+        // concurrently.
+        return isConcurrentlyReadable()
+                ? in
+                : new de.schlichtherle.truezip.io.SynchronizedInputStream(in, this);
     }
 
     @Override
@@ -56,4 +56,32 @@ extends ZipCharsetParameters, ZipEntryFactory<E> {
      * @return The flag for allowing a postamble of arbitrary length.
      */
     boolean getPostambled();
+
+    /**
+     * Returns the flag for mounting the central directory lazily.
+     * <p>
+     * If this method returns {@code true}, then the central directory of a
+     * ZIP file gets read in one go and indexed by the hash codes of the
+     * entry names, but the ZIP entries get created on demand only when they
+     * are looked up or iterated.
+     * This reduces the time to open a ZIP file with a large central
+     * directory if only a few entries get accessed.
+     * The meta data of the entries still gets checked when the ZIP file gets
+     * opened, so that invalid meta data results in a
+     * {@link java.util.zip.ZipException} just like when mounting eagerly.
+     * <p>
+     * Note that the entries get looked up by the names found in the central
+     * directory, so this mode requires the {@link ZipEntryFactory} to create
+     * entries with the given name.
+     * If the factory changes the name of the first entry, then the central
+     * directory gets mounted eagerly instead.
+     * A factory which changes the names of only some entries must not get
+     * used with this mode, or otherwise these entries cannot get looked up.
+     * <p>
+     * If this method returns {@code false}, then all ZIP entries get created
+     * when the ZIP file gets opened.
+     *
+     * @return The flag for mounting the central directory lazily.
+     */
+    boolean getLazyMount();
 }
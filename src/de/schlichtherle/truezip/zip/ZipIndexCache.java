@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.rof.ReadOnlyFile;
+import static de.schlichtherle.truezip.zip.Constants.*;
+import static de.schlichtherle.truezip.zip.LittleEndian.*;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A persistent cache for the indexes of the central directories of ZIP files.
+ * For each ZIP file, the cache stores a compact binary index file in its
+ * directory which contains the raw central directory and the offsets and
+ * hash codes of the Central File Headers, so that mounting the ZIP file
+ * again only requires to read the index file in one go rather than to
+ * search and scan its central directory.
+ * Note that the index still gets loaded into the heap.
+ * <p>
+ * An index file is keyed by the canonical path of its ZIP file and gets
+ * validated against the length, the last modification time and the End Of
+ * Central Directory Record of the ZIP file before it gets used.
+ * An index file is protected by a CRC-32 checksum and the offsets of the
+ * Central File Headers get checked against the raw central directory, so
+ * that a corrupted index file results in scanning the ZIP file again.
+ * Any I/O error when reading or writing an index file gets ignored, so that
+ * the ZIP file gets mounted as if there was no cache.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see    ZipFile#ZipFile(File, java.nio.charset.Charset, boolean, boolean, ZipIndexCache)
+ * @see    de.schlichtherle.truezip.fs.archive.zip.ZipDriver#getIndexCache()
+ * @author Christian Schlichtherle
+ */
+public final class ZipIndexCache {
+
+    /** The magic number of an index file. */
+    private static final int MAGIC = 0x545a4349; // "TZCI"
+
+    /** The version of the index file format. */
+    private static final int VERSION = 2;
+
+    private static final String SUFFIX = ".idx";
+
+    private final File directory;
+
+    /**
+     * Constructs a new ZIP index cache which stores its index files in the
+     * given directory.
+     * The directory gets created on demand.
+     *
+     * @param directory the directory for the index files.
+     */
+    public ZipIndexCache(final File directory) {
+        if (null == directory)
+            throw new NullPointerException();
+        this.directory = directory;
+    }
+
+    /** Returns the directory for the index files. */
+    public File getDirectory() {
+        return directory;
+    }
+
+    private File indexFile(final String path) {
+        return new File(directory,
+                String.format("%08x", path.hashCode()) + SUFFIX);
+    }
+
+    /**
+     * Returns the valid index for the given ZIP file or {@code null} if no
+     * valid index is present in this cache.
+     *
+     * @param  file the ZIP file.
+     * @param  rof the read only file for reading the ZIP file.
+     * @return The valid index for the given ZIP file or {@code null}.
+     */
+    Index load(final File file, final ReadOnlyFile rof) {
+        try {
+            final String path = file.getCanonicalPath();
+            final File idx = indexFile(path);
+            if (!idx.isFile())
+                return null;
+            final byte[] b;
+            final RandomAccessFile raf = new RandomAccessFile(idx, "r");
+            try {
+                final long length = raf.length();
+                if (8 > length || Integer.MAX_VALUE < length)
+                    return null;
+                raf.readFully(b = new byte[(int) length]);
+            } finally {
+                raf.close();
+            }
+            final int end = b.length - 8;
+            final CRC32 crc = new CRC32();
+            crc.update(b, 0, end);
+            final ByteBuffer buf = ByteBuffer.wrap(b);
+            if (crc.getValue() != buf.getLong(end))
+                return null;
+            buf.limit(end);
+            if (MAGIC != buf.getInt() || VERSION != buf.getInt())
+                return null;
+            if (!path.equals(string(buf)))
+                return null;
+            final Index index = new Index();
+            index.length = buf.getLong();
+            index.time = buf.getLong();
+            if (index.length != file.length()
+                    || index.length != rof.length()
+                    || index.time != file.lastModified())
+                return null;
+            index.eocdrOff = buf.getLong();
+            index.eocdr = bytes(buf);
+            final byte[] eocdr = new byte[index.eocdr.length];
+            rof.seek(index.eocdrOff);
+            rof.readFully(eocdr);
+            if (!Arrays.equals(index.eocdr, eocdr))
+                return null;
+            index.preamble = buf.getLong();
+            index.postamble = buf.getLong();
+            index.mapperStart = buf.getLong();
+            index.charset = string(buf);
+            index.utf8 = buf.getInt();
+            index.comment = bytes(buf);
+            final int size = index.size = buf.getInt();
+            buf.asIntBuffer().get(index.offsets = new int[size]);
+            buf.position(buf.position() + 4 * size);
+            buf.asIntBuffer().get(index.hashes = new int[size]);
+            buf.position(buf.position() + 4 * size);
+            index.cd = bytes(buf);
+            return isValid(index) ? index : null;
+        } catch (IOException ex) {
+            return null;
+        } catch (RuntimeException ex) { // e.g. BufferUnderflowException
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given index for the given ZIP file.
+     * The index file gets written to a temporary file first and then gets
+     * renamed, so that concurrent readers never see a partial index file.
+     *
+     * @param file the ZIP file.
+     * @param index the index to store.
+     */
+    void store(final File file, final Index index) {
+        try {
+            final String path = file.getCanonicalPath();
+            if (!directory.isDirectory() && !directory.mkdirs()
+                    && !directory.isDirectory())
+                return;
+            final File idx = indexFile(path);
+            final File tmp = File.createTempFile("tzp", SUFFIX, directory);
+            boolean ok = false;
+            try {
+                final CRC32 crc = new CRC32();
+                final DataOutputStream out = new DataOutputStream(
+                        new CheckedOutputStream(
+                            new BufferedOutputStream(
+                                new FileOutputStream(tmp)),
+                            crc));
+                try {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    write(out, path);
+                    out.writeLong(index.length);
+                    out.writeLong(index.time);
+                    out.writeLong(index.eocdrOff);
+                    write(out, index.eocdr);
+                    out.writeLong(index.preamble);
+                    out.writeLong(index.postamble);
+                    out.writeLong(index.mapperStart);
+                    write(out, index.charset);
+                    out.writeInt(index.utf8);
+                    write(out, index.comment);
+                    final int size = index.size;
+                    out.writeInt(size);
+                    for (int i = 0; i < size; i++)
+                        out.writeInt(index.offsets[i]);
+                    for (int i = 0; i < size; i++)
+                        out.writeInt(index.hashes[i]);
+                    write(out, index.cd);
+                    out.writeLong(crc.getValue());
+                } finally {
+                    out.close();
+                }
+                ok = (!idx.exists() || idx.delete()) && tmp.renameTo(idx);
+            } finally {
+                if (!ok)
+                    tmp.delete();
+            }
+        } catch (IOException ex) {
+            // The cache is optional, so ignore.
+        }
+    }
+
+    /**
+     * Returns {@code true} if and only if the given index is consistent, so
+     * that it can get used for a central directory.
+     * The Central File Headers must be contiguous and within the bounds of
+     * the raw central directory.
+     */
+    private static boolean isValid(final Index index) {
+        final byte[] cd = index.cd;
+        final int size = index.size;
+        if (null == cd || 0 > size || -1 > index.utf8 || size <= index.utf8
+                || null == index.eocdr
+                || 0 > index.preamble || 0 > index.postamble
+                || 0 > index.eocdrOff || index.length < index.eocdrOff)
+            return false;
+        for (int i = 0, off = 0; i < size; i++) {
+            if (index.offsets[i] != off
+                    || cd.length - CFH_MIN_LEN < off
+                    || CFH_SIG != readUInt(cd, off))
+                return false;
+            off += CFH_MIN_LEN + readUShort(cd, off + 28)
+                    + readUShort(cd, off + 30) + readUShort(cd, off + 32);
+            if (cd.length < off)
+                return false;
+        }
+        return true;
+    }
+
+    private static void write(final DataOutputStream out, final String s)
+    throws IOException {
+        write(out, s.getBytes(Constants.UTF8));
+    }
+
+    private static void write(final DataOutputStream out, final byte[] b)
+    throws IOException {
+        if (null == b) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(b.length);
+            out.write(b);
+        }
+    }
+
+    private static String string(final ByteBuffer buf) {
+        return new String(bytes(buf), Constants.UTF8);
+    }
+
+    private static byte[] bytes(final ByteBuffer buf) {
+        final int length = buf.getInt();
+        if (0 > length)
+            return null;
+        if (buf.remaining() < length)
+            throw new IllegalArgumentException();
+        final byte[] b = new byte[length];
+        buf.get(b);
+        return b;
+    }
+
+    /** The index of the central directory of a ZIP file. */
+    static final class Index {
+        long length;
+
+        /**
+         * The last modification time of the ZIP file before its central
+         * directory has been read.
+         */
+        long time;
+
+        /** The offset and contents of the End Of Central Directory Record. */
+        long eocdrOff;
+        byte[] eocdr;
+
+        long preamble, postamble, mapperStart;
+
+        /** The name of the charset for decoding the entry names. */
+        String charset;
+
+        int utf8;
+        byte[] comment;
+        int size;
+        int[] offsets, hashes;
+
+        /** The raw central directory. */
+        byte[] cd;
+    } // Index
+}
@@ -226,6 +226,36 @@ public class ZipOutputStream extends RawZipOutputStream<ZipEntry> {
         super.setLevel(level);
     }
 
+    @Override
+    public synchronized int getParallelism() {
+        return super.getParallelism();
+    }
+
+    @Override
+    public synchronized void setParallelism(int parallelism) {
+        super.setParallelism(parallelism);
+    }
+
+    @Override
+    public synchronized long getParallelBufferSize() {
+        return super.getParallelBufferSize();
+    }
+
+    @Override
+    public synchronized void setParallelBufferSize(long size) {
+        super.setParallelBufferSize(size);
+    }
+
+    @Override
+    public synchronized int getDeflaterBlockSize() {
+        return super.getDeflaterBlockSize();
+    }
+
+    @Override
+    public synchronized void setDeflaterBlockSize(int size) {
+        super.setDeflaterBlockSize(size);
+    }
+
     @Override
     public synchronized ZipCryptoParameters getCryptoParameters() {
         return cryptoParameters;
@@ -18,8 +18,15 @@
  */
 package libtruezip.compress.bzip2;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import libtruezip.compress.CompressorOutputStream;
 
@@ -114,6 +121,16 @@ import libtruezip.compress.CompressorOutputStream;
  * </p>
  *
  * <p>
+ * If an {@link ExecutorService} and a parallelism greater than one are
+ * provided, then full blocks are sorted and Huffman coded by the executor
+ * while the current thread continues to fill the next block.
+ * The encoded blocks are written in order, so the output is bit-exact to
+ * the output of sequential compression.
+ * This requires the compression memory once per block which is encoded in
+ * parallel.
+ * </p>
+ *
+ * <p>
  * Instances of this class are not threadsafe.
  * </p>
  *
@@ -323,6 +340,21 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
 
     private OutputStream out;
 
+    /**
+     * The executor service for encoding blocks in parallel or {@code null}
+     * for sequential compression.
+     */
+    private final ExecutorService executor;
+
+    /** The maximum number of blocks to encode in parallel. */
+    private final int parallelism;
+
+    /** The blocks which are encoded in parallel, in order. */
+    private final Queue<Future<BZip2CompressorOutputStream>> blocks;
+
+    /** The idle block encoders. */
+    private final Queue<BZip2CompressorOutputStream> encoders;
+
     /**
      * Chooses a blocksize based on the given length of the data to compress.
      *
@@ -375,6 +407,40 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
      * @see #MAX_BLOCKSIZE
      */
     public BZip2CompressorOutputStream(final OutputStream out, final int blockSize) throws IOException {
+        this(out, blockSize, null, 1);
+    }
+
+    /**
+     * Constructs a new {@code BZip2CompressorOutputStream} with specified
+     * blocksize which encodes up to the given number of blocks in parallel
+     * using the given executor service.
+     *
+     * @param out
+     *            the destination stream.
+     * @param blockSize
+     *            the blockSize as 100k units.
+     * @param executor
+     *            the executor service for encoding blocks in parallel or
+     *            {@code null} for sequential compression.
+     * @param parallelism
+     *            the maximum number of blocks to encode in parallel.
+     *
+     * @throws IOException
+     *             if an I/O error occurs in the specified stream.
+     * @throws IllegalArgumentException
+     *             if <code>(blockSize &lt; 1) || (blockSize &gt; 9)</code>
+     *             or <code>parallelism &lt; 1</code>.
+     * @throws NullPointerException
+     *             if <code>out == null</code>.
+     */
+    public BZip2CompressorOutputStream(final OutputStream out,
+                                       final int blockSize,
+                                       final ExecutorService executor,
+                                       final int parallelism)
+        throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism(" + parallelism + ") < 1");
+        }
         if (blockSize < 1) {
             throw new IllegalArgumentException("blockSize(" + blockSize + ") < 1");
         }
@@ -384,12 +450,40 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
 
         this.blockSize100k = blockSize;
         this.out = out;
+        if (executor != null && parallelism > 1) {
+            this.executor = executor;
+            this.parallelism = parallelism;
+            this.blocks = new ArrayDeque<Future<BZip2CompressorOutputStream>>();
+            this.encoders = new ArrayDeque<BZip2CompressorOutputStream>();
+        } else {
+            this.executor = null;
+            this.parallelism = 1;
+            this.blocks = null;
+            this.encoders = null;
+        }
 
         /* 20 is just a paranoia constant */
         this.allowableBlockSize = (this.blockSize100k * BZip2Constants.BASEBLOCKSIZE) - 20;
         init();
     }
 
+    /**
+     * Constructs a new block encoder for the given stream.
+     * A block encoder does not write a stream header and encodes blocks into
+     * a {@link BlockBuffer}.
+     */
+    private BZip2CompressorOutputStream(final BZip2CompressorOutputStream stream) {
+        this.blockSize100k = stream.blockSize100k;
+        this.allowableBlockSize = stream.allowableBlockSize;
+        this.out = new BlockBuffer();
+        this.executor = null;
+        this.parallelism = 1;
+        this.blocks = null;
+        this.encoders = null;
+        this.data = new Data(this.blockSize100k);
+        this.blockSorter = new BlockSort(this.data);
+    }
+
     @Override
     public void write(final int b) throws IOException {
         if (this.out != null) {
@@ -471,7 +565,10 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
      */
     @Override
     protected void finalize() throws Throwable {
-        finish();
+        // block encoders must never get finished
+        if (!(this.out instanceof BlockBuffer)) {
+            finish();
+        }
         super.finalize();
     }
 
@@ -484,11 +581,23 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
                 }
                 this.currentChar = -1;
                 endBlock();
+                if (this.blocks != null) {
+                    while (!this.blocks.isEmpty()) {
+                        writeEncodedBlock();
+                    }
+                }
                 endCompression();
             } finally {
                 this.out = null;
                 this.data = null;
                 this.blockSorter = null;
+                if (this.blocks != null) {
+                    for (Future<BZip2CompressorOutputStream> block;
+                         (block = this.blocks.poll()) != null;) {
+                        block.cancel(true);
+                    }
+                    this.encoders.clear();
+                }
             }
         }
     }
@@ -554,6 +663,17 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
             return;
         }
 
+        if (this.executor != null) {
+            submitBlock();
+        } else {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Sorts and encodes the current block.
+     */
+    private void writeBlock() throws IOException {
         /* sort the block and establish posn of original string */
         blockSort();
 
@@ -585,6 +705,117 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
         moveToFrontCodeAndSend();
     }
 
+    /**
+     * Hands over the current block to an idle or new block encoder and
+     * submits it to the executor service.
+     * Then writes the oldest encoded blocks until no more than
+     * {@link #parallelism} blocks are pending.
+     */
+    private void submitBlock() throws IOException {
+        BZip2CompressorOutputStream encoder = this.encoders.poll();
+        if (encoder == null) {
+            encoder = new BZip2CompressorOutputStream(this);
+        }
+
+        // Swap the memory intensive stuff with the encoder.
+        final Data dataShadow = encoder.data;
+        final BlockSort blockSorterShadow = encoder.blockSorter;
+        encoder.data = this.data;
+        encoder.blockSorter = this.blockSorter;
+        encoder.last = this.last;
+        encoder.blockCRC = this.blockCRC;
+        this.data = dataShadow;
+        this.blockSorter = blockSorterShadow;
+
+        final BZip2CompressorOutputStream encoderShadow = encoder;
+        this.blocks.add(this.executor.submit(
+                new Callable<BZip2CompressorOutputStream>() {
+                    @Override
+                    public BZip2CompressorOutputStream call() throws IOException {
+                        return encoderShadow.encodeBlock();
+                    }
+                }));
+        while (this.blocks.size() > this.parallelism) {
+            writeEncodedBlock();
+        }
+    }
+
+    /**
+     * Encodes the current block of this block encoder into its block
+     * buffer.
+     */
+    private BZip2CompressorOutputStream encodeBlock() throws IOException {
+        ((BlockBuffer) this.out).reset();
+        this.bsBuff = 0;
+        this.bsLive = 0;
+        writeBlock();
+        return this;
+    }
+
+    /**
+     * Waits for the oldest encoded block and appends its bits to this
+     * stream.
+     */
+    private void writeEncodedBlock() throws IOException {
+        final BZip2CompressorOutputStream encoder = get(this.blocks.remove());
+        final BlockBuffer buffer = (BlockBuffer) encoder.out;
+        final byte[] buf = buffer.getBuffer();
+        final int size = buffer.size();
+        while (this.bsLive >= 8) {
+            this.out.write(this.bsBuff >> 24);
+            this.bsBuff <<= 8;
+            this.bsLive -= 8;
+        }
+        if (this.bsLive == 0) {
+            // byte aligned
+            this.out.write(buf, 0, size);
+        } else {
+            for (int i = 0; i < size; i++) {
+                bsW(8, buf[i] & 0xff);
+            }
+        }
+        int bsLiveShadow = encoder.bsLive;
+        int bsBuffShadow = encoder.bsBuff;
+        while (bsLiveShadow >= 8) {
+            bsW(8, bsBuffShadow >>> 24);
+            bsBuffShadow <<= 8;
+            bsLiveShadow -= 8;
+        }
+        if (bsLiveShadow > 0) {
+            bsW(bsLiveShadow, bsBuffShadow >>> (32 - bsLiveShadow));
+        }
+        this.encoders.add(encoder);
+    }
+
+    private static BZip2CompressorOutputStream get(
+            final Future<BZip2CompressorOutputStream> block)
+        throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return block.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new AssertionError(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt(); // restore
+            }
+        }
+    }
+
     private void endCompression() throws IOException {
         /*
          * Now another magic 48-bit number, 0x177245385090, to indicate the end
@@ -1268,6 +1499,19 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
         this.nMTF = wr + 1;
     }
 
+    /**
+     * Provides access to the buffer of a block encoder.
+     */
+    private static final class BlockBuffer extends ByteArrayOutputStream {
+        BlockBuffer() {
+            super(64 * 1024);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
     static final class Data extends Object {
 
         // with blockSize 900k
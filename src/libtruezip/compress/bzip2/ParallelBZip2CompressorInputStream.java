@@ -0,0 +1,536 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package libtruezip.compress.bzip2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import libtruezip.compress.CompressorInputStream;
+
+/**
+ * An input stream that decompresses from the BZip2 format by decoding
+ * multiple blocks in parallel.
+ *
+ * <p>
+ * The compressed stream is scanned for the 48-bit block header magic
+ * {@code 0x314159265359} at any bit position. The bits of each block are
+ * realigned into a single block stream which gets decoded by a
+ * {@link BZip2CompressorInputStream} using the given executor service.
+ * Up to <i>parallelism</i> blocks are decoded ahead and served in order.
+ * </p>
+ *
+ * <p>
+ * The block header magic may appear by chance in the compressed data of a
+ * block. If a block fails to decode, then it is therefore merged with the
+ * following block and decoded again on the current thread, up to the
+ * maximum size of a block.
+ * </p>
+ *
+ * <p>
+ * Only a single BZip2 stream is decoded, i.e. concatenated streams are not
+ * supported.
+ * </p>
+ *
+ * <p>
+ * Instances of this class are not threadsafe.
+ * </p>
+ * @NotThreadSafe
+ */
+public class ParallelBZip2CompressorInputStream extends CompressorInputStream {
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long EOS_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+
+    /** The minimum number of bits from a block magic to the next one. */
+    private static final int MIN_BLOCK_BITS = 48 + 32 + 1 + 24;
+
+    /**
+     * The maximum number of bits of a block apart from its Huffman coded
+     * symbols: The block header, the symbol map, the selectors and the
+     * delta coded Huffman code lengths.
+     */
+    private static final long MAX_BLOCK_OVERHEAD_BITS = MIN_BLOCK_BITS
+        + 16 + 256
+        + 3 + 15 + 7L * BZip2Constants.MAX_SELECTORS
+        + BZip2Constants.N_GROUPS
+            * (5 + BZip2Constants.MAX_ALPHA_SIZE
+                * (2L * BZip2Constants.MAX_CODE_LEN + 1));
+
+    private InputStream in;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private int blockSize100k;
+
+    /** The maximum number of bits of a single block. */
+    private long maxBlockBits;
+
+    private final byte[] ibuf = new byte[8192];
+    private int ipos;
+    private int ilen;
+
+    /** The raw compressed data of the current block. */
+    private byte[] raw = new byte[64 * 1024];
+    private int rawLen;
+
+    /** The bit position of the current block in {@link #raw}. */
+    private long rawStart;
+
+    /** The last 64 bits read. */
+    private long window;
+
+    /** Whether the end of stream magic has been found. */
+    private boolean eos;
+
+    private int storedCombinedCRC;
+    private int computedCombinedCRC;
+
+    /** The blocks which are decoded in parallel, in order. */
+    private final Queue<Block> blocks = new ArrayDeque<Block>();
+
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    /**
+     * Constructs a new {@code ParallelBZip2CompressorInputStream} which
+     * decompresses the bytes read from the specified stream.
+     *
+     * @param in
+     *            the InputStream from which this object should be created
+     * @param executor
+     *            the executor service for decoding blocks in parallel.
+     * @param parallelism
+     *            the maximum number of blocks to decode in parallel.
+     *
+     * @throws IOException
+     *             if the stream content is malformed or an I/O error occurs.
+     * @throws IllegalArgumentException
+     *             if <code>parallelism &lt; 1</code>.
+     * @throws NullPointerException
+     *             if <code>in == null</code> or
+     *             <code>executor == null</code>.
+     */
+    public ParallelBZip2CompressorInputStream(final InputStream in,
+                                              final ExecutorService executor,
+                                              final int parallelism)
+        throws IOException {
+        if (in == null || executor == null) {
+            throw new NullPointerException();
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism(" + parallelism + ") < 1");
+        }
+        this.in = in;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        init();
+    }
+
+    private void init() throws IOException {
+        if (readByte() != 'B' || readByte() != 'Z' || readByte() != 'h') {
+            throw new IOException("Stream is not in the BZip2 format");
+        }
+        final int blockSize = readByte();
+        if (blockSize < '1' || blockSize > '9') {
+            throw new IOException("BZip2 block size is invalid");
+        }
+        this.blockSize100k = blockSize - '0';
+        // At most one symbol per byte in the block plus the end of block
+        // symbol, each with a maximum code length.
+        this.maxBlockBits = MAX_BLOCK_OVERHEAD_BITS
+            + ((long) this.blockSize100k * BZip2Constants.BASEBLOCKSIZE + 1)
+                * BZip2Constants.MAX_CODE_LEN;
+
+        this.window = 0;
+        for (int i = 0; i < 6; i++) {
+            append(readByte());
+        }
+        final long magic = this.window & MAGIC_MASK;
+        if (magic == EOS_MAGIC) {
+            readStoredCombinedCRC();
+        } else if (magic != BLOCK_MAGIC) {
+            throw new IOException("bad block header");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.in == null) {
+            throw new IOException("stream closed");
+        }
+        if (this.pos == this.limit && !fill()) {
+            return -1;
+        }
+        count(1);
+        return this.buf[this.pos++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] dest, final int offs, final int len)
+        throws IOException {
+        if (offs < 0) {
+            throw new IndexOutOfBoundsException("offs(" + offs + ") < 0.");
+        }
+        if (len < 0) {
+            throw new IndexOutOfBoundsException("len(" + len + ") < 0.");
+        }
+        if (offs + len > dest.length) {
+            throw new IndexOutOfBoundsException("offs(" + offs + ") + len("
+                                                + len + ") > dest.length(" + dest.length + ").");
+        }
+        if (this.in == null) {
+            throw new IOException("stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (this.pos == this.limit && !fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, this.limit - this.pos);
+        System.arraycopy(this.buf, this.pos, dest, offs, n);
+        this.pos += n;
+        count(n);
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.limit - this.pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final InputStream inShadow = this.in;
+        if (inShadow != null) {
+            try {
+                for (Block block; (block = this.blocks.poll()) != null;) {
+                    block.result.cancel(true);
+                }
+                inShadow.close();
+            } finally {
+                this.in = null;
+                this.buf = null;
+                this.raw = null;
+            }
+        }
+    }
+
+    /**
+     * Decodes the next non-empty block into {@link #buf}.
+     *
+     * @return false if the end of the stream has been reached.
+     */
+    private boolean fill() throws IOException {
+        while (true) {
+            while (this.blocks.size() < this.parallelism) {
+                final Block block = scan();
+                if (block == null) {
+                    break;
+                }
+                block.result = this.executor.submit(block);
+                this.blocks.add(block);
+            }
+
+            Block block = this.blocks.poll();
+            if (block == null) {
+                if (this.storedCombinedCRC != this.computedCombinedCRC) {
+                    throw new IOException("BZip2 CRC error");
+                }
+                return false;
+            }
+
+            byte[] data;
+            try {
+                data = get(block.result);
+            } catch (final IOException ex) {
+                // Maybe the block magic appeared by chance in the compressed
+                // data, so merge with the following blocks until decoding
+                // succeeds or the merged block exceeds the maximum size of a
+                // block, in which case the data is corrupted.
+                data = null;
+                while (data == null) {
+                    Block next = this.blocks.poll();
+                    if (next != null) {
+                        next.result.cancel(true);
+                    } else {
+                        next = scan();
+                        if (next == null) {
+                            throw ex;
+                        }
+                    }
+                    if (block.bitLength + next.bitLength > this.maxBlockBits) {
+                        throw ex;
+                    }
+                    block = new Block(block, next);
+                    try {
+                        data = block.call();
+                    } catch (final IOException ignored) {
+                        // merge with the next block
+                    }
+                }
+            }
+
+            this.computedCombinedCRC = (this.computedCombinedCRC << 1)
+                | (this.computedCombinedCRC >>> 31);
+            this.computedCombinedCRC ^= block.crc;
+
+            this.buf = data;
+            this.pos = 0;
+            this.limit = data.length;
+            if (this.limit > 0) {
+                return true;
+            }
+        }
+    }
+
+    private static byte[] get(final Future<byte[]> result) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new AssertionError(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt(); // restore
+            }
+        }
+    }
+
+    /**
+     * Scans the compressed data for the next block or end of stream magic
+     * and returns the bits of the current block.
+     *
+     * @return the current block or null if the end of the stream has already
+     *         been reached.
+     */
+    private Block scan() throws IOException {
+        if (this.eos) {
+            return null;
+        }
+        while (true) {
+            append(readByte());
+            final long end = (long) this.rawLen << 3;
+            if (end - this.rawStart > this.maxBlockBits + 64) {
+                throw new IOException("BZip2 block is too large");
+            }
+            for (int k = 7; k >= 0; k--) {
+                final long magic = (this.window >>> k) & MAGIC_MASK;
+                if (magic != BLOCK_MAGIC && magic != EOS_MAGIC) {
+                    continue;
+                }
+                final long magicStart = end - k - 48;
+                if (magicStart < this.rawStart + MIN_BLOCK_BITS) {
+                    continue;
+                }
+                final Block block = new Block(this.blockSize100k,
+                        extract(this.rawStart, magicStart),
+                        magicStart - this.rawStart);
+
+                // Keep the bytes from the next magic on.
+                final int from = (int) (magicStart >>> 3);
+                System.arraycopy(this.raw, from, this.raw, 0, this.rawLen - from);
+                this.rawLen -= from;
+                this.rawStart = magicStart & 7;
+
+                if (magic == EOS_MAGIC) {
+                    readStoredCombinedCRC();
+                }
+                return block;
+            }
+        }
+    }
+
+    /**
+     * Reads the combined CRC which follows the end of stream magic at
+     * {@link #rawStart}.
+     */
+    private void readStoredCombinedCRC() throws IOException {
+        final long crcStart = this.rawStart + 48;
+        while (((long) this.rawLen << 3) < crcStart + 32) {
+            append(readByte());
+        }
+        final byte[] crc = extract(crcStart, crcStart + 32);
+        this.storedCombinedCRC = ((crc[0] & 0xff) << 24)
+            | ((crc[1] & 0xff) << 16)
+            | ((crc[2] & 0xff) << 8)
+            | (crc[3] & 0xff);
+        this.eos = true;
+    }
+
+    private void append(final int b) {
+        if (this.rawLen == this.raw.length) {
+            final byte[] newRaw = new byte[this.raw.length << 1];
+            System.arraycopy(this.raw, 0, newRaw, 0, this.rawLen);
+            this.raw = newRaw;
+        }
+        this.raw[this.rawLen++] = (byte) b;
+        this.window = (this.window << 8) | b;
+    }
+
+    private int readByte() throws IOException {
+        if (this.ipos == this.ilen) {
+            int n;
+            while ((n = this.in.read(this.ibuf)) == 0) {
+            }
+            if (n < 0) {
+                throw new EOFException("unexpected end of BZip2 stream");
+            }
+            this.ipos = 0;
+            this.ilen = n;
+        }
+        return this.ibuf[this.ipos++] & 0xff;
+    }
+
+    /**
+     * Returns the bits from the given start position (inclusive) to the
+     * given end position (exclusive) in {@link #raw}, aligned to the first
+     * bit of the returned array.
+     */
+    private byte[] extract(final long from, final long to) {
+        final long n = to - from;
+        final byte[] out = new byte[(int) ((n + 7) >>> 3)];
+        final byte[] rawShadow = this.raw;
+        final int rawLenShadow = this.rawLen;
+        final int shift = (int) (from & 7);
+        final int src = (int) (from >>> 3);
+        for (int i = 0; i < out.length; i++) {
+            final int hi = rawShadow[src + i] & 0xff;
+            final int lo = src + i + 1 < rawLenShadow ? rawShadow[src + i + 1] & 0xff : 0;
+            out[i] = (byte) ((hi << shift) | (lo >>> (8 - shift)));
+        }
+        final int rem = (int) (n & 7);
+        if (rem != 0) {
+            out[out.length - 1] &= (byte) (0xff << (8 - rem));
+        }
+        return out;
+    }
+
+    /**
+     * Sets the given number of bits of the given value at the given bit
+     * position in the given array, starting with the most significant bit.
+     * The target bits must be zero.
+     */
+    private static void putBits(final byte[] buf, long pos,
+                                final long value, final int n) {
+        for (int i = n; --i >= 0; pos++) {
+            if (((value >>> i) & 1) != 0) {
+                buf[(int) (pos >>> 3)] |= 0x80 >>> (pos & 7);
+            }
+        }
+    }
+
+    /**
+     * The bits of a single block, starting with its block magic.
+     */
+    private static final class Block implements Callable<byte[]> {
+        final int blockSize100k;
+        final byte[] bits;
+        final long bitLength;
+        final int crc;
+        Future<byte[]> result;
+
+        Block(final int blockSize100k, final byte[] bits, final long bitLength) {
+            this.blockSize100k = blockSize100k;
+            this.bits = bits;
+            this.bitLength = bitLength;
+            this.crc = ((bits[6] & 0xff) << 24)
+                | ((bits[7] & 0xff) << 16)
+                | ((bits[8] & 0xff) << 8)
+                | (bits[9] & 0xff);
+        }
+
+        /** Concatenates the bits of the given blocks. */
+        Block(final Block first, final Block second) {
+            this.blockSize100k = first.blockSize100k;
+            this.bitLength = first.bitLength + second.bitLength;
+            final byte[] out = new byte[(int) ((this.bitLength + 7) >>> 3)];
+            System.arraycopy(first.bits, 0, out, 0, first.bits.length);
+            final int shift = (int) (first.bitLength & 7);
+            final int base = (int) (first.bitLength >>> 3);
+            final byte[] in = second.bits;
+            for (int i = 0; i < in.length; i++) {
+                final int b = in[i] & 0xff;
+                out[base + i] |= (byte) (b >>> shift);
+                if (shift != 0 && base + i + 1 < out.length) {
+                    out[base + i + 1] |= (byte) (b << (8 - shift));
+                }
+            }
+            this.bits = out;
+            this.crc = first.crc;
+        }
+
+        /**
+         * Decodes this block as a stream of its own, with the block CRC as
+         * the combined CRC.
+         */
+        @Override
+        public byte[] call() throws IOException {
+            final byte[] stream = new byte[4 + (int) ((this.bitLength + 80 + 7) >>> 3)];
+            stream[0] = 'B';
+            stream[1] = 'Z';
+            stream[2] = 'h';
+            stream[3] = (byte) ('0' + this.blockSize100k);
+            System.arraycopy(this.bits, 0, stream, 4, this.bits.length);
+            final long end = 32 + this.bitLength;
+            putBits(stream, end, EOS_MAGIC, 48);
+            putBits(stream, end + 48, this.crc & 0xffffffffL, 32);
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                this.blockSize100k * BZip2Constants.BASEBLOCKSIZE);
+            try {
+                final BZip2CompressorInputStream in = new BZip2CompressorInputStream(
+                    new ByteArrayInputStream(stream));
+                final byte[] buf = new byte[8192];
+                for (int n; (n = in.read(buf, 0, buf.length)) >= 0;) {
+                    out.write(buf, 0, n);
+                }
+                in.close();
+            } catch (final RuntimeException ex) {
+                // corrupted or falsely delimited block
+                throw new IOException("corrupted BZip2 block", ex);
+            }
+            return out.toByteArray();
+        }
+    }
+}